@@ -5,12 +5,14 @@ import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
-import datapersistence.ServerFileWriter;
+import datapersistence.DurabilityMode;
+import datapersistence.SegmentedLogWriter;
 import messages.ClientMessage;
 import messages.OrchMessage;
 import messages.RaftMessage;
 import raftstates.FailFlag;
 import raftstates.Follower;
+import raftstates.RaftConfig;
 import statemachine.CounterCommand;
 import statemachine.TicketCounter;
 
@@ -37,6 +39,10 @@ public class Orchestrator extends AbstractBehavior<OrchMessage> {
     private int numTicketRequestsPerClient = 25;
 
     private int initialCounterState = 100;
+
+    private DurabilityMode durabilityMode = DurabilityMode.FSYNC_PER_BATCH;
+
+    private RaftConfig raftConfig = new RaftConfig();
     private List<ActorRef<RaftMessage>> serverRefs;
     private List<ActorRef<ClientMessage>> clientRefs;
     int clientsTerminated;
@@ -131,9 +137,10 @@ public class Orchestrator extends AbstractBehavior<OrchMessage> {
     private ArrayList<ActorRef<RaftMessage>> createServers(int serverCount) {
         ArrayList<ActorRef<RaftMessage>> serverRefs = new ArrayList<>();
         for (int count = 0; count < serverCount; count++){
-            var serverRef = this.getContext().spawn(Follower.create(new ServerFileWriter(),
+            var serverRef = this.getContext().spawn(Follower.create(new SegmentedLogWriter(durabilityMode),
                                                                             new TicketCounter(initialCounterState),
-                                                                            new FailFlag()),
+                                                                            new FailFlag(),
+                                                                            raftConfig),
                                                                             "SERVER_" + count);
             serverRefs.add(serverRef);
             this.getContext().watchWith(serverRef, new OrchMessage.ServerTerminated());
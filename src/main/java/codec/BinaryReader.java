@@ -0,0 +1,57 @@
+package codec;
+
+import java.nio.charset.StandardCharsets;
+
+public class BinaryReader {
+
+    public BinaryReader(byte[] buffer){
+        this.buffer = buffer;
+        this.position = 0;
+    }
+
+    private final byte[] buffer;
+
+    private int position;
+
+    public int readVarint(){
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7){
+            byte b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalStateException("Malformed varint at position " + this.position);
+    }
+
+    public int readSignedVarint(){
+        int value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public String readString(){
+        int length = readVarint();
+        checkRemaining(length);
+        String value = new String(this.buffer, this.position, length, StandardCharsets.UTF_8);
+        this.position += length;
+        return value;
+    }
+
+    public int getPosition(){
+        return this.position;
+    }
+
+    public boolean hasRemaining(){
+        return this.position < this.buffer.length;
+    }
+
+    private byte readByte(){
+        checkRemaining(1);
+        return this.buffer[this.position++];
+    }
+
+    private void checkRemaining(int length){
+        if (this.position + length > this.buffer.length){
+            throw new IllegalStateException("Read past end of buffer at position " + this.position);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BinaryWriter {
+
+    public BinaryWriter(){
+        this(64);
+    }
+
+    public BinaryWriter(int initialCapacity){
+        this.buffer = new byte[initialCapacity];
+        this.position = 0;
+    }
+
+    private byte[] buffer;
+
+    private int position;
+
+    public void writeVarint(int value){
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0){
+            this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        this.buffer[this.position++] = (byte) value;
+    }
+
+    public void writeSignedVarint(int value){
+        writeVarint((value << 1) ^ (value >> 31));
+    }
+
+    public void writeString(String value){
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        writeBytes(bytes);
+    }
+
+    public void writeBytes(byte[] bytes){
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+    }
+
+    public int size(){
+        return this.position;
+    }
+
+    public void reset(){
+        this.position = 0;
+    }
+
+    public byte[] toByteArray(){
+        return Arrays.copyOf(this.buffer, this.position);
+    }
+
+    private void ensureCapacity(int extra){
+        if (this.position + extra > this.buffer.length){
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.position + extra));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package codec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// interns client refs so each entry only carries a small integer ID instead of the full ref string
+public class ClientIdTable {
+
+    public ClientIdTable(){
+        this(clientRef -> {});
+    }
+
+    public ClientIdTable(Consumer<String> onNewClient){
+        this.onNewClient = onNewClient;
+        this.idsByClientRef = new HashMap<>();
+        this.clientRefsByID = new ArrayList<>();
+    }
+
+    private final Consumer<String> onNewClient;
+
+    private final Map<String, Integer> idsByClientRef;
+
+    private final List<String> clientRefsByID;
+
+    public int getOrAddID(String clientRef){
+        Integer id = this.idsByClientRef.get(clientRef);
+        if (id != null) return id;
+        id = load(clientRef);
+        this.onNewClient.accept(clientRef);
+        return id;
+    }
+
+    // adds a client ref that is already persisted without notifying the listener
+    public int load(String clientRef){
+        int id = this.clientRefsByID.size();
+        this.clientRefsByID.add(clientRef);
+        this.idsByClientRef.put(clientRef, id);
+        return id;
+    }
+
+    public String getClientRef(int id){
+        if (id < 0 || id >= this.clientRefsByID.size()) throw new IllegalArgumentException("Unknown client ID " + id);
+        return this.clientRefsByID.get(id);
+    }
+
+    public int size(){
+        return this.clientRefsByID.size();
+    }
+}
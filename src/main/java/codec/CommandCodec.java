@@ -0,0 +1,11 @@
+package codec;
+
+import statemachine.Command;
+
+// encodes the command specific payload, the client ref and command ID are written by EntryCodec
+public interface CommandCodec<T extends Command> {
+
+    public void writePayload(T command, BinaryWriter out);
+
+    public T readCommand(String clientRef, int commandID, BinaryReader in);
+}
@@ -0,0 +1,39 @@
+package codec;
+
+import statemachine.Command;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CommandCodecRegistry {
+
+    public CommandCodecRegistry(){
+        this.tagsByType = new HashMap<>();
+        this.codecsByTag = new HashMap<>();
+    }
+
+    private final Map<Class<? extends Command>, Integer> tagsByType;
+
+    private final Map<Integer, CommandCodec<? extends Command>> codecsByTag;
+
+    public <T extends Command> void register(int tag, Class<T> commandType, CommandCodec<T> codec){
+        if (this.codecsByTag.containsKey(tag) && !Integer.valueOf(tag).equals(this.tagsByType.get(commandType))){
+            throw new IllegalArgumentException("Command tag " + tag + " is already registered");
+        }
+        this.tagsByType.put(commandType, tag);
+        this.codecsByTag.put(tag, codec);
+    }
+
+    public int getTag(Command command){
+        Integer tag = this.tagsByType.get(command.getClass());
+        if (tag == null) throw new IllegalArgumentException("No codec registered for " + command.getClass().getName());
+        return tag;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Command> CommandCodec<T> getCodec(int tag){
+        CommandCodec<? extends Command> codec = this.codecsByTag.get(tag);
+        if (codec == null) throw new IllegalArgumentException("No codec registered for command tag " + tag);
+        return (CommandCodec<T>) codec;
+    }
+}
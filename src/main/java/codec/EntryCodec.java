@@ -0,0 +1,79 @@
+package codec;
+
+import statemachine.Command;
+import statemachine.Entry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// an entry is its term, command tag, interned client ID, command ID and the tag's payload
+public class EntryCodec {
+
+    public EntryCodec(CommandCodecRegistry registry, ClientIdTable clients){
+        this.registry = registry;
+        this.clients = clients;
+    }
+
+    private final CommandCodecRegistry registry;
+
+    private final ClientIdTable clients;
+
+    public byte[] encode(Entry entry){
+        BinaryWriter out = new BinaryWriter();
+        write(entry, out);
+        return out.toByteArray();
+    }
+
+    public Entry decode(byte[] bytes){
+        return read(new BinaryReader(bytes));
+    }
+
+    public void write(Entry entry, BinaryWriter out){
+        write(this.registry, entry, this.clients.getOrAddID(entry.command().getClientRef()), out);
+    }
+
+    static void write(CommandCodecRegistry registry, Entry entry, int clientID, BinaryWriter out){
+        Command command = entry.command();
+        int tag = registry.getTag(command);
+        out.writeVarint(entry.term());
+        out.writeVarint(tag);
+        out.writeVarint(clientID);
+        out.writeSignedVarint(command.getCommandID());
+        registry.getCodec(tag).writePayload(command, out);
+    }
+
+    public Entry read(BinaryReader in){
+        int term = in.readVarint();
+        int tag = in.readVarint();
+        String clientRef = this.clients.getClientRef(in.readVarint());
+        int commandID = in.readSignedVarint();
+        Command command = this.registry.getCodec(tag).readCommand(clientRef, commandID, in);
+        return new Entry(term, command);
+    }
+
+    // self-contained encoding of a batch of entries that carries its own client table
+    public static byte[] encodeEntries(CommandCodecRegistry registry, List<Entry> entries){
+        ClientIdTable batchClients = new ClientIdTable();
+        EntryCodec batchCodec = new EntryCodec(registry, batchClients);
+        BinaryWriter body = new BinaryWriter();
+        for (Entry entry : entries) batchCodec.write(entry, body);
+        BinaryWriter out = new BinaryWriter(body.size() + 16);
+        out.writeVarint(batchClients.size());
+        for (int id = 0; id < batchClients.size(); id++) out.writeString(batchClients.getClientRef(id));
+        out.writeVarint(entries.size());
+        out.writeBytes(body.toByteArray());
+        return out.toByteArray();
+    }
+
+    public static List<Entry> decodeEntries(CommandCodecRegistry registry, byte[] bytes){
+        BinaryReader in = new BinaryReader(bytes);
+        ClientIdTable batchClients = new ClientIdTable();
+        int clientCount = in.readVarint();
+        for (int id = 0; id < clientCount; id++) batchClients.load(in.readString());
+        EntryCodec batchCodec = new EntryCodec(registry, batchClients);
+        int entryCount = in.readVarint();
+        List<Entry> entries = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) entries.add(batchCodec.read(in));
+        return entries;
+    }
+}
@@ -0,0 +1,22 @@
+package codec;
+
+import statemachine.Entry;
+
+// encoded size of an entry with its client ID counted as one byte, so no client refs are interned to measure it
+public class EntrySizer {
+
+    public EntrySizer(CommandCodecRegistry registry){
+        this.registry = registry;
+        this.buffer = new BinaryWriter();
+    }
+
+    private final CommandCodecRegistry registry;
+
+    private final BinaryWriter buffer;
+
+    public int getEncodedSize(Entry entry){
+        this.buffer.reset();
+        EntryCodec.write(this.registry, entry, 0, this.buffer);
+        return this.buffer.size();
+    }
+}
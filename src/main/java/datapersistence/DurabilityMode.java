@@ -0,0 +1,7 @@
+package datapersistence;
+
+public enum DurabilityMode {
+    FSYNC_PER_BATCH,    // every sync request waits for a FileChannel.force shared with concurrent requests
+    FSYNC_ON_TIMER,     // sync requests return at once and the log is forced on a fixed interval
+    PAGE_CACHE          // the log is left to the OS page cache and never forced
+}
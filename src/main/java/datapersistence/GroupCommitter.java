@@ -0,0 +1,128 @@
+package datapersistence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// syncs requested while a force runs share the next one; after a failed force every sync throws
+class GroupCommitter {
+
+    private static final long TIMER_SYNC_INTERVAL_MILLIS = 50;
+
+    GroupCommitter(DurabilityMode mode, Runnable forceLog){
+        this.mode = mode;
+        this.forceLog = forceLog;
+        this.pendingCallbacks = new ArrayList<>();
+    }
+
+    private final DurabilityMode mode;
+
+    private final Runnable forceLog;
+
+    private List<Runnable> pendingCallbacks;
+
+    private Thread flusher;
+
+    private boolean closed;
+
+    private RuntimeException failure;
+
+    void syncNow(){
+        startFlusher();
+        if (this.mode == DurabilityMode.FSYNC_PER_BATCH && !force()) throwFailure();
+    }
+
+    void requestSync(Runnable onDurable){
+        startFlusher();
+        if (this.mode != DurabilityMode.FSYNC_PER_BATCH){
+            onDurable.run();
+            return;
+        }
+        synchronized (this){
+            this.pendingCallbacks.add(onDurable);
+            notifyAll();
+        }
+    }
+
+    // callbacks already requested are run after one last force, then the flusher thread is stopped
+    void close(){
+        Thread running;
+        synchronized (this){
+            if (this.closed) return;
+            this.closed = true;
+            running = this.flusher;
+            notifyAll();
+        }
+        if (running == null) return;
+        try {
+            running.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void startFlusher(){
+        if (this.failure != null) throwFailure();
+        if (this.closed) throw new IllegalStateException("Log is closed");
+        if (this.flusher != null || this.mode == DurabilityMode.PAGE_CACHE) return;
+        Runnable loop = this.mode == DurabilityMode.FSYNC_PER_BATCH ? this::flushBatches : this::flushOnTimer;
+        this.flusher = new Thread(loop, "log-group-commit");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    private void flushBatches(){
+        List<Runnable> batch;
+        while ((batch = takePendingCallbacks()) != null){
+            if (!force()) return;
+            for (Runnable onDurable : batch) onDurable.run();
+        }
+    }
+
+    // null once the committer is closed and every request made before has been taken
+    private synchronized List<Runnable> takePendingCallbacks(){
+        while (this.pendingCallbacks.isEmpty()){
+            if (this.closed) return null;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        List<Runnable> batch = this.pendingCallbacks;
+        this.pendingCallbacks = new ArrayList<>();
+        return batch;
+    }
+
+    private void flushOnTimer(){
+        while (awaitNextTimerSync()){
+            if (!force()) return;
+        }
+        force();
+    }
+
+    private synchronized boolean awaitNextTimerSync(){
+        if (this.closed) return false;
+        try {
+            wait(TIMER_SYNC_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return !this.closed;
+    }
+
+    private boolean force(){
+        try {
+            this.forceLog.run();
+            return true;
+        } catch (RuntimeException e) {
+            synchronized (this){
+                if (this.failure == null) this.failure = e;
+            }
+            return false;
+        }
+    }
+
+    private synchronized void throwFailure(){
+        throw new RuntimeException("Log force failed", this.failure);
+    }
+}
@@ -0,0 +1,192 @@
+package datapersistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// one piece of the log: [length][bytes] records in the .log file and their offsets in the .idx file
+class LogSegment {
+
+    private static final int OFFSET_BYTES = 4;
+    private static final int LENGTH_BYTES = 4;
+
+    static LogSegment open(File directory, int firstIndex) throws IOException {
+        LogSegment segment = new LogSegment(directory, firstIndex);
+        segment.recover();
+        return segment;
+    }
+
+    static String getLogFileName(int firstIndex){
+        return String.format("%010d.log", firstIndex);
+    }
+
+    static boolean isLogFileName(String fileName){
+        return fileName.matches("\\d{10}\\.log");
+    }
+
+    static int getFirstIndex(String logFileName){
+        return Integer.parseInt(logFileName.substring(0, logFileName.indexOf('.')));
+    }
+
+    private LogSegment(File directory, int firstIndex) throws IOException {
+        this.firstIndex = firstIndex;
+        this.logFile = new File(directory, getLogFileName(firstIndex));
+        this.indexFile = new File(directory, String.format("%010d.idx", firstIndex));
+        this.logChannel = openChannel(this.logFile);
+        this.indexChannel = openChannel(this.indexFile);
+    }
+
+    private final int firstIndex;
+
+    private final File logFile;
+
+    private final File indexFile;
+
+    private final FileChannel logChannel;
+
+    private final FileChannel indexChannel;
+
+    private int entryCount;
+
+    private long size;
+
+    int getFirstIndex(){
+        return this.firstIndex;
+    }
+
+    int getNextIndex(){
+        return this.firstIndex + this.entryCount;
+    }
+
+    int getEntryCount(){
+        return this.entryCount;
+    }
+
+    long getSize(){
+        return this.size;
+    }
+
+    void append(List<byte[]> records) throws IOException {
+        if (records.isEmpty()) return;
+        int recordBytes = 0;
+        for (byte[] record : records) recordBytes += LENGTH_BYTES + record.length;
+        ByteBuffer recordBuffer = ByteBuffer.allocate(recordBytes);
+        ByteBuffer offsetBuffer = ByteBuffer.allocate(records.size() * OFFSET_BYTES);
+        long offset = this.size;
+        for (byte[] record : records){
+            offsetBuffer.putInt((int) offset);
+            recordBuffer.putInt(record.length);
+            recordBuffer.put(record);
+            offset += LENGTH_BYTES + record.length;
+        }
+        writeFully(this.logChannel, recordBuffer.flip(), this.size);
+        writeFully(this.indexChannel, offsetBuffer.flip(), (long) this.entryCount * OFFSET_BYTES);
+        this.size = offset;
+        this.entryCount += records.size();
+    }
+
+    void truncate(int index) throws IOException {
+        int keep = Math.max(0, index - this.firstIndex);
+        if (keep >= this.entryCount) return;
+        long offset = readOffset(keep);
+        this.indexChannel.truncate((long) keep * OFFSET_BYTES);
+        this.logChannel.truncate(offset);
+        this.entryCount = keep;
+        this.size = offset;
+    }
+
+    List<byte[]> readAll() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) this.size);
+        readFully(this.logChannel, buffer, 0);
+        buffer.flip();
+        List<byte[]> records = new ArrayList<>(this.entryCount);
+        for (int i = 0; i < this.entryCount; i++){
+            byte[] record = new byte[buffer.getInt()];
+            buffer.get(record);
+            records.add(record);
+        }
+        return records;
+    }
+
+    void force() throws IOException {
+        this.logChannel.force(false);
+        this.indexChannel.force(false);
+    }
+
+    void close() throws IOException {
+        this.logChannel.close();
+        this.indexChannel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        this.logFile.delete();
+        this.indexFile.delete();
+    }
+
+    // drops a torn tail left by a crash mid-write and re-indexes complete records the index missed
+    private void recover() throws IOException {
+        long logSize = this.logChannel.size();
+        int count = (int) (this.indexChannel.size() / OFFSET_BYTES);
+        long end = 0;
+        while (count > 0){
+            long offset = readOffset(count - 1);
+            long recordEnd = getRecordEnd(offset, logSize);
+            if (recordEnd > 0){
+                end = recordEnd;
+                break;
+            }
+            count--;
+        }
+        this.indexChannel.truncate((long) count * OFFSET_BYTES);
+        ByteBuffer offsetBuffer = ByteBuffer.allocate(OFFSET_BYTES);
+        long recordEnd;
+        while ((recordEnd = getRecordEnd(end, logSize)) > 0){
+            offsetBuffer.clear();
+            writeFully(this.indexChannel, offsetBuffer.putInt((int) end).flip(), (long) count * OFFSET_BYTES);
+            count++;
+            end = recordEnd;
+        }
+        this.logChannel.truncate(end);
+        this.entryCount = count;
+        this.size = end;
+    }
+
+    private long getRecordEnd(long offset, long logSize) throws IOException {
+        if (offset + LENGTH_BYTES > logSize) return -1;
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(LENGTH_BYTES);
+        readFully(this.logChannel, lengthBuffer, offset);
+        int length = lengthBuffer.flip().getInt();
+        long recordEnd = offset + LENGTH_BYTES + length;
+        if (length < 0 || recordEnd > logSize) return -1;
+        return recordEnd;
+    }
+
+    private long readOffset(int position) throws IOException {
+        ByteBuffer offsetBuffer = ByteBuffer.allocate(OFFSET_BYTES);
+        readFully(this.indexChannel, offsetBuffer, (long) position * OFFSET_BYTES);
+        return offsetBuffer.flip().getInt();
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()){
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new IOException("Unexpected end of segment file at " + position);
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package datapersistence;
+
+import codec.BinaryReader;
+import codec.BinaryWriter;
+import codec.ClientIdTable;
+import codec.CommandCodecRegistry;
+import codec.EntryCodec;
+import statemachine.Entry;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// keeps the log in append-only segment files, so writes cost the same however long the log is
+public class SegmentedLogWriter extends ServerFileWriter {
+
+    private static final int DEFAULT_MAX_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    public SegmentedLogWriter(){
+        this(DEFAULT_MAX_SEGMENT_BYTES, DurabilityMode.FSYNC_PER_BATCH);
+    }
+
+    public SegmentedLogWriter(DurabilityMode durabilityMode){
+        this(DEFAULT_MAX_SEGMENT_BYTES, durabilityMode);
+    }
+
+    public SegmentedLogWriter(int maxSegmentBytes){
+        this(maxSegmentBytes, DurabilityMode.FSYNC_PER_BATCH);
+    }
+
+    public SegmentedLogWriter(int maxSegmentBytes, DurabilityMode durabilityMode){
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.durabilityMode = durabilityMode;
+        this.dirtySegments = ConcurrentHashMap.newKeySet();
+        this.groupCommitter = new GroupCommitter(durabilityMode, this::forceDirtySegments);
+        this.clientIDs = new ClientIdTable(this::persistClientRef);
+    }
+
+    private final int maxSegmentBytes;
+
+    private final DurabilityMode durabilityMode;
+
+    private final Set<LogSegment> dirtySegments;
+
+    // held for a whole pass over dirtySegments, so a sync never returns while another thread is still forcing a segment it took out of the set
+    private final Object forceLock = new Object();
+
+    private final GroupCommitter groupCommitter;
+
+    private List<LogSegment> segments;
+
+    private final ClientIdTable clientIDs;
+
+    private FileChannel clientDictionary;
+
+    private EntryCodec entryCodec;
+
+    @Override
+    public void setCommandCodecs(CommandCodecRegistry registry) {
+        this.entryCodec = new EntryCodec(registry, this.clientIDs);
+    }
+
+    @Override
+    public void saveLog(List<Entry> log) {
+        appendToLog(getLogStartIndex(), log);
+    }
+
+    @Override
+    public void appendToLog(int fromIndex, List<Entry> entries) {
+        try {
+            if (fromIndex > getNextLogIndex()) {
+                throw new IllegalArgumentException("Cannot append at index " + fromIndex + ", log ends at " + getNextLogIndex());
+            }
+            if (fromIndex < getNextLogIndex()) truncateLog(fromIndex);
+            writeEntries(entries);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void compactLog(int throughIndex) {
+        try {
+            if (throughIndex >= getNextLogIndex() - 1){
+                List<LogSegment> discarded = new ArrayList<>(this.segments);
+                this.segments.clear();
+                this.segments.add(LogSegment.open(getLogDirectory(), throughIndex + 1));
+                for (LogSegment segment : discarded) discardSegment(segment);
+                return;
+            }
+            while (this.segments.get(0).getNextIndex() - 1 <= throughIndex){
+                discardSegment(this.segments.remove(0));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getLogStartIndex() {
+        return this.segments.get(0).getFirstIndex();
+    }
+
+    @Override
+    public void syncLog() {
+        this.groupCommitter.syncNow();
+    }
+
+    @Override
+    public void syncLogAsync(Runnable onDurable) {
+        this.groupCommitter.requestSync(onDurable);
+    }
+
+    @Override
+    public void close() {
+        this.groupCommitter.close();
+        try {
+            if (this.segments != null){
+                for (LogSegment segment : this.segments) segment.close();
+            }
+            if (this.clientDictionary != null) this.clientDictionary.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<Entry> getLog() {
+        try {
+            List<Entry> log = new ArrayList<>();
+            for (LogSegment segment : this.segments){
+                for (byte[] record : segment.readAll()) log.add(this.entryCodec.decode(record));
+            }
+            return log;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected void initializeLog() throws IOException {
+        if (this.segments != null) return;
+        File logDirectory = getLogDirectory();
+        logDirectory.mkdirs();
+        this.segments = new ArrayList<>();
+        for (int firstIndex : getSegmentFirstIndexes(logDirectory)){
+            this.segments.add(LogSegment.open(logDirectory, firstIndex));
+        }
+        if (this.segments.isEmpty()) this.segments.add(LogSegment.open(logDirectory, 0));
+        discardSegmentsBeforeGap();
+        loadClientDictionary(new File(logDirectory, "clients.dat"));
+    }
+
+    private void loadClientDictionary(File dictionaryFile) throws IOException {
+        byte[] contents = dictionaryFile.exists() ? Files.readAllBytes(dictionaryFile.toPath()) : new byte[0];
+        BinaryReader in = new BinaryReader(contents);
+        int validLength = 0;
+        try {
+            while (in.hasRemaining()){
+                this.clientIDs.load(in.readString());
+                validLength = in.getPosition();
+            }
+        } catch (IllegalStateException e) {
+            // torn final record, dropped by the truncate below
+        }
+        this.clientDictionary = FileChannel.open(dictionaryFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.clientDictionary.truncate(validLength);
+        this.clientDictionary.position(validLength);
+    }
+
+    // forced straight away so no durable entry can reference a client ID the dictionary lost
+    private void persistClientRef(String clientRef) {
+        try {
+            BinaryWriter record = new BinaryWriter();
+            record.writeString(clientRef);
+            ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+            while (buffer.hasRemaining()) this.clientDictionary.write(buffer);
+            if (this.durabilityMode != DurabilityMode.PAGE_CACHE) this.clientDictionary.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeEntries(List<Entry> entries) throws IOException {
+        List<byte[]> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (Entry entry : entries){
+            byte[] record = this.entryCodec.encode(entry);
+            if (isSegmentFull(batchBytes + record.length)){
+                appendToActiveSegment(batch);
+                batch.clear();
+                batchBytes = 0;
+                rollSegment();
+            }
+            batch.add(record);
+            batchBytes += Integer.BYTES + record.length;
+        }
+        appendToActiveSegment(batch);
+    }
+
+    private void appendToActiveSegment(List<byte[]> records) throws IOException {
+        LogSegment active = getActiveSegment();
+        active.append(records);
+        this.dirtySegments.add(active);
+    }
+
+    private void forceDirtySegments() {
+        synchronized (this.forceLock){
+            for (LogSegment segment : this.dirtySegments){
+                this.dirtySegments.remove(segment);
+                try {
+                    segment.force();
+                } catch (ClosedChannelException e) {
+                    // segment was deleted by a truncation, nothing left to make durable
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    private boolean isSegmentFull(long pendingBytes) {
+        LogSegment active = getActiveSegment();
+        boolean isEmpty = active.getEntryCount() == 0 && pendingBytes == 0;
+        return !isEmpty && active.getSize() + pendingBytes + Integer.BYTES > this.maxSegmentBytes;
+    }
+
+    private void rollSegment() throws IOException {
+        LogSegment full = getActiveSegment();
+        this.segments.add(LogSegment.open(getLogDirectory(), full.getNextIndex()));
+    }
+
+    private void truncateLog(int fromIndex) throws IOException {
+        while (this.segments.size() > 1 && getActiveSegment().getFirstIndex() >= fromIndex){
+            discardSegment(this.segments.remove(this.segments.size() - 1));
+        }
+        getActiveSegment().truncate(fromIndex);
+        this.dirtySegments.add(getActiveSegment());
+    }
+
+    // a crash while compacting past the end of the log can leave older segments behind the new empty one
+    private void discardSegmentsBeforeGap() throws IOException {
+        for (int i = this.segments.size() - 1; i > 0; i--){
+            if (this.segments.get(i - 1).getNextIndex() != this.segments.get(i).getFirstIndex()){
+                while (i-- > 0) discardSegment(this.segments.remove(0));
+                return;
+            }
+        }
+    }
+
+    private void discardSegment(LogSegment segment) throws IOException {
+        this.dirtySegments.remove(segment);
+        segment.delete();
+    }
+
+    private int getNextLogIndex() {
+        return getActiveSegment().getNextIndex();
+    }
+
+    private LogSegment getActiveSegment() {
+        return this.segments.get(this.segments.size() - 1);
+    }
+
+    private File getLogDirectory() {
+        return new File(getActorDirectoryPath() + "/log/");
+    }
+
+    private static List<Integer> getSegmentFirstIndexes(File logDirectory) {
+        List<Integer> firstIndexes = new ArrayList<>();
+        String[] fileNames = logDirectory.list();
+        if (fileNames == null) return firstIndexes;
+        for (String fileName : fileNames){
+            if (LogSegment.isLogFileName(fileName)) firstIndexes.add(LogSegment.getFirstIndex(fileName));
+        }
+        firstIndexes.sort(Integer::compare);
+        return firstIndexes;
+    }
+}
@@ -2,20 +2,38 @@ package datapersistence;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorRefResolver;
+import codec.CommandCodecRegistry;
 import messages.RaftMessage;
 import statemachine.Entry;
+import statemachine.Snapshot;
 
 import java.util.List;
 public interface ServerDataManager {
 
     public void saveLog(List<Entry> log);
+    // replaces any persisted entries at fromIndex and beyond with entries
+    public void appendToLog(int fromIndex, List<Entry> entries);
+    // blocks until everything appended so far is durable
+    public void syncLog();
+    // runs onDurable, possibly on another thread, once everything appended so far is durable
+    public void syncLogAsync(Runnable onDurable);
+    // discards persisted entries up to and including throughIndex, the log may end up empty past it
+    public void compactLog(int throughIndex);
+    public void saveSnapshot(Snapshot snapshot);
     public void saveCurrentTerm(int term);
     public void saveVotedFor(ActorRef<RaftMessage> actorRef);
     public void saveGroupRefs(List<ActorRef<RaftMessage>> groupRefs);
+    // entries starting at getLogStartIndex()
     public List<Entry> getLog();
+    public int getLogStartIndex();
+    // null when no snapshot has been saved
+    public Snapshot getSnapshot();
     public int getCurrentTerm();
     public ActorRef<RaftMessage> getVotedFor();
     public List<ActorRef<RaftMessage>> getGroupRefs();
     public void setServerID(int ID);
     public void setActorRefResolver(ActorRefResolver refResolver);
+    public void setCommandCodecs(CommandCodecRegistry registry);
+    // stops background syncing and releases open files once the server has stopped, nothing is saved afterwards
+    public void close();
 }
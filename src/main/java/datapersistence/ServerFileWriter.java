@@ -2,24 +2,52 @@ package datapersistence;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorRefResolver;
+import codec.CommandCodecRegistry;
 import messages.RaftMessage;
 import statemachine.Entry;
+import statemachine.Snapshot;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 public class ServerFileWriter implements ServerDataManager {
 
     @Override
     public void saveLog(List<Entry> log) {
-        try {
-            ObjectOutputStream oos = createObjectOutputStream(getLogFile());
-            oos.writeObject(log);
-            oos.flush();
-            oos.close();
-        }catch(IOException e){
-            throw new RuntimeException(e);
-        }
+        writeLogFile(new PersistedLog(getLogStartIndex(), new ArrayList<>(log)));
+    }
+
+    @Override
+    public void appendToLog(int fromIndex, List<Entry> entries) {
+        PersistedLog log = readLogFile();
+        int keep = Math.max(0, Math.min(fromIndex - log.startIndex(), log.entries().size()));
+        ArrayList<Entry> updatedEntries = new ArrayList<>(log.entries().subList(0, keep));
+        updatedEntries.addAll(entries);
+        writeLogFile(new PersistedLog(log.startIndex(), updatedEntries));
+    }
+
+    @Override
+    public void compactLog(int throughIndex) {
+        PersistedLog log = readLogFile();
+        if (throughIndex < log.startIndex()) return;
+        int discard = Math.min(throughIndex + 1 - log.startIndex(), log.entries().size());
+        ArrayList<Entry> remainingEntries = new ArrayList<>(log.entries().subList(discard, log.entries().size()));
+        writeLogFile(new PersistedLog(throughIndex + 1, remainingEntries));
+    }
+
+    @Override
+    public int getLogStartIndex() {
+        return readLogFile().startIndex();
+    }
+
+    @Override
+    public void syncLog() {}
+
+    @Override
+    public void syncLogAsync(Runnable onDurable) {
+        onDurable.run();
     }
 
     @Override
@@ -64,14 +92,36 @@ public class ServerFileWriter implements ServerDataManager {
 
     @Override
     public List<Entry> getLog() {
+        return readLogFile().entries();
+    }
+
+    @Override
+    public void saveSnapshot(Snapshot snapshot) {
         try {
-            ObjectInputStream ois = createObjectInputStream(getLogFile());
-            List<Entry> log = (ArrayList<Entry>) ois.readObject();
+            File snapshotFile = getSnapshotFile();
+            File tempFile = new File(snapshotFile.getPath() + ".tmp");
+            ObjectOutputStream oos = createObjectOutputStream(tempFile);
+            oos.writeObject(snapshot);
+            oos.flush();
+            oos.close();
+            Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        File snapshotFile = getSnapshotFile();
+        if (!snapshotFile.exists()) return null;
+        try {
+            ObjectInputStream ois = createObjectInputStream(snapshotFile);
+            Snapshot snapshot = (Snapshot) ois.readObject();
             ois.close();
-            return log;
-        }catch(IOException e){
+            return snapshot;
+        } catch (IOException e) {
             throw new RuntimeException(e);
-        }catch(ClassNotFoundException e){
+        } catch (ClassNotFoundException e) {
             throw new RuntimeException(e);
         }
     }
@@ -134,6 +184,12 @@ public class ServerFileWriter implements ServerDataManager {
         this.refResolver = refResolver;
     }
 
+    @Override
+    public void setCommandCodecs(CommandCodecRegistry registry) {}
+
+    @Override
+    public void close() {}
+
     private int serverUID;
 
     private ActorRefResolver refResolver;
@@ -155,7 +211,6 @@ public class ServerFileWriter implements ServerDataManager {
     private void initializeDataFiles(){
         File actorDirectory = new File(getActorDirectoryPath());
         File currentTermFile = getCurrentTermFile();
-        File logFile = getLogFile();
         File votedForFile = getVotedForFile();
         File groupRefFile = getGroupRefFile();
 
@@ -167,10 +222,7 @@ public class ServerFileWriter implements ServerDataManager {
                 currentTermFile.createNewFile();
                 saveCurrentTerm(0);
             }
-            if (!logFile.exists()) {
-                logFile.createNewFile();
-                saveLog(new ArrayList<Entry>());
-            }
+            initializeLog();
             if (!votedForFile.exists()){
                 votedForFile.createNewFile();
                 saveVotedFor(null);
@@ -187,6 +239,38 @@ public class ServerFileWriter implements ServerDataManager {
     }
 
 
+    protected void initializeLog() throws IOException {
+        File logFile = getLogFile();
+        if (!logFile.exists()) {
+            logFile.createNewFile();
+            writeLogFile(new PersistedLog(0, new ArrayList<>()));
+        }
+    }
+
+    private PersistedLog readLogFile() {
+        try {
+            ObjectInputStream ois = createObjectInputStream(getLogFile());
+            PersistedLog log = (PersistedLog) ois.readObject();
+            ois.close();
+            return log;
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }catch(ClassNotFoundException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeLogFile(PersistedLog log) {
+        try {
+            ObjectOutputStream oos = createObjectOutputStream(getLogFile());
+            oos.writeObject(log);
+            oos.flush();
+            oos.close();
+        }catch(IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
     private static ObjectOutputStream createObjectOutputStream(File logFile) throws IOException {
         FileOutputStream fos = new FileOutputStream(logFile);
         return new ObjectOutputStream(fos);
@@ -197,7 +281,7 @@ public class ServerFileWriter implements ServerDataManager {
         return new ObjectInputStream(fis);
     }
 
-    private String getActorDirectoryPath(){
+    protected String getActorDirectoryPath(){
         String UID = String.valueOf(this.serverUID);
         return "./data/" + UID + "/";
     }
@@ -209,6 +293,10 @@ public class ServerFileWriter implements ServerDataManager {
         return new File(getActorDirectoryPath() + "/log.ser");
     }
 
+    private File getSnapshotFile(){
+        return new File(getActorDirectoryPath() + "/snapshot.ser");
+    }
+
     private File getVotedForFile(){
         return new File(getActorDirectoryPath() + "/vote.ser");
     }
@@ -219,4 +307,6 @@ public class ServerFileWriter implements ServerDataManager {
 
     private record VotedForWrapper(String votedFor) implements Serializable{ }
 
+    private record PersistedLog(int startIndex, ArrayList<Entry> entries) implements Serializable{ }
+
 }
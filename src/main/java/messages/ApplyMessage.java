@@ -0,0 +1,22 @@
+package messages;
+
+import akka.actor.typed.ActorRef;
+import statemachine.Entry;
+import statemachine.Snapshot;
+
+import java.util.List;
+
+public interface ApplyMessage {
+
+    public record Apply(int firstIndex, List<Entry> entries, boolean respondToClients) implements ApplyMessage {}
+
+    public record CommittedRead(int readIndex, ActorRef<ClientMessage> clientRef) implements ApplyMessage {}
+
+    public record TakeSnapshot() implements ApplyMessage {}
+
+    public record InstallSnapshot(Snapshot snapshot) implements ApplyMessage {}
+
+    public record Reset() implements ApplyMessage {}
+
+    public record GetState(ActorRef<RaftMessage> sender) implements ApplyMessage {}
+}
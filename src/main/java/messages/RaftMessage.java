@@ -3,6 +3,7 @@ package messages;
 import akka.actor.typed.ActorRef;
 import statemachine.Command;
 import statemachine.Entry;
+import statemachine.Snapshot;
 
 import java.util.List;
 
@@ -16,6 +17,9 @@ public interface RaftMessage {
 
     public record ClientUnstableReadRequest(ActorRef<ClientMessage> clientRef) implements RaftMessage {}
 
+    // committed state as of whatever the receiving server has heard committed, so it may miss recent writes
+    public record ClientLaggedReadRequest(ActorRef<ClientMessage> clientRef) implements RaftMessage {}
+
     public record AppendEntries(int term,
                                 ActorRef<RaftMessage> leaderRef,
                                 int prevLogIndex,
@@ -24,22 +28,76 @@ public interface RaftMessage {
                                 int leaderCommit
                                 ) implements RaftMessage {}
 
+    // leadershipTransfer is set when the leader told the candidate to campaign, so followers holding its lease still vote
     public record RequestVote(int term,
                               ActorRef<RaftMessage> candidateRef,
                               int lastLogIndex,
-                              int lastLogTerm
+                              int lastLogTerm,
+                              boolean leadershipTransfer
                               ) implements RaftMessage {}
 
-    public record AppendEntriesResponse(ActorRef<RaftMessage> sender, int term, boolean success, int matchIndex) implements RaftMessage {}
+    // on rejection, the conflicting term and its first index (or -1 and the log length), so the leader backs up a term at a time
+    public record AppendEntriesResponse(ActorRef<RaftMessage> sender,
+                                        int term,
+                                        boolean success,
+                                        int matchIndex,
+                                        int conflictTerm,
+                                        int conflictIndex) implements RaftMessage {
+        public AppendEntriesResponse(ActorRef<RaftMessage> sender, int term, boolean success, int matchIndex){
+            this(sender, term, success, matchIndex, -1, -1);
+        }
+    }
 
     public record RequestVoteResponse(int term, boolean voteGranted) implements RaftMessage {}
 
+    // asks whether the candidate could win an election at term, without anyone changing their term or vote
+    public record PreVote(int term,
+                          ActorRef<RaftMessage> candidateRef,
+                          int lastLogIndex,
+                          int lastLogTerm
+                          ) implements RaftMessage {}
+
+    public record PreVoteResponse(int term, boolean voteGranted) implements RaftMessage {}
+
+    // sent by an operator to the leader, a null target hands leadership to the most up to date follower
+    public record TransferLeadership(ActorRef<RaftMessage> target) implements RaftMessage {}
+
+    // tells a follower the leader has caught it up and wants it to start an election at once
+    public record TimeoutNow(int term, ActorRef<RaftMessage> leaderRef) implements RaftMessage {}
+
+    // a new server or promoted learner catches up before it votes; one change at a time
+    public record AddServer(ActorRef<RaftMessage> server, ActorRef<RaftMessage> replyTo) implements RaftMessage {}
+
+    public record AddLearner(ActorRef<RaftMessage> server, ActorRef<RaftMessage> replyTo) implements RaftMessage {}
+
+    public record RemoveServer(ActorRef<RaftMessage> server, ActorRef<RaftMessage> replyTo) implements RaftMessage {}
+
+    public record MembershipChangeResponse(boolean success, ActorRef<RaftMessage> server) implements RaftMessage {}
+
+    public record InstallSnapshot(int term, ActorRef<RaftMessage> leaderRef, Snapshot snapshot) implements RaftMessage {}
+
+    public record InstallSnapshotResponse(ActorRef<RaftMessage> sender, int term, int lastIncludedIndex) implements RaftMessage {}
+
     public record SetGroupRefs(List<ActorRef<RaftMessage>> groupRefs) implements RaftMessage {}
 
     public record Start() implements RaftMessage{}
 
     public record TimeOut() implements RaftMessage {}
 
+    public record ReadIndexRequest(ActorRef<RaftMessage> sender, int requestID) implements RaftMessage {}
+
+    public record ReadIndexResponse(int requestID, int readIndex) implements RaftMessage {}
+
+    public record LogPersisted(int index) implements RaftMessage {}
+
+    public record EntriesApplied(int index) implements RaftMessage {}
+
+    public record SnapshotTaken(Snapshot snapshot) implements RaftMessage {}
+
+    public record FlushBatch() implements RaftMessage {}
+
+    public record TransferTimedOut() implements RaftMessage {}
+
     public record Failure() implements RaftMessage {}
     public record ShutDown(ActorRef<OrchMessage> sender) implements RaftMessage {}
 
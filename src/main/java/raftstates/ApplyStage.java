@@ -0,0 +1,224 @@
+package raftstates;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import messages.ApplyMessage;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import statemachine.Command;
+import statemachine.ConfigurationCommand;
+import statemachine.Entry;
+import statemachine.SessionTable;
+import statemachine.Snapshot;
+import statemachine.StateMachine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+// applies committed entries on a child actor, so a slow state machine never holds up the Raft thread
+class ApplyStage {
+
+    static ApplyStage spawn(ActorContext<RaftMessage> context, StateMachine stateMachine, RaftConfig config, int appliedIndex){
+        ApplyStage stage = new ApplyStage(stateMachine, config.sessionTimeoutEntries, appliedIndex);
+        ActorRef<RaftMessage> server = context.getSelf();
+        stage.applier = context.spawnAnonymous(Behaviors.setup(applierContext -> new Applier(applierContext, stage, server)));
+        return stage;
+    }
+
+    private ApplyStage(StateMachine stateMachine, int sessionTimeoutEntries, int appliedIndex){
+        this.stateMachine = stateMachine;
+        this.sessionTimeoutEntries = sessionTimeoutEntries;
+        this.sessions = new SessionTable();
+        this.appliedIndex = appliedIndex;
+        this.appliedTerm = -1;
+        this.initialState = stateMachine.forkStateMachine();
+        this.initialIndex = appliedIndex;
+    }
+
+    private ActorRef<ApplyMessage> applier;
+
+    private final StateMachine stateMachine;
+
+    // never applied to, so forking it needs no lock
+    private final StateMachine initialState;
+
+    private final int initialIndex;
+
+    private final int sessionTimeoutEntries;
+
+    private SessionTable sessions;
+
+    private int appliedIndex;
+
+    private int appliedTerm;
+
+    // latest applied configuration entry, carried in snapshots
+    private ConfigurationCommand configuration;
+
+    record Fork(StateMachine state, SessionTable sessions, int appliedIndex) {}
+
+    void apply(int firstIndex, List<Entry> entries, boolean respondToClients){
+        this.applier.tell(new ApplyMessage.Apply(firstIndex, entries, respondToClients));
+    }
+
+    void read(int readIndex, ActorRef<ClientMessage> client){
+        this.applier.tell(new ApplyMessage.CommittedRead(readIndex, client));
+    }
+
+    void takeSnapshot(){
+        this.applier.tell(new ApplyMessage.TakeSnapshot());
+    }
+
+    void installSnapshot(Snapshot snapshot){
+        this.applier.tell(new ApplyMessage.InstallSnapshot(snapshot));
+    }
+
+    void reset(){
+        this.applier.tell(new ApplyMessage.Reset());
+    }
+
+    void sendState(ActorRef<RaftMessage> sender){
+        this.applier.tell(new ApplyMessage.GetState(sender));
+    }
+
+    // the state the stage started with, which the log after initialIndex is replayed onto
+    Fork forkInitialState(){
+        return new Fork(this.initialState.forkStateMachine(), new SessionTable(), this.initialIndex);
+    }
+
+    // entries an installed snapshot already covers are skipped, as are retries of updates already applied
+    private synchronized void applyEntries(int firstIndex, List<Entry> entries){
+        List<Command> batch = new ArrayList<>();
+        for (int i = Math.max(0, this.appliedIndex + 1 - firstIndex); i < entries.size(); i++){
+            Command command = entries.get(i).command();
+            if (command instanceof ConfigurationCommand configuration){
+                this.configuration = configuration;
+                continue;
+            }
+            if (this.sessions.isSkipped(command)) continue;
+            this.sessions.record(command, firstIndex + i, this.sessionTimeoutEntries);
+            batch.add(command);
+        }
+        this.stateMachine.applyAll(batch);
+        int lastIndex = firstIndex + entries.size() - 1;
+        if (lastIndex > this.appliedIndex){
+            this.appliedIndex = lastIndex;
+            this.appliedTerm = entries.get(entries.size() - 1).term();
+        }
+    }
+
+    private synchronized boolean installIfAhead(Snapshot snapshot){
+        if (snapshot.lastIncludedIndex() <= this.appliedIndex) return false;
+        this.stateMachine.installSnapshot(snapshot.state());
+        this.sessions = snapshot.sessions().copy();
+        this.configuration = snapshot.configuration();
+        this.appliedIndex = snapshot.lastIncludedIndex();
+        this.appliedTerm = snapshot.lastIncludedTerm();
+        return true;
+    }
+
+    private synchronized void resetState(){
+        this.stateMachine.resetState();
+        this.sessions = new SessionTable();
+        this.configuration = null;
+        this.appliedIndex = -1;
+        this.appliedTerm = -1;
+    }
+
+    private synchronized Snapshot snapshot(){
+        return new Snapshot(this.appliedIndex, this.appliedTerm, this.stateMachine.takeSnapshot(), this.sessions.copy(), this.configuration);
+    }
+
+    private synchronized Object getState(){
+        return this.stateMachine.getState();
+    }
+
+    private synchronized int getAppliedIndex(){
+        return this.appliedIndex;
+    }
+
+    private static class Applier extends AbstractBehavior<ApplyMessage> {
+
+        Applier(ActorContext<ApplyMessage> context, ApplyStage stage, ActorRef<RaftMessage> server){
+            super(context);
+            this.stage = stage;
+            this.server = server;
+            this.refResolver = ActorRefResolver.get(context.getSystem());
+            this.pendingReads = new ArrayDeque<>();
+        }
+
+        private final ApplyStage stage;
+
+        private final ActorRef<RaftMessage> server;
+
+        private final ActorRefResolver refResolver;
+
+        // committed reads answered in order once the applied index reaches their read index
+        private final ArrayDeque<PendingRead> pendingReads;
+
+        private record PendingRead(int readIndex, ActorRef<ClientMessage> client) {}
+
+        @Override
+        public Receive<ApplyMessage> createReceive() {
+            return newReceiveBuilder()
+                    .onMessage(ApplyMessage.class, this::dispatch)
+                    .build();
+        }
+
+        private Behavior<ApplyMessage> dispatch(ApplyMessage message){
+            switch (message) {
+                case ApplyMessage.Apply msg:
+                    this.stage.applyEntries(msg.firstIndex(), msg.entries());
+                    if (msg.respondToClients()) sendClientResponses(msg.entries());
+                    publishAppliedIndex();
+                    break;
+                case ApplyMessage.CommittedRead msg:
+                    this.pendingReads.addLast(new PendingRead(msg.readIndex(), msg.clientRef()));
+                    answerPendingReads();
+                    break;
+                case ApplyMessage.TakeSnapshot msg:
+                    this.server.tell(new RaftMessage.SnapshotTaken(this.stage.snapshot()));
+                    break;
+                case ApplyMessage.InstallSnapshot msg:
+                    if (this.stage.installIfAhead(msg.snapshot())) publishAppliedIndex();
+                    break;
+                case ApplyMessage.Reset msg:
+                    this.stage.resetState();
+                    this.pendingReads.clear();
+                    break;
+                case ApplyMessage.GetState msg:
+                    msg.sender().tell(new RaftMessage.TestMessage.GetStateMachineStateResponse<>(this.stage.getState()));
+                    break;
+                default:
+                    break;
+            }
+            return this;
+        }
+
+        private void sendClientResponses(List<Entry> entries){
+            for (Entry entry : entries){
+                if (entry.command() instanceof ConfigurationCommand) continue;
+                ActorRef<ClientMessage> client = this.refResolver.resolveActorRef(entry.command().getClientRef());
+                client.tell(new ClientMessage.ClientUpdateResponse(true, entry.command().getCommandID()));
+            }
+        }
+
+        private void publishAppliedIndex(){
+            answerPendingReads();
+            this.server.tell(new RaftMessage.EntriesApplied(this.stage.getAppliedIndex()));
+        }
+
+        private void answerPendingReads(){
+            int appliedIndex = this.stage.getAppliedIndex();
+            while (!this.pendingReads.isEmpty() && this.pendingReads.peekFirst().readIndex() <= appliedIndex){
+                this.pendingReads.pollFirst().client().tell(new ClientMessage.ClientCommittedReadResponse<>(this.stage.getState()));
+            }
+        }
+    }
+}
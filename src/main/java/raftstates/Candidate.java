@@ -2,6 +2,7 @@ package raftstates;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
 import akka.actor.typed.PreRestart;
 import akka.actor.typed.SupervisorStrategy;
 import akka.actor.typed.javadsl.ActorContext;
@@ -27,6 +28,55 @@ public class Candidate extends RaftServer {
                                                List<ActorRef<RaftMessage>> groupRefs,
                                                int commitIndex,
                                                int lastApplied){
+        return create(dataManager, stateMachine, failFlag, new RaftConfig(), timerKey, currentTerm, groupRefs, commitIndex, lastApplied);
+    }
+
+    public static Behavior<RaftMessage> create(ServerDataManager dataManager,
+                                               StateMachine stateMachine,
+                                               FailFlag failFlag,
+                                               RaftConfig config,
+                                               Object timerKey,
+                                               int currentTerm,
+                                               List<ActorRef<RaftMessage>> groupRefs,
+                                               int commitIndex,
+                                               int lastApplied){
+        return Behaviors.setup(outerContext -> {
+            ApplyStage applyStage = ApplyStage.spawn(outerContext, stateMachine, config, lastApplied);
+            return Behaviors.<RaftMessage>supervise(
+                    Behaviors.setup(context -> Behaviors.withTimers(timers -> new Candidate(
+                            context,
+                            timers,
+                            dataManager,
+                            stateMachine,
+                            failFlag,
+                            config,
+                            applyStage,
+                            timerKey,
+                            currentTerm,
+                            groupRefs,
+                            commitIndex,
+                            lastApplied)))
+            ).onFailure(SupervisorStrategy.restart().withStopChildren(false));
+        });
+    }
+
+    static Behavior<RaftMessage> create(ServerDataManager dataManager,
+                                        StateMachine stateMachine,
+                                        FailFlag failFlag,
+                                        RaftConfig config,
+                                        Object timerKey,
+                                        ServerState state){
+        return create(dataManager, stateMachine, failFlag, config, timerKey, state, false);
+    }
+
+    // a candidate the leader handed leadership to skips the pre-vote, since the leader is stepping aside for it
+    static Behavior<RaftMessage> create(ServerDataManager dataManager,
+                                        StateMachine stateMachine,
+                                        FailFlag failFlag,
+                                        RaftConfig config,
+                                        Object timerKey,
+                                        ServerState state,
+                                        boolean leadershipTransfer){
         return Behaviors.<RaftMessage>supervise(
                 Behaviors.setup(context -> Behaviors.withTimers(timers -> new Candidate(
                         context,
@@ -34,12 +84,11 @@ public class Candidate extends RaftServer {
                         dataManager,
                         stateMachine,
                         failFlag,
+                        config,
                         timerKey,
-                        currentTerm,
-                        groupRefs,
-                        commitIndex,
-                        lastApplied)))
-        ).onFailure(SupervisorStrategy.restart());
+                        state,
+                        leadershipTransfer)))
+        ).onFailure(SupervisorStrategy.restart().withStopChildren(false));
     }
 
     @Override
@@ -47,12 +96,16 @@ public class Candidate extends RaftServer {
         return newReceiveBuilder()
                 .onMessage(RaftMessage.class, this::dispatch)
                 .onSignal(PreRestart.class, this::handlePreRestart)
+                .onSignal(PostStop.class, this::handlePostStop)
                 .build();
     }
 
     private int votesReceived;
     private int votesRequired;
 
+    // granted pre-votes are counted in votesReceived until the candidate moves on to the election itself
+    private boolean preVoting;
+
     private List<RaftMessage.ClientUpdateRequest> requestBuffer;
 
     private List<RaftMessage.ClientCommittedReadRequest> committedRequestBuffer;
@@ -64,23 +117,59 @@ public class Candidate extends RaftServer {
                         ServerDataManager dataManager,
                         StateMachine stateMachine,
                         FailFlag failFlag,
+                        RaftConfig config,
+                        ApplyStage applyStage,
                         Object timerKey,
                         int currentTerm,
                         List<ActorRef<RaftMessage>> groupRefs,
                         int commitIndex,
                         int lastApplied){
-        super(context, timers, dataManager, stateMachine, failFlag, timerKey, commitIndex, lastApplied);
+        super(context, timers, dataManager, stateMachine, failFlag, config, applyStage, timerKey, commitIndex, lastApplied);
         this.currentTerm = currentTerm;
         this.dataManager.saveCurrentTerm(this.currentTerm);
-        this.groupRefs = groupRefs;
-        this.dataManager.saveGroupRefs(this.groupRefs);
+        setInitialGroupRefs(groupRefs);
+        startElection();
+    }
+
+    protected Candidate(ActorContext<RaftMessage> context,
+                        TimerScheduler<RaftMessage> timers,
+                        ServerDataManager dataManager,
+                        StateMachine stateMachine,
+                        FailFlag failFlag,
+                        RaftConfig config,
+                        Object timerKey,
+                        ServerState state,
+                        boolean leadershipTransfer){
+        super(context, timers, dataManager, stateMachine, failFlag, config, timerKey, state);
+        startElection();
+        if (leadershipTransfer) startVoting(true);
+        else startRound();
+    }
+
+    private void startElection() {
         this.votesReceived = 0;
-        this.votesRequired = getVotesRequired(groupRefs);
+        this.votesRequired = getVotesRequired(this.groupRefs);
         this.requestBuffer = new ArrayList<>();
         this.committedRequestBuffer = new ArrayList<>();
         startTimer();
     }
 
+    // every election timeout starts over with a pre-vote, so a candidate cut off from the group keeps its term
+    private void startRound() {
+        this.votesReceived = 0;
+        if (this.config.preVote){
+            this.preVoting = true;
+            sendPreVotesToAllNodes();
+        } else startVoting(false);
+        startTimer();
+    }
+
+    private void startVoting(boolean leadershipTransfer) {
+        this.preVoting = false;
+        this.votesReceived = 0;
+        startElectionTerm(leadershipTransfer);
+    }
+
 
     private Behavior<RaftMessage> dispatch(RaftMessage message){
         if (!this.failFlag.failed) {
@@ -90,18 +179,25 @@ public class Candidate extends RaftServer {
                     if (msg.term() < this.currentTerm) sendAppendEntriesResponse(msg, false);
                     else {
                         sendBufferedRequests(msg.leaderRef());
-                        return Follower.create(dataManager, this.stateMachine, this.failFlag);
+                        return Follower.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.TIMER_KEY, captureState());
+                    }
+                    break;
+                case RaftMessage.InstallSnapshot msg:
+                    if (msg.term() < this.currentTerm) msg.leaderRef().tell(new RaftMessage.InstallSnapshotResponse(getContext().getSelf(), this.currentTerm, -1));
+                    else {
+                        sendBufferedRequests(msg.leaderRef());
+                        return Follower.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.TIMER_KEY, captureState());
                     }
                     break;
                 case RaftMessage.RequestVote msg:
                     if (msg.term() > this.currentTerm)
-                        return Follower.create(this.dataManager, this.stateMachine, this.failFlag);
+                        return Follower.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.TIMER_KEY, captureState());
                     else sendRequestVoteFailResponse(msg);
                     break;
                 case RaftMessage.RequestVoteResponse msg:
                     if (msg.term() > this.currentTerm)
-                        return Follower.create(this.dataManager, this.stateMachine, this.failFlag);
-                    else {
+                        return Follower.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.TIMER_KEY, captureState());
+                    else if (!this.preVoting) {
                         handleRequestVoteResponse(msg);
                         if (votesReceived >= votesRequired) {
                             getContext().getLog().info(getContext().getSelf().path().name() + " ELECTED TO LEADER ");
@@ -110,10 +206,20 @@ public class Candidate extends RaftServer {
                         }
                     }
                     break;
+                case RaftMessage.PreVote msg:
+                    handlePreVote(msg, false);
+                    break;
+                case RaftMessage.PreVoteResponse msg:
+                    if (msg.term() > this.currentTerm)
+                        return Follower.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.TIMER_KEY, captureState());
+                    else if (this.preVoting) {
+                        handleRequestVoteResponse(msg.voteGranted());
+                        if (votesReceived >= votesRequired) startVoting(false);
+                    }
+                    break;
                 case RaftMessage.TimeOut msg:
                     getContext().getLog().info("CANDIDATE TIMEOUT STARTING NEW ELECTION");
-                    handleTimeOut();
-                    votesReceived = 0;
+                    startRound();
                     break;
                 case RaftMessage.ClientUpdateRequest msg:
                     handleClientRequest(msg);
@@ -124,6 +230,24 @@ public class Candidate extends RaftServer {
                 case RaftMessage.ClientUnstableReadRequest msg:
                     handleUnstableReadRequest(msg);
                     break;
+                case RaftMessage.ClientLaggedReadRequest msg:
+                    handleLaggedReadRequest(msg);
+                    break;
+                case RaftMessage.AddServer msg:
+                    msg.replyTo().tell(new RaftMessage.MembershipChangeResponse(false, msg.server()));
+                    break;
+                case RaftMessage.AddLearner msg:
+                    msg.replyTo().tell(new RaftMessage.MembershipChangeResponse(false, msg.server()));
+                    break;
+                case RaftMessage.RemoveServer msg:
+                    msg.replyTo().tell(new RaftMessage.MembershipChangeResponse(false, msg.server()));
+                    break;
+                case RaftMessage.EntriesApplied msg:
+                    handleEntriesApplied(msg);
+                    break;
+                case RaftMessage.SnapshotTaken msg:
+                    handleSnapshotTaken(msg);
+                    break;
                 case RaftMessage.Failure msg:   // Used to simulate node failure
                     throw new RuntimeException("Test Failure");
                 case RaftMessage.ShutDown msg:
@@ -139,7 +263,7 @@ public class Candidate extends RaftServer {
             resetTransientState();
             this.failFlag.failed = false;
             getContext().getSelf().tell(message);
-            return Follower.create(this.dataManager, this.stateMachine, this.failFlag);
+            return Follower.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.applyStage);
         }
 
     }
@@ -160,14 +284,16 @@ public class Candidate extends RaftServer {
                 this.stateMachine,
                 this.TIMER_KEY,
                 this.failFlag,
-                this.currentTerm,
-                this.groupRefs,
-                this.commitIndex,
-                this.lastApplied);
+                this.config,
+                captureState());
     }
 
     private void handleRequestVoteResponse(RaftMessage.RequestVoteResponse msg) {
-        if (msg.voteGranted() == true) votesReceived++;
+        handleRequestVoteResponse(msg.voteGranted());
+    }
+
+    private void handleRequestVoteResponse(boolean voteGranted) {
+        if (voteGranted) votesReceived++;
     }
 
     private void handleTestMessage(RaftMessage.TestMessage message) {
@@ -176,11 +302,11 @@ public class Candidate extends RaftServer {
                 msg.sender().tell(new RaftMessage.TestMessage.GetBehaviorResponse("CANDIDATE"));
                 break;
             case RaftMessage.TestMessage.GetStateMachineState msg:
-                msg.sender().tell(new RaftMessage.TestMessage.GetStateMachineStateResponse((this.stateMachine.getState())));
+                this.applyStage.sendState(msg.sender());
                 break;
             case RaftMessage.TestMessage.SaveEntries msg:
-                this.log.addAll(msg.entries());
-                this.dataManager.saveLog(this.log);
+                this.log.appendAll(msg.entries());
+                this.dataManager.saveLog(getLogEntries(this.log.getStartIndex(), getLastLogIndex() + 1));
                 updateTentativeState();
                 break;
             default:
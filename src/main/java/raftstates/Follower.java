@@ -2,6 +2,7 @@ package raftstates;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
 import akka.actor.typed.PreRestart;
 import akka.actor.typed.SupervisorStrategy;
 import akka.actor.typed.javadsl.ActorContext;
@@ -10,6 +11,7 @@ import akka.actor.typed.javadsl.Receive;
 import akka.actor.typed.javadsl.TimerScheduler;
 import datapersistence.ServerDataManager;
 import messages.RaftMessage;
+import statemachine.Snapshot;
 import statemachine.StateMachine;
 
 import java.util.ArrayList;
@@ -19,9 +21,24 @@ import java.util.List;
 public class Follower extends RaftServer {
 
     public static Behavior<RaftMessage> create(ServerDataManager dataManager, StateMachine stateMachine, FailFlag failFlag){
+        return create(dataManager, stateMachine, failFlag, new RaftConfig());
+    }
+
+    public static Behavior<RaftMessage> create(ServerDataManager dataManager, StateMachine stateMachine, FailFlag failFlag, RaftConfig config){
+        return Behaviors.setup(context -> create(dataManager, stateMachine, failFlag, config, ApplyStage.spawn(context, stateMachine, config, -1)));
+    }
+
+    // the apply stage is kept across restarts, which reset it instead of starting another one
+    static Behavior<RaftMessage> create(ServerDataManager dataManager, StateMachine stateMachine, FailFlag failFlag, RaftConfig config, ApplyStage applyStage){
         return Behaviors.<RaftMessage>supervise(
-            Behaviors.setup(context -> Behaviors.withTimers(timers -> new Follower(context, timers, dataManager, stateMachine, failFlag)))
-        ).onFailure(SupervisorStrategy.restart());
+            Behaviors.setup(context -> Behaviors.withTimers(timers -> new Follower(context, timers, dataManager, stateMachine, failFlag, config, applyStage)))
+        ).onFailure(SupervisorStrategy.restart().withStopChildren(false));
+    }
+
+    static Behavior<RaftMessage> create(ServerDataManager dataManager, StateMachine stateMachine, FailFlag failFlag, RaftConfig config, Object timerKey, ServerState state){
+        return Behaviors.<RaftMessage>supervise(
+            Behaviors.setup(context -> Behaviors.withTimers(timers -> new Follower(context, timers, dataManager, stateMachine, failFlag, config, timerKey, state)))
+        ).onFailure(SupervisorStrategy.restart().withStopChildren(false));
     }
 
 
@@ -30,46 +47,78 @@ public class Follower extends RaftServer {
         return newReceiveBuilder()
                 .onMessage(RaftMessage.class, this::dispatch)
                 .onSignal(PreRestart.class, this::handlePreRestart)
+                .onSignal(PostStop.class, this::handlePostStop)
                 .build();
     }
 
 
 
-    protected Follower(ActorContext<RaftMessage> context, TimerScheduler<RaftMessage> timers, ServerDataManager dataManager, StateMachine stateMachine, FailFlag failFlag){
-        super(context, timers, dataManager, stateMachine, failFlag,  -1,-1);
+    protected Follower(ActorContext<RaftMessage> context, TimerScheduler<RaftMessage> timers, ServerDataManager dataManager, StateMachine stateMachine, FailFlag failFlag, RaftConfig config, ApplyStage applyStage){
+        super(context, timers, dataManager, stateMachine, failFlag, config, applyStage, -1,-1);
+        updateRequestBuffer = new ArrayList<>();
+        queuedReads = new ArrayList<>();
+        requestingReads = new ArrayList<>();
+        currentLeader = null;
+        initializeLeaderContact();
+    }
+
+    // reuses the previous role's timer key so its pending timeout is replaced by the election timer
+    protected Follower(ActorContext<RaftMessage> context, TimerScheduler<RaftMessage> timers, ServerDataManager dataManager, StateMachine stateMachine, FailFlag failFlag, RaftConfig config, Object timerKey, ServerState state){
+        super(context, timers, dataManager, stateMachine, failFlag, config, timerKey, state);
         updateRequestBuffer = new ArrayList<>();
-        committedReadBuffer = new ArrayList<>();
+        queuedReads = new ArrayList<>();
+        requestingReads = new ArrayList<>();
         currentLeader = null;
+        initializeLeaderContact();
+        startTimer();
     }
 
     private ActorRef<RaftMessage> currentLeader;
 
+    private long lastLeaderContact;
+
     private List<RaftMessage.ClientUpdateRequest> updateRequestBuffer;
-    private List<RaftMessage.ClientCommittedReadRequest> committedReadBuffer;
 
+    // reads arriving while a read index request is out wait for the next one, which covers them all
+    private List<RaftMessage.ClientCommittedReadRequest> queuedReads;
+
+    private List<RaftMessage.ClientCommittedReadRequest> requestingReads;
+
+    private int readIndexRequestID;
 
 
-    private Behavior<RaftMessage> dispatch(RaftMessage message){
+
+    protected Behavior<RaftMessage> dispatch(RaftMessage message){
         if (!this.failFlag.failed) {
             switch (message) {
                 case RaftMessage.Start msg:
                     startTimer();
-                    break;
+                    return getRoleForConfiguration();
                 case RaftMessage.SetGroupRefs msg:
-                    this.groupRefs = msg.groupRefs();
-                    this.dataManager.saveGroupRefs(this.groupRefs);
-                    break;
+                    setInitialGroupRefs(msg.groupRefs());
+                    return getRoleForConfiguration();
                 case RaftMessage.AppendEntries msg:
                     handleAppendEntries(msg);
-                    break;
+                    return getRoleForConfiguration();
+                case RaftMessage.InstallSnapshot msg:
+                    handleInstallSnapshot(msg);
+                    return getRoleForConfiguration();
                 case RaftMessage.RequestVote msg:
                     handleRequestVote(msg);
                     break;
+                case RaftMessage.PreVote msg:
+                    handlePreVote(msg, hasRecentLeaderContact());
+                    break;
+                case RaftMessage.TimeoutNow msg:
+                    if (msg.term() < this.currentTerm || !canStartElection()) break;
+                    getContext().getLog().info(getContext().getSelf().path().name() + ": LEADERSHIP TRANSFERRED, STARTING ELECTION " + getContext().getSelf().path().uid());
+                    sendBufferedRequestsToSelf();
+                    return Candidate.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.TIMER_KEY, captureState(), true);
                 case RaftMessage.TimeOut msg:
-                    handleTimeOut();
+                    if (!canStartElection()) break;   // the timer is started again by the next leader to reach this server
                     getContext().getLog().info(getContext().getSelf().path().name() + ": TIMEOUT STARTING ELECTION " + getContext().getSelf().path().uid());
                     sendBufferedRequestsToSelf();
-                    return Candidate.create(this.dataManager, this.stateMachine, this.failFlag, this.TIMER_KEY, this.currentTerm, this.groupRefs, this.commitIndex, this.lastApplied);
+                    return Candidate.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.TIMER_KEY, captureState());
                 case RaftMessage.ClientUpdateRequest msg:
                     handleClientUpdateRequest(msg);
                     break;
@@ -79,6 +128,30 @@ public class Follower extends RaftServer {
                 case RaftMessage.ClientUnstableReadRequest msg:
                     handleUnstableReadRequest(msg);
                     break;
+                case RaftMessage.ClientLaggedReadRequest msg:
+                    handleLaggedReadRequest(msg);
+                    break;
+                case RaftMessage.ReadIndexRequest msg:
+                    if (this.currentLeader != null) this.currentLeader.tell(msg);
+                    break;
+                case RaftMessage.AddServer msg:
+                    forwardMembershipChange(msg, msg.server(), msg.replyTo());
+                    break;
+                case RaftMessage.AddLearner msg:
+                    forwardMembershipChange(msg, msg.server(), msg.replyTo());
+                    break;
+                case RaftMessage.RemoveServer msg:
+                    forwardMembershipChange(msg, msg.server(), msg.replyTo());
+                    break;
+                case RaftMessage.ReadIndexResponse msg:
+                    handleReadIndexResponse(msg);
+                    break;
+                case RaftMessage.EntriesApplied msg:
+                    handleEntriesApplied(msg);
+                    break;
+                case RaftMessage.SnapshotTaken msg:
+                    handleSnapshotTaken(msg);
+                    break;
                 case RaftMessage.TestMessage msg:
                     handleTestMessage(msg);
                     break;
@@ -98,10 +171,19 @@ public class Follower extends RaftServer {
         }
     }
 
+    // a configuration listing this server as a learner hands it to that role, the learner hands it back once it is not
+    protected Behavior<RaftMessage> getRoleForConfiguration() {
+        if (!this.isLearner) return this;
+        getContext().getLog().info(getContext().getSelf().path().name() + ": ADDED AS LEARNER " + getContext().getSelf().path().uid());
+        sendBufferedRequestsToSelf();
+        return Learner.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.TIMER_KEY, captureState());
+    }
+
     private void handleAppendEntries(RaftMessage.AppendEntries msg){
         updateCurrentTerm(msg.term());
+        if (msg.term() >= this.currentTerm) this.lastLeaderContact = System.nanoTime();
         if (doesAppendEntriesFail(msg)){
-            sendAppendEntriesResponse(msg, false);
+            sendRejectedAppendEntriesResponse(msg);
         } else {
             startTimer();
             processSuccessfulAppendEntries(msg);
@@ -111,80 +193,165 @@ public class Follower extends RaftServer {
 
     private boolean doesAppendEntriesFail(RaftMessage.AppendEntries msg) {
         if (msg.term() < this.currentTerm) return true;
-        else if (msg.prevLogIndex() == -1) return false;
-        else if (this.log.size() <= msg.prevLogIndex()) return true;
-        if (this.log.size() < 1) return false;
-        else if(this.log.get(msg.prevLogIndex()).term() != msg.prevLogTerm()) return true;
+        else if (msg.prevLogIndex() <= getSnapshotIndex()) return false;   // snapshot entries are committed so always match
+        else if (getLastLogIndex() < msg.prevLogIndex()) return true;
+        else if(getLogTerm(msg.prevLogIndex()) != msg.prevLogTerm()) return true;
         return false;
     }
 
+    private void sendRejectedAppendEntriesResponse(RaftMessage.AppendEntries msg) {
+        int conflictTerm = -1;
+        int conflictIndex = -1;
+        if (msg.term() >= this.currentTerm){
+            if (getLastLogIndex() < msg.prevLogIndex()) conflictIndex = getLastLogIndex() + 1;
+            else {
+                conflictTerm = getLogTerm(msg.prevLogIndex());
+                conflictIndex = this.log.getFirstIndexOfTerm(conflictTerm);
+            }
+        }
+        msg.leaderRef().tell(new RaftMessage.AppendEntriesResponse(getContext().getSelf(),
+                                                                    this.currentTerm,
+                                                                    false,
+                                                                    msg.prevLogIndex() + msg.entries().size(),
+                                                                    conflictTerm,
+                                                                    conflictIndex));
+    }
+
+    // entries are persisted before committing so a snapshot never compacts past the end of the stored log
     private void processSuccessfulAppendEntries(RaftMessage.AppendEntries msg) {
-        addEntriesToLog(msg);
+        int firstNewIndex = addEntriesToLog(msg);
+        persistNewEntries(firstNewIndex);
+        updateConfiguration(firstNewIndex);
         updateCommitIndex(msg);
-        this.dataManager.saveLog(this.log);
         updateTentativeState();
         checkIfNewLeader(msg);
-        this.currentLeader = msg.leaderRef();
+        setCurrentLeader(msg.leaderRef());
         this.votedFor = null;
     }
 
-    private void addEntriesToLog(RaftMessage.AppendEntries msg) {
+    private int addEntriesToLog(RaftMessage.AppendEntries msg) {
         int entryCount = msg.entries().size();
         for (int i = 0; i < entryCount; i++){
-            if (entryIndexExceedsLogSize(msg, i)){
+            int entryIndex = msg.prevLogIndex() + 1 + i;
+            if (entryIndex <= getSnapshotIndex()) continue;
+            if (entryIndexExceedsLogSize(entryIndex)){
                 addRemainingEntriesToLog(msg, i);
-                break;
+                return entryIndex;
             }
             else if (isConflictBetweenMessageAndLogEntry(msg, i)){
-                removeConflictingLogEntries(msg.prevLogIndex(), i);
+                removeConflictingLogEntries(entryIndex);
                 addRemainingEntriesToLog(msg, i);
-                break;
+                return entryIndex;
             }
         }
+        return getLastLogIndex() + 1;
+    }
+
+    private void persistNewEntries(int firstNewIndex) {
+        if (firstNewIndex <= getLastLogIndex()){
+            this.dataManager.appendToLog(firstNewIndex, getLogEntries(firstNewIndex, getLastLogIndex() + 1));
+            this.dataManager.syncLog();
+        }
+    }
+
+    private void handleInstallSnapshot(RaftMessage.InstallSnapshot msg) {
+        updateCurrentTerm(msg.term());
+        if (msg.term() >= this.currentTerm){
+            startTimer();
+            this.lastLeaderContact = System.nanoTime();
+            if (msg.snapshot().lastIncludedIndex() > getSnapshotIndex()) installSnapshot(msg.snapshot());
+            if (this.currentLeader == null) forwardBufferedRequestsToLeader(msg.leaderRef());
+            setCurrentLeader(msg.leaderRef());
+            this.votedFor = null;
+        }
+        msg.leaderRef().tell(new RaftMessage.InstallSnapshotResponse(getContext().getSelf(), this.currentTerm, getSnapshotIndex()));
+    }
+
+    // keeps any log suffix that follows the snapshot, otherwise the snapshot replaces the whole log
+    private void installSnapshot(Snapshot snapshot) {
+        int lastIncludedIndex = snapshot.lastIncludedIndex();
+        int logStartIndex = this.log.getStartIndex();
+        boolean logContainsSnapshotEnd = lastIncludedIndex >= logStartIndex
+                && lastIncludedIndex <= getLastLogIndex()
+                && getLogTerm(lastIncludedIndex) == snapshot.lastIncludedTerm();
+        if (!logContainsSnapshotEnd && getLastLogIndex() > lastIncludedIndex){
+            this.dataManager.appendToLog(Math.max(lastIncludedIndex + 1, logStartIndex), new ArrayList<>());
+            removeConflictingLogEntries(Math.max(lastIncludedIndex + 1, logStartIndex));
+        }
+        this.dataManager.saveSnapshot(snapshot);
+        this.dataManager.compactLog(lastIncludedIndex);
+        discardLogThrough(lastIncludedIndex);
+        this.snapshot = snapshot;
+        if (this.lastDispatched < lastIncludedIndex){
+            this.applyStage.installSnapshot(snapshot);
+            this.sessions = snapshot.sessions().copy();
+            invalidateTentativeState();
+            this.lastDispatched = lastIncludedIndex;
+            this.commitIndex = Math.max(this.commitIndex, lastIncludedIndex);
+        }
+        reloadConfiguration();
+        updateTentativeState();
     }
 
     private void checkIfNewLeader(RaftMessage.AppendEntries msg) {
         if (this.currentLeader == null){
-            forwardBufferedRequestsToLeader(msg);
+            forwardBufferedRequestsToLeader(msg.leaderRef());
         }
     }
 
-    private void forwardBufferedRequestsToLeader(RaftMessage.AppendEntries msg) {
+    private void forwardBufferedRequestsToLeader(ActorRef<RaftMessage> leader) {
         for (RaftMessage.ClientUpdateRequest request : updateRequestBuffer){
-            msg.leaderRef().tell(request);
-        }
-        for (RaftMessage.ClientCommittedReadRequest request : committedReadBuffer){
-            msg.leaderRef().tell(request);
+            leader.tell(request);
         }
         updateRequestBuffer.clear();
-        committedReadBuffer.clear();
+        this.currentLeader = leader;
+        requestReadIndexIfReady();
     }
 
-    private boolean entryIndexExceedsLogSize(RaftMessage.AppendEntries msg, int i) {
-        return msg.prevLogIndex() + i > log.size() - 1 || msg.prevLogIndex() + 1 + i >= log.size();
+    // a request sent to a previous leader may never be answered, so its reads are asked for again
+    private void setCurrentLeader(ActorRef<RaftMessage> leader) {
+        if (leader.equals(this.currentLeader)) return;
+        this.currentLeader = leader;
+        if (this.requestingReads.isEmpty()) return;
+        this.requestingReads.addAll(this.queuedReads);
+        this.queuedReads.clear();
+        List<RaftMessage.ClientCommittedReadRequest> reads = this.queuedReads;
+        this.queuedReads = this.requestingReads;
+        this.requestingReads = reads;
+        requestReadIndexIfReady();
+    }
+
+    private boolean entryIndexExceedsLogSize(int entryIndex) {
+        return entryIndex > getLastLogIndex();
     }
 
     private void addRemainingEntriesToLog(RaftMessage.AppendEntries msg, int i) {
-        this.log.addAll(msg.entries().subList(i, msg.entries().size()));
-        this.log = new ArrayList<>(this.log);
+        this.log.appendAll(msg.entries().subList(i, msg.entries().size()));
     }
 
     private boolean isConflictBetweenMessageAndLogEntry(RaftMessage.AppendEntries msg, int i) {
-        return msg.entries().get(i).term() != this.log.get(msg.prevLogIndex() + 1 + i).term();
+        return msg.entries().get(i).term() != getLogTerm(msg.prevLogIndex() + 1 + i);
     }
 
-    private void removeConflictingLogEntries(int prevLogIndex, int i) {
-        this.log = this.log.subList(0, prevLogIndex + i + 1);
+    private void removeConflictingLogEntries(int fromIndex) {
+        invalidateTentativeState();
+        this.log.truncateFrom(fromIndex);
     }
 
+    // only entries this message has shown to match the leader's log may be committed, never a stale tail past them
     private void updateCommitIndex(RaftMessage.AppendEntries msg) {
-        if (msg.leaderCommit() > this.commitIndex){
-            this.commitIndex = Math.min(msg.leaderCommit(), this.log.size() - 1);
-            if (commitIndex != -1) this.applyCommittedEntriesToStateMachine();
+        int newCommitIndex = Math.min(msg.leaderCommit(), msg.prevLogIndex() + msg.entries().size());
+        if (newCommitIndex > this.commitIndex){
+            this.commitIndex = newCommitIndex;
+            this.applyCommittedEntriesToStateMachine(false);
         }
     }
 
     private void handleRequestVote(RaftMessage.RequestVote msg) {
+        if (isLeaseHeld() && !msg.leadershipTransfer()){
+            returnRequestVoteResponse(msg, false);
+            return;
+        }
         updateCurrentTerm(msg.term());
         if (doesRequestVoteFail(msg)) {
             returnRequestVoteResponse(msg, false);
@@ -202,16 +369,36 @@ public class Follower extends RaftServer {
         else if (votedFor != null) {
             return true;}
 
-        else if (this.log.size() == 0) return false;
+        else if (getLastLogIndex() == -1) return false;
 
-        else if (msg.lastLogTerm() < this.log.get(log.size()-1).term()) return true;
+        else if (msg.lastLogTerm() < getLastLogTerm()) return true;
 
-        else if (msg.lastLogTerm() == this.log.get(log.size()-1).term()) {
-            if (msg.lastLogIndex() < this.log.size() - 1) return true;
+        else if (msg.lastLogTerm() == getLastLogTerm()) {
+            if (msg.lastLogIndex() < getLastLogIndex()) return true;
         }
         return false;
     }
 
+    // a server that is not a voter, or has no one to ask for votes such as one waiting to be added to a group, never campaigns
+    private boolean canStartElection() {
+        return this.isVoter && !this.groupRefs.isEmpty();
+    }
+
+    // a leader serving lease reads counts on this follower not helping elect anyone until its election timeout has passed
+    private boolean isLeaseHeld() {
+        return this.config.leaseReads && hasRecentLeaderContact();
+    }
+
+    // a restarted server cannot know whether it acknowledged a lease holder just before, so it assumes it did
+    private void initializeLeaderContact() {
+        if (this.config.leaseReads) this.lastLeaderContact = System.nanoTime();
+    }
+
+    private boolean hasRecentLeaderContact() {
+        if (this.lastLeaderContact == 0) return false;
+        return System.nanoTime() - this.lastLeaderContact < this.config.electionTimeoutMillis * 1_000_000L;
+    }
+
     private void returnRequestVoteResponse(RaftMessage.RequestVote msg, boolean voteGranted) {
         msg.candidateRef().tell(new RaftMessage.RequestVoteResponse(this.currentTerm, voteGranted));
     }
@@ -223,18 +410,45 @@ public class Follower extends RaftServer {
         else updateRequestBuffer.add(msg);
     }
 
+    // refused when no leader is known, so the operator asks again rather than waiting on a buffered request
+    private void forwardMembershipChange(RaftMessage msg, ActorRef<RaftMessage> server, ActorRef<RaftMessage> replyTo) {
+        if (this.currentLeader != null) this.currentLeader.tell(msg);
+        else replyTo.tell(new RaftMessage.MembershipChangeResponse(false, server));
+    }
+
     private void handleClientCommittedReadRequest(RaftMessage.ClientCommittedReadRequest msg) {
-        if (currentLeader != null) {
-            this.currentLeader.tell(msg);
+        queuedReads.add(msg);
+        requestReadIndexIfReady();
+    }
+
+    private void requestReadIndexIfReady() {
+        if (this.currentLeader == null || !this.requestingReads.isEmpty() || this.queuedReads.isEmpty()) return;
+        this.readIndexRequestID++;
+        List<RaftMessage.ClientCommittedReadRequest> reads = this.requestingReads;
+        this.requestingReads = this.queuedReads;
+        this.queuedReads = reads;
+        this.currentLeader.tell(new RaftMessage.ReadIndexRequest(getContext().getSelf(), this.readIndexRequestID));
+    }
+
+    // the leader confirmed its leadership after the request arrived, so its commit index then bounds every write a read could miss
+    private void handleReadIndexResponse(RaftMessage.ReadIndexResponse msg) {
+        if (msg.requestID() != this.readIndexRequestID || this.requestingReads.isEmpty()) return;
+        for (RaftMessage.ClientCommittedReadRequest request : this.requestingReads){
+            this.applyStage.read(msg.readIndex(), request.clientRef());
         }
-        else committedReadBuffer.add(msg);
+        this.requestingReads.clear();
+        requestReadIndexIfReady();
     }
 
-    private void sendBufferedRequestsToSelf() {
+    // reads still waiting on a read index are handed to the next role, whichever leader ends up serving them
+    protected void sendBufferedRequestsToSelf() {
         for (RaftMessage.ClientUpdateRequest request : updateRequestBuffer){
             getContext().getSelf().tell(request);
         }
-        for (RaftMessage.ClientCommittedReadRequest request : committedReadBuffer){
+        for (RaftMessage.ClientCommittedReadRequest request : requestingReads){
+            getContext().getSelf().tell(request);
+        }
+        for (RaftMessage.ClientCommittedReadRequest request : queuedReads){
             getContext().getSelf().tell(request);
         }
     }
@@ -246,10 +460,10 @@ public class Follower extends RaftServer {
                 msg.sender().tell(new RaftMessage.TestMessage.GetBehaviorResponse("FOLLOWER"));
                 break;
             case RaftMessage.TestMessage.GetStateMachineState msg:
-                msg.sender().tell(new RaftMessage.TestMessage.GetStateMachineStateResponse(this.stateMachine.getState()));
+                this.applyStage.sendState(msg.sender());
                 break;
             case RaftMessage.TestMessage.GetState msg:
-                msg.sender().tell(new RaftMessage.TestMessage.GetStateResponse(this.currentTerm, this.votedFor, this.log, this.commitIndex, this.lastApplied));
+                msg.sender().tell(new RaftMessage.TestMessage.GetStateResponse(this.currentTerm, this.votedFor, getLogEntries(this.log.getStartIndex(), getLastLogIndex() + 1), this.commitIndex, this.lastApplied));
                 break;
             default:
                 break;
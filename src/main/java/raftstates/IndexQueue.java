@@ -0,0 +1,55 @@
+package raftstates;
+
+// FIFO ring buffer of log indexes, so in-flight windows box no Integers
+class IndexQueue {
+
+    IndexQueue(int initialCapacity){
+        this.indexes = new int[Math.max(1, initialCapacity)];
+    }
+
+    private int[] indexes;
+
+    private int head;
+
+    private int size;
+
+    boolean isEmpty(){
+        return this.size == 0;
+    }
+
+    int size(){
+        return this.size;
+    }
+
+    int peekFirst(){
+        if (this.size == 0) throw new IllegalStateException("queue is empty");
+        return this.indexes[this.head];
+    }
+
+    int pollFirst(){
+        int first = peekFirst();
+        this.head = (this.head + 1) % this.indexes.length;
+        this.size--;
+        return first;
+    }
+
+    void addLast(int index){
+        if (this.size == this.indexes.length) grow();
+        this.indexes[(this.head + this.size) % this.indexes.length] = index;
+        this.size++;
+    }
+
+    void clear(){
+        this.head = 0;
+        this.size = 0;
+    }
+
+    private void grow(){
+        int[] grown = new int[this.indexes.length * 2];
+        for (int i = 0; i < this.size; i++){
+            grown[i] = this.indexes[(this.head + i) % this.indexes.length];
+        }
+        this.indexes = grown;
+        this.head = 0;
+    }
+}
@@ -8,11 +8,15 @@ import akka.actor.typed.javadsl.TimerScheduler;
 import datapersistence.ServerDataManager;
 import messages.ClientMessage;
 import messages.RaftMessage;
+import statemachine.Command;
+import statemachine.ConfigurationCommand;
 import statemachine.Entry;
 import statemachine.StateMachine;
 
+import java.lang.reflect.Array;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -27,9 +31,35 @@ public class Leader extends RaftServer {
                                                List<ActorRef<RaftMessage>> groupRefs,
                                                int commitIndex,
                                                int lastApplied){
+        return create(dataManager, stateMachine, timerKey, failFlag, new RaftConfig(), currentTerm, groupRefs, commitIndex, lastApplied);
+    }
+
+    public static Behavior<RaftMessage> create(ServerDataManager dataManager,
+                                               StateMachine stateMachine,
+                                               Object timerKey,
+                                               FailFlag failFlag,
+                                               RaftConfig config,
+                                               int currentTerm,
+                                               List<ActorRef<RaftMessage>> groupRefs,
+                                               int commitIndex,
+                                               int lastApplied){
+        return Behaviors.setup(outerContext -> {
+            ApplyStage applyStage = ApplyStage.spawn(outerContext, stateMachine, config, lastApplied);
             return Behaviors.<RaftMessage>supervise(
-                    Behaviors.setup(context -> Behaviors.withTimers(timers -> new Leader(context, timers, dataManager, stateMachine, failFlag, timerKey, currentTerm, groupRefs, commitIndex, lastApplied)))
-            ).onFailure(SupervisorStrategy.restart());
+                    Behaviors.setup(context -> Behaviors.withTimers(timers -> new Leader(context, timers, dataManager, stateMachine, failFlag, config, applyStage, timerKey, currentTerm, groupRefs, commitIndex, lastApplied)))
+            ).onFailure(SupervisorStrategy.restart().withStopChildren(false));
+        });
+    }
+
+    static Behavior<RaftMessage> create(ServerDataManager dataManager,
+                                        StateMachine stateMachine,
+                                        Object timerKey,
+                                        FailFlag failFlag,
+                                        RaftConfig config,
+                                        ServerState state){
+        return Behaviors.<RaftMessage>supervise(
+                Behaviors.setup(context -> Behaviors.withTimers(timers -> new Leader(context, timers, dataManager, stateMachine, failFlag, config, timerKey, state)))
+        ).onFailure(SupervisorStrategy.restart().withStopChildren(false));
     }
 
     protected Leader(ActorContext<RaftMessage> context,
@@ -37,36 +67,136 @@ public class Leader extends RaftServer {
                         ServerDataManager dataManager,
                         StateMachine stateMachine,
                         FailFlag failFlag,
+                        RaftConfig config,
+                        ApplyStage applyStage,
                         Object timerKey,
                         int currentTerm,
                         List<ActorRef<RaftMessage>> groupRefs,
                         int commitIndex,
                         int lastApplied){
-        super(context, timers, dataManager, stateMachine, failFlag, timerKey, commitIndex, lastApplied);
+        super(context, timers, dataManager, stateMachine, failFlag, config, applyStage, timerKey, commitIndex, lastApplied);
         this.currentTerm = currentTerm;
-        this.groupRefs = groupRefs;
-        sendHeartBeats();
         this.dataManager.saveCurrentTerm(this.currentTerm);
-        this.dataManager.saveGroupRefs(this.groupRefs);
-        this.refResolver = ActorRefResolver.get(getContext().getSystem());
+        setInitialGroupRefs(groupRefs);
+        initializeLeaderState();
+    }
+
+    protected Leader(ActorContext<RaftMessage> context,
+                        TimerScheduler<RaftMessage> timers,
+                        ServerDataManager dataManager,
+                        StateMachine stateMachine,
+                        FailFlag failFlag,
+                        RaftConfig config,
+                        Object timerKey,
+                        ServerState state){
+        super(context, timers, dataManager, stateMachine, failFlag, config, timerKey, state);
+        initializeLeaderState();
+    }
+
+    private void initializeLeaderState() {
+        this.durableIndex = getLastLogIndex();
+        initializePeerSlots();
         initializeNextIndex();
         initializeMatchIndex();
-        ActorRefResolver refResolver = ActorRefResolver.get(context.getSystem());
+        initializeReplicationWindows();
+        initializeBatching();
+        initializeAdmission();
+        initializeReadIndex();
+        initializeLeadershipTransfer();
+        initializeQuorumCheck();
+        initializeMembershipChange();
+        appendNoOp();
+        sendHeartBeats();
         startTimer();
     }
 
+    // earlier terms' entries only commit with one of this term; the current configuration serves as the no-op
+    private void appendNoOp() {
+        appendConfiguration(getMembers(), getLearners());
+    }
+
+    private void initializeReadIndex() {
+        this.sentMessages = new int[this.peers.size()];
+        this.acknowledgedMessages = new int[this.peers.size()];
+        this.readRoundTarget = new int[this.peers.size()];
+        this.pendingHeartBeat = new int[this.peers.size()];
+        this.pendingHeartBeatSentAt = new long[this.peers.size()];
+        this.acknowledgedHeartBeatSentAt = new long[this.peers.size()];
+        Arrays.fill(this.acknowledgedHeartBeatSentAt, Long.MIN_VALUE);
+        this.sortedHeartBeatSentAt = new long[this.peers.size() + 1];
+        this.isReadRoundActive = false;
+        this.queuedReads = new ArrayList<>();
+        this.confirmingReads = new ArrayList<>();
+    }
+
+    // the tentative state already covers the unapplied log tail, and nothing has been batched yet
+    private void initializeAdmission() {
+        this.admittedState = this.tentativeStateMachine.forkStateMachine();
+        this.retriedUpdates = new HashMap<>();
+        this.pendingCommandIDs = new HashMap<>();
+        for (int index = this.lastDispatched + 1; index <= getLastLogIndex(); index++){
+            Command command = this.log.getCommand(index);
+            if (!(command instanceof ConfigurationCommand)) addPendingCommand(command);
+        }
+    }
+
+    private void initializeQuorumCheck() {
+        this.heardFromSinceCheck = new boolean[this.peers.size()];
+        this.quorumCheckStartedAt = System.nanoTime();
+    }
+
+    private void initializeMembershipChange() {
+        this.changeTarget = null;
+        this.changeIndex = -1;
+    }
+
+    private void initializeLeadershipTransfer() {
+        this.transferSlot = -1;
+        this.transferBuffer = new ArrayList<>();
+    }
+
+    private void initializeBatching() {
+        this.pendingBatch = new ArrayList<>();
+        this.pendingBatchSizes = new ArrayList<>();
+        this.pendingBatchBytes = 0;
+    }
+
+
+    private void initializePeerSlots() {
+        this.peers = new ArrayList<>(this.groupRefs);
+        this.peers.addAll(this.learnerRefs);
+        this.peerSlots = new HashMap<>();
+        this.voting = new boolean[this.peers.size()];
+        for (int slot = 0; slot < this.peers.size(); slot++){
+            this.peerSlots.put(this.peers.get(slot), slot);
+            this.voting[slot] = slot < this.groupRefs.size();
+        }
+        this.sortedMatchIndex = new int[this.peers.size() + 1];
+    }
 
     private void initializeNextIndex() {
-        this.nextIndex = new HashMap<>();
-        for (ActorRef<RaftMessage> node: this.groupRefs){
-            nextIndex.put(node, this.log.size());
+        this.nextIndex = new int[this.peers.size()];
+        for (int slot = 0; slot < this.peers.size(); slot++){
+            nextIndex[slot] = getLastLogIndex() + 1;
         }
     }
 
     private void initializeMatchIndex() {
-        this.matchIndex = new HashMap<>();
-        for (ActorRef<RaftMessage> node: this.groupRefs){
-            matchIndex.put(node, -1);
+        this.matchIndex = new int[this.peers.size()];
+        for (int slot = 0; slot < this.peers.size(); slot++){
+            matchIndex[slot] = -1;
+        }
+    }
+
+    // every follower starts out probing, since nothing is known about how far its log matches
+    private void initializeReplicationWindows() {
+        this.inFlight = new IndexQueue[this.peers.size()];
+        this.probing = new boolean[this.peers.size()];
+        this.matchAtLastTimeOut = new int[this.peers.size()];
+        for (int slot = 0; slot < this.peers.size(); slot++){
+            inFlight[slot] = new IndexQueue(this.config.maxInFlightAppends);
+            probing[slot] = true;
+            matchAtLastTimeOut[slot] = -1;
         }
     }
 
@@ -75,46 +205,202 @@ public class Leader extends RaftServer {
         return newReceiveBuilder()
                 .onMessage(RaftMessage.class, this::dispatch)
                 .onSignal(PreRestart.class, this::handlePreRestart)
+                .onSignal(PostStop.class, this::handlePostStop)
+                .onSignal(PostStop.class, this::handlePostStop)
                 .build();
     }
 
 
 
-    private HashMap<ActorRef<RaftMessage>, Integer> nextIndex;
+    // follower state below is kept in arrays indexed by the follower's slot in peers
+    private List<ActorRef<RaftMessage>> peers;
+
+    private HashMap<ActorRef<RaftMessage>, Integer> peerSlots;
+
+    // voters of the configuration in effect; learners and a server being added or removed are replicated to without being counted
+    private boolean[] voting;
+
+    private int[] nextIndex;
+
+    private int[] matchIndex;
+
+    // last index of each AppendEntries sent to a follower that has not been acknowledged yet
+    private IndexQueue[] inFlight;
+
+    // followers whose log position is unknown, which get one AppendEntries at a time until one succeeds
+    private boolean[] probing;
+
+    private int[] matchAtLastTimeOut;
+
+    // scratch space for finding the index a majority has replicated
+    private int[] sortedMatchIndex;
+
+    // a follower answers in send order, so matching a round's sent count means it acknowledged after the round began
+    private int[] sentMessages;
 
-    private HashMap<ActorRef<RaftMessage>, Integer> matchIndex;
+    private int[] acknowledgedMessages;
 
-    private ActorRefResolver refResolver;
+    private int[] readRoundTarget;
+
+    private boolean isReadRoundActive;
+
+    // client reads and follower read index requests that arrived after the current round's heartbeats went out
+    private List<RaftMessage> queuedReads;
+
+    private List<RaftMessage> confirmingReads;
+
+    private int confirmingReadIndex;
+
+    // message number of the oldest unacknowledged heartbeat to each follower, 0 when there is none
+    private int[] pendingHeartBeat;
+
+    private long[] pendingHeartBeatSentAt;
+
+    // when the latest acknowledged heartbeat to each follower was sent, from System.nanoTime
+    private long[] acknowledgedHeartBeatSentAt;
+
+    private long[] sortedHeartBeatSentAt;
+
+    // followers that have answered anything since the current quorum check window started
+    private boolean[] heardFromSinceCheck;
+
+    private long quorumCheckStartedAt;
+
+
+    private int durableIndex;
+
+    private final Object BATCH_TIMER_KEY = new Object();
+
+    // valid client updates waiting to be appended to the log together
+    private List<Entry> pendingBatch;
+
+    // encoded size of each entry in the batch, recorded in the log when the batch is appended
+    private List<Integer> pendingBatchSizes;
+
+    // committed state plus every admitted update, so a new one is admitted only if it fits after all of them
+    private StateMachine admittedState;
+
+    // latest retrier of each update in the log or batch, answered by the leader when it commits
+    private HashMap<Command, ActorRef<ClientMessage>> retriedUpdates;
+
+    // highest command ID of each client's updates in the uncommitted log tail or the batch
+    private HashMap<String, Integer> pendingCommandIDs;
+
+    private int pendingBatchBytes;
+
+    // follower leadership is being handed to, -1 when no transfer is under way
+    private int transferSlot;
+
+    private boolean timeoutNowSent;
+
+    // set once a transfer target is told to campaign, since followers vote for it despite this leader's lease
+    private boolean leaseForfeited;
+
+    // updates that arrive during a transfer, which go to the new leader or are handled here if the transfer fails
+    private List<RaftMessage.ClientUpdateRequest> transferBuffer;
+
+    private final Object TRANSFER_TIMER_KEY = new Object();
+
+    // server being added or removed, null when no membership change is under way
+    private ActorRef<RaftMessage> changeTarget;
+
+    private boolean changeAddsTarget;
+
+    private boolean changeMakesLearner;
+
+    private ActorRef<RaftMessage> changeReplyTo;
+
+    private long changeStartedAt;
+
+    // index of the configuration entry that makes the change, -1 until it has been appended
+    private int changeIndex;
 
 
     private Behavior<RaftMessage> dispatch(RaftMessage message){
         if (!this.failFlag.failed) {
             switch (message) {
                 case RaftMessage.ClientUpdateRequest msg:
-                    handleClientUpdateRequest(msg);
+                    if (isTransferringLeadership()) this.transferBuffer.add(msg);
+                    else handleClientUpdateRequest(msg);
+                    break;
+                case RaftMessage.TransferLeadership msg:
+                    startLeadershipTransfer(msg.target());
+                    break;
+                case RaftMessage.TransferTimedOut msg:
+                    endLeadershipTransfer();
+                    break;
+                case RaftMessage.AddServer msg:
+                    startMembershipChange(msg.server(), true, false, msg.replyTo());
+                    break;
+                case RaftMessage.AddLearner msg:
+                    startMembershipChange(msg.server(), true, true, msg.replyTo());
+                    break;
+                case RaftMessage.RemoveServer msg:
+                    startMembershipChange(msg.server(), false, false, msg.replyTo());
                     break;
                 case RaftMessage.ClientUnstableReadRequest msg:
                     handleUnstableReadRequest(msg);
                     break;
+                case RaftMessage.ClientLaggedReadRequest msg:
+                    handleLaggedReadRequest(msg);
+                    break;
                 case RaftMessage.ClientCommittedReadRequest msg:
                     handleClientCommittedReadRequest(msg);
                     break;
+                case RaftMessage.ReadIndexRequest msg:
+                    handleReadIndexRequest(msg);
+                    break;
                 case RaftMessage.AppendEntries msg:
                     if (msg.term() < this.currentTerm) sendAppendEntriesResponse(msg, false);
-                    else return Follower.create(dataManager, stateMachine, failFlag);
+                    else return stepDown();
+                    break;
+                case RaftMessage.InstallSnapshot msg:
+                    if (msg.term() < this.currentTerm) msg.leaderRef().tell(new RaftMessage.InstallSnapshotResponse(getContext().getSelf(), this.currentTerm, -1));
+                    else return stepDown();
                     break;
                 case RaftMessage.RequestVote msg:
                     if (msg.term() < this.currentTerm) sendRequestVoteResponse(msg, false);
-                    else return Follower.create(dataManager, stateMachine, failFlag);
+                    else {
+                        getContext().getSelf().tell(msg);   // answered as a follower, so a transfer target gets this vote too
+                        return stepDown();
+                    }
                     break;
                 case RaftMessage.AppendEntriesResponse msg:
-                    if (msg.term() > this.currentTerm) return Follower.create(dataManager, stateMachine, failFlag);
+                    if (msg.term() > this.currentTerm) return stepDown();
                     handleAppendEntriesResponse(msg);
                     break;
+                case RaftMessage.InstallSnapshotResponse msg:
+                    if (msg.term() > this.currentTerm) return stepDown();
+                    handleInstallSnapshotResponse(msg);
+                    break;
                 case RaftMessage.RequestVoteResponse msg:
-                    if (msg.term() > this.currentTerm) return Follower.create(dataManager, stateMachine, failFlag);
+                    if (msg.term() > this.currentTerm) return stepDown();
+                    break;
+                case RaftMessage.PreVote msg:
+                    handlePreVote(msg, true);
+                    break;
+                case RaftMessage.LogPersisted msg:
+                    handleLogPersisted(msg);
+                    break;
+                case RaftMessage.EntriesApplied msg:
+                    handleEntriesApplied(msg);
+                    break;
+                case RaftMessage.SnapshotTaken msg:
+                    handleSnapshotTaken(msg);
+                    break;
+                case RaftMessage.FlushBatch msg:
+                    flushPendingBatch();
                     break;
                 case RaftMessage.TimeOut msg:
+                    if (isQuorumLost()){
+                        getContext().getLog().info(getContext().getSelf().path().name() + " LOST CONTACT WITH MAJORITY, STEPPING DOWN");
+                        return stepDown();
+                    }
+                    if (!this.isVoter && this.configIndex <= this.commitIndex){
+                        getContext().getLog().info(getContext().getSelf().path().name() + " REMOVED FROM GROUP, STEPPING DOWN");
+                        return stepDown();
+                    }
+                    abortStalledMembershipChange();
                     handleTimeOut();
                     break;
                 case RaftMessage.Failure msg:   // Used to simulate node failure
@@ -132,94 +418,590 @@ public class Leader extends RaftServer {
             resetTransientState();
             this.failFlag.failed = false;
             getContext().getSelf().tell(message);
-            return Follower.create(this.dataManager, this.stateMachine, this.failFlag);
+            return Follower.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.applyStage);
+        }
+    }
+
+    // an appended change may still commit, so it is left unanswered; unappended updates go to the next leader
+    private Behavior<RaftMessage> stepDown() {
+        if (this.changeTarget != null && this.changeIndex < 0) this.changeReplyTo.tell(new RaftMessage.MembershipChangeResponse(false, this.changeTarget));
+        this.timer.cancel(TRANSFER_TIMER_KEY);
+        this.timer.cancel(BATCH_TIMER_KEY);
+        for (RaftMessage.ClientUpdateRequest request : this.transferBuffer) getContext().getSelf().tell(request);
+        ActorRefResolver refResolver = ActorRefResolver.get(getContext().getSystem());
+        for (Entry entry : this.pendingBatch){
+            ActorRef<ClientMessage> client = refResolver.resolveActorRef(entry.command().getClientRef());
+            getContext().getSelf().tell(new RaftMessage.ClientUpdateRequest(client, entry.command()));
+        }
+        return Follower.create(dataManager, stateMachine, failFlag, config, TIMER_KEY, captureState());
+    }
+
+    // holds new updates, catches the target up and sends it TimeoutNow; gives up after an election timeout
+    private void startLeadershipTransfer(ActorRef<RaftMessage> target) {
+        if (isTransferringLeadership() || this.changeTarget != null || peers.isEmpty()) return;
+        int slot = target == null ? getMostUpToDateSlot() : getPeerSlot(target);
+        if (slot < 0 || !voting[slot]) return;
+        this.transferSlot = slot;
+        this.timeoutNowSent = false;
+        this.timer.startSingleTimer(TRANSFER_TIMER_KEY, new RaftMessage.TransferTimedOut(), Duration.ofMillis(this.config.electionTimeoutMillis));
+        flushPendingBatch();
+        sendAppendEntriesToFollower(slot);
+        sendTimeoutNowIfCaughtUp();
+    }
+
+    private boolean isTransferringLeadership() {
+        return this.transferSlot >= 0;
+    }
+
+    private int getMostUpToDateSlot() {
+        int best = -1;
+        for (int slot = 0; slot < peers.size(); slot++){
+            if (voting[slot] && (best < 0 || matchIndex[slot] > matchIndex[best])) best = slot;
+        }
+        return best;
+    }
+
+    // not counted in sentMessages, since TimeoutNow is never answered
+    private void sendTimeoutNowIfCaughtUp() {
+        if (!isTransferringLeadership() || this.timeoutNowSent || matchIndex[transferSlot] < getLastLogIndex()) return;
+        this.timeoutNowSent = true;
+        this.leaseForfeited = true;
+        peers.get(transferSlot).tell(new RaftMessage.TimeoutNow(this.currentTerm, getContext().getSelf()));
+    }
+
+    private void endLeadershipTransfer() {
+        this.transferSlot = -1;
+        for (RaftMessage.ClientUpdateRequest request : this.transferBuffer) handleClientUpdateRequest(request);
+        this.transferBuffer.clear();
+    }
+
+    // one voter change at a time, after the no-op commits; new servers and promoted learners catch up first
+    private void startMembershipChange(ActorRef<RaftMessage> server, boolean add, boolean learner, ActorRef<RaftMessage> replyTo) {
+        boolean isMember = server.equals(getContext().getSelf()) ? this.isVoter : this.groupRefs.contains(server);
+        boolean isLearner = this.learnerRefs.contains(server);
+        boolean isUnchanged = add ? isMember || (learner && isLearner) : !isMember && !isLearner;
+        boolean removesLastVoter = !add && isMember && getVoterCount() <= 1;
+        if (this.changeTarget != null || this.configIndex > this.commitIndex || isTransferringLeadership() || isUnchanged || removesLastVoter){
+            replyTo.tell(new RaftMessage.MembershipChangeResponse(false, server));
+            return;
+        }
+        this.changeTarget = server;
+        this.changeAddsTarget = add;
+        this.changeMakesLearner = learner;
+        this.changeReplyTo = replyTo;
+        this.changeStartedAt = System.nanoTime();
+        this.changeIndex = -1;
+        if (add && getPeerSlot(server) < 0){
+            addPeer(server);
+            sendAppendEntriesToFollower(peers.size() - 1);
+        }
+        advanceMembershipChange();
+    }
+
+    // called once a handler is done with its slot, since a completed change may remove a peer
+    private void advanceMembershipChange() {
+        if (this.changeTarget == null) return;
+        if (this.changeIndex >= 0){
+            if (this.commitIndex >= this.changeIndex) endMembershipChange(true);
+            return;
+        }
+        if (this.changeAddsTarget && !this.changeMakesLearner && matchIndex[getPeerSlot(this.changeTarget)] < this.commitIndex) return;
+        if (this.configIndex > this.commitIndex) return;
+        List<String> members = getMembers();
+        List<String> learners = getLearners();
+        String target = ActorRefResolver.get(getContext().getSystem()).toSerializationFormat(this.changeTarget);
+        members.remove(target);
+        learners.remove(target);
+        if (this.changeAddsTarget) (this.changeMakesLearner ? learners : members).add(target);
+        this.changeIndex = appendConfiguration(members, learners);
+        commitReplicatedEntries();     // removing a server that lagged behind may let entries commit
+    }
+
+    private void endMembershipChange(boolean success) {
+        ActorRef<RaftMessage> target = this.changeTarget;
+        this.changeTarget = null;
+        this.changeIndex = -1;
+        int slot = getPeerSlot(target);
+        if (slot >= 0 && !voting[slot] && !this.learnerRefs.contains(target)) removePeer(slot);
+        this.changeReplyTo.tell(new RaftMessage.MembershipChangeResponse(success, target));
+    }
+
+    private void abortStalledMembershipChange() {
+        if (this.changeTarget == null || !this.changeAddsTarget || this.changeIndex >= 0) return;
+        if (System.nanoTime() - this.changeStartedAt < this.config.memberCatchUpTimeoutMillis * 1_000_000L) return;
+        getContext().getLog().info(getContext().getSelf().path().name() + " NEW SERVER DID NOT CATCH UP, MEMBERSHIP CHANGE ABORTED");
+        endMembershipChange(false);
+    }
+
+    // the configuration takes effect here as soon as it is appended, and the leader keeps replicating to a removed server until it commits
+    private int appendConfiguration(List<String> members, List<String> learners) {
+        flushPendingBatch();
+        String self = ActorRefResolver.get(getContext().getSystem()).toSerializationFormat(getContext().getSelf());
+        ConfigurationCommand configuration = new ConfigurationCommand(self, getLastLogIndex() + 1, members, learners);
+        Entry entry = new Entry(this.currentTerm, configuration);
+        int index = appendToLog(List.of(entry), List.of(this.log.measure(entry)));
+        setConfiguration(index, configuration);
+        for (int slot = 0; slot < peers.size(); slot++){
+            voting[slot] = this.groupRefs.contains(peers.get(slot));
+        }
+        return index;
+    }
+
+    private void addPeer(ActorRef<RaftMessage> peer) {
+        int slot = peers.size();
+        int count = slot + 1;
+        peers.add(peer);
+        peerSlots.put(peer, slot);
+        voting = Arrays.copyOf(voting, count);
+        nextIndex = Arrays.copyOf(nextIndex, count);
+        nextIndex[slot] = getLastLogIndex() + 1;
+        matchIndex = Arrays.copyOf(matchIndex, count);
+        matchIndex[slot] = -1;
+        inFlight = Arrays.copyOf(inFlight, count);
+        inFlight[slot] = new IndexQueue(this.config.maxInFlightAppends);
+        probing = Arrays.copyOf(probing, count);
+        probing[slot] = true;
+        matchAtLastTimeOut = Arrays.copyOf(matchAtLastTimeOut, count);
+        matchAtLastTimeOut[slot] = -1;
+        sentMessages = Arrays.copyOf(sentMessages, count);
+        acknowledgedMessages = Arrays.copyOf(acknowledgedMessages, count);
+        readRoundTarget = Arrays.copyOf(readRoundTarget, count);
+        pendingHeartBeat = Arrays.copyOf(pendingHeartBeat, count);
+        pendingHeartBeatSentAt = Arrays.copyOf(pendingHeartBeatSentAt, count);
+        acknowledgedHeartBeatSentAt = Arrays.copyOf(acknowledgedHeartBeatSentAt, count);
+        acknowledgedHeartBeatSentAt[slot] = Long.MIN_VALUE;
+        heardFromSinceCheck = Arrays.copyOf(heardFromSinceCheck, count);
+        sortedMatchIndex = new int[count + 1];
+        sortedHeartBeatSentAt = new long[count + 1];
+    }
+
+    private void removePeer(int slot) {
+        peers.remove(slot);
+        peerSlots.clear();
+        for (int i = 0; i < peers.size(); i++) peerSlots.put(peers.get(i), i);
+        voting = withoutSlot(voting, slot);
+        nextIndex = withoutSlot(nextIndex, slot);
+        matchIndex = withoutSlot(matchIndex, slot);
+        inFlight = withoutSlot(inFlight, slot);
+        probing = withoutSlot(probing, slot);
+        matchAtLastTimeOut = withoutSlot(matchAtLastTimeOut, slot);
+        sentMessages = withoutSlot(sentMessages, slot);
+        acknowledgedMessages = withoutSlot(acknowledgedMessages, slot);
+        readRoundTarget = withoutSlot(readRoundTarget, slot);
+        pendingHeartBeat = withoutSlot(pendingHeartBeat, slot);
+        pendingHeartBeatSentAt = withoutSlot(pendingHeartBeatSentAt, slot);
+        acknowledgedHeartBeatSentAt = withoutSlot(acknowledgedHeartBeatSentAt, slot);
+        heardFromSinceCheck = withoutSlot(heardFromSinceCheck, slot);
+        sortedMatchIndex = new int[peers.size() + 1];
+        sortedHeartBeatSentAt = new long[peers.size() + 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T withoutSlot(T array, int slot) {
+        int length = Array.getLength(array);
+        T copy = (T) Array.newInstance(array.getClass().getComponentType(), length - 1);
+        System.arraycopy(array, 0, copy, 0, slot);
+        System.arraycopy(array, slot + 1, copy, slot, length - slot - 1);
+        return copy;
+    }
+
+    // the leader and every voting peer
+    private int getVoterCount() {
+        int voters = this.isVoter ? 1 : 0;
+        for (int slot = 0; slot < peers.size(); slot++){
+            if (voting[slot]) voters++;
         }
+        return voters;
     }
 
     private void handleClientUpdateRequest(RaftMessage.ClientUpdateRequest msg) {
-        if (isDuplicate(msg)) return; //ignore duplicate requests
+        if (this.sessions.isExpired(msg.command().getClientRef())){
+            msg.clientRef().tell(new ClientMessage.ClientUpdateResponse(false, msg.command().getCommandID()));
+            return;
+        }
+        if (isDuplicate(msg)){
+            msg.clientRef().tell(new ClientMessage.ClientUpdateResponse(true, msg.command().getCommandID()));
+            return;
+        }
+        if (isPendingDuplicate(msg)){
+            this.retriedUpdates.put(msg.command(), msg.clientRef());    // answered when the original commits
+            return;
+        }
         if (updateRequestIsValid(msg))processValidUpdateRequest(msg);
         else msg.clientRef().tell(new ClientMessage.ClientUpdateResponse(false, msg.command().getCommandID()));
     }
 
+    // a client's command IDs only grow, so an unapplied one no higher than its highest pending ID is already in the log or the batch
+    private boolean isPendingDuplicate(RaftMessage.ClientUpdateRequest msg) {
+        Integer pendingCommandID = this.pendingCommandIDs.get(msg.command().getClientRef());
+        return pendingCommandID != null && msg.command().getCommandID() <= pendingCommandID;
+    }
+
+    private void addPendingCommand(Command command) {
+        this.pendingCommandIDs.merge(command.getClientRef(), command.getCommandID(), Math::max);
+    }
 
     private void processValidUpdateRequest(RaftMessage.ClientUpdateRequest msg) {
+        this.admittedState.apply(msg.command());
+        addPendingCommand(msg.command());
         Entry entry = new Entry(this.currentTerm, msg.command());
-        this.log.add(entry);
-        this.dataManager.saveLog(this.log);
-        for (ActorRef<RaftMessage> node: groupRefs){
-            sendAppendEntriesToFollower(node);
+        if (this.pendingBatch.isEmpty() && this.config.batchWindowMillis > 0){
+            this.timer.startSingleTimer(BATCH_TIMER_KEY, new RaftMessage.FlushBatch(), Duration.ofMillis(this.config.batchWindowMillis));
         }
+        int encodedSize = this.log.measure(entry);
+        this.pendingBatch.add(entry);
+        this.pendingBatchSizes.add(encodedSize);
+        this.pendingBatchBytes += encodedSize;
+        if (isPendingBatchFull()) flushPendingBatch();
+    }
+
+    private boolean isPendingBatchFull() {
+        return this.config.batchWindowMillis <= 0
+                || this.pendingBatch.size() >= this.config.maxBatchEntries
+                || this.pendingBatchBytes >= this.config.maxBatchBytes;
+    }
+
+    // one write, sync and replication round per batch, sent to followers before the leader writes it
+    private void flushPendingBatch() {
+        if (this.pendingBatch.isEmpty()) return;
+        this.timer.cancel(BATCH_TIMER_KEY);
+        List<Entry> batch = this.pendingBatch;
+        List<Integer> sizes = this.pendingBatchSizes;
+        this.pendingBatch = new ArrayList<>();
+        this.pendingBatchSizes = new ArrayList<>();
+        this.pendingBatchBytes = 0;
+        appendToLog(batch, sizes);
+    }
+
+    // returns the index of the last entry appended
+    private int appendToLog(List<Entry> entries, List<Integer> encodedSizes) {
+        int firstIndex = getLastLogIndex() + 1;
+        this.log.appendAll(entries, encodedSizes);
+        int lastIndex = getLastLogIndex();
+        sendNewEntriesToFollowers();
+        this.dataManager.appendToLog(firstIndex, entries);
+        ActorRef<RaftMessage> self = getContext().getSelf();
+        this.dataManager.syncLogAsync(() -> self.tell(new RaftMessage.LogPersisted(lastIndex)));
         updateTentativeState();
+        return lastIndex;
     }
 
-    private boolean updateRequestIsValid(RaftMessage.ClientUpdateRequest msg) {
-        StateMachine tempSM = this.stateMachine.forkStateMachine();
-        tempSM.apply(msg.command());
-        return tempSM.isStateValid();
+    private void sendNewEntriesToFollowers() {
+        for (int slot = 0; slot < peers.size(); slot++){
+            // a catching up follower with chunks outstanding is sent its next one when it acknowledges
+            if (!isCatchingUp(slot) || inFlight[slot].isEmpty()) sendAppendEntriesToFollower(slot);
+        }
+    }
+
+    private void handleLogPersisted(RaftMessage.LogPersisted msg) {
+        if (msg.index() <= this.durableIndex) return;
+        this.durableIndex = msg.index();
+        commitReplicatedEntries();
+        advanceMembershipChange();
     }
 
-    private void handleClientUnstableReadRequest(RaftMessage.ClientUnstableReadRequest msg){
-        msg.clientRef().tell(new ClientMessage.ClientUnstableReadResponse<>(this.stateMachine.getState()));
+    private boolean updateRequestIsValid(RaftMessage.ClientUpdateRequest msg) {
+        return this.admittedState.canApply(msg.command());
     }
 
+    // ReadIndex: reads waiting at the same moment share one heartbeat round instead of each appending to the log
     private void handleClientCommittedReadRequest(RaftMessage.ClientCommittedReadRequest msg){
-        msg.clientRef().tell(new ClientMessage.ClientCommittedReadResponse<>(this.stateMachine.getState()));
+        if (this.config.leaseReads && isLeaseValid() && hasCommittedInCurrentTerm()){
+            this.applyStage.read(this.commitIndex, msg.clientRef());
+            return;
+        }
+        this.queuedReads.add(msg);
+        startReadRoundIfReady();
     }
 
-    private void sendAppendEntriesToFollower(ActorRef<RaftMessage> follower) {
-        int nodeNextIndex = this.nextIndex.get(follower);
-        int prevLogTerm = getPrevLogTerm(nodeNextIndex - 1);
-        List<Entry> entries = new ArrayList<>(this.log.subList(nodeNextIndex, this.log.size()));
-        follower.tell(new RaftMessage.AppendEntries(this.currentTerm, getContext().getSelf(), nodeNextIndex - 1, prevLogTerm, entries, this.commitIndex));
+    // answered only once this leader has committed an entry of its own term, so its commit index is complete
+    private void handleReadIndexRequest(RaftMessage.ReadIndexRequest msg){
+        if (this.config.leaseReads && isLeaseValid() && hasCommittedInCurrentTerm()){
+            msg.sender().tell(new RaftMessage.ReadIndexResponse(msg.requestID(), this.commitIndex));
+            return;
+        }
+        this.queuedReads.add(msg);
+        startReadRoundIfReady();
     }
 
-    private int getPrevLogTerm(int prevLogIndex) {
-        if (prevLogIndex < 0){
-            return -1;
-        } else {
-            return this.log.get(prevLogIndex).term();
+    // no round starts, and so none is confirmed, before this leader has committed an entry of its own term
+    private void startReadRoundIfReady() {
+        if (this.isReadRoundActive || this.queuedReads.isEmpty() || !hasCommittedInCurrentTerm()) return;
+        this.isReadRoundActive = true;
+        this.confirmingReadIndex = this.commitIndex;
+        List<RaftMessage> reads = this.confirmingReads;
+        this.confirmingReads = this.queuedReads;
+        this.queuedReads = reads;
+        for (int slot = 0; slot < peers.size(); slot++){
+            sendHeartBeat(slot);
+            readRoundTarget[slot] = sentMessages[slot];
         }
+        checkReadRound();
+    }
 
+    private void checkReadRound() {
+        if (!this.isReadRoundActive) return;
+        int acknowledged = this.isVoter ? 1 : 0;
+        for (int slot = 0; slot < peers.size(); slot++){
+            if (voting[slot] && acknowledgedMessages[slot] >= readRoundTarget[slot]) acknowledged++;
+        }
+        if (acknowledged <= getVoterCount() / 2) return;
+        this.isReadRoundActive = false;
+        for (RaftMessage read : this.confirmingReads){
+            switch (read) {
+                case RaftMessage.ClientCommittedReadRequest msg:
+                    this.applyStage.read(this.confirmingReadIndex, msg.clientRef());
+                    break;
+                case RaftMessage.ReadIndexRequest msg:
+                    msg.sender().tell(new RaftMessage.ReadIndexResponse(msg.requestID(), this.confirmingReadIndex));
+                    break;
+                default:
+                    break;
+            }
+        }
+        this.confirmingReads.clear();
+        startReadRoundIfReady();
+    }
+
+    // until then the commit index can be behind entries an earlier leader committed
+    private boolean hasCommittedInCurrentTerm() {
+        return getLogTerm(this.commitIndex) == this.currentTerm;
+    }
+
+    // followers refuse votes for an election timeout after a heartbeat, less the allowed clock drift
+    private boolean isLeaseValid() {
+        if (!this.isVoter || this.leaseForfeited) return false;
+        long now = System.nanoTime();
+        long[] sorted = this.sortedHeartBeatSentAt;
+        int count = 0;
+        for (int slot = 0; slot < peers.size(); slot++){
+            if (voting[slot]) sorted[count++] = acknowledgedHeartBeatSentAt[slot];
+        }
+        sorted[count++] = now;
+        Arrays.sort(sorted, 0, count);
+        long leaseStart = sorted[count - 1 - count / 2];
+        if (leaseStart == Long.MIN_VALUE) return false;
+        long leaseNanos = (this.config.electionTimeoutMillis - this.config.leaseClockDriftMillis) * 1_000_000L;
+        return now - leaseStart < leaseNanos;
+    }
+
+    // fills the follower's window with bounded chunks of the log, durable here or not
+    private void sendAppendEntriesToFollower(int slot) {
+        while (sendNextAppendEntries(slot));
+    }
+
+    private boolean sendNextAppendEntries(int slot) {
+        int nodeNextIndex = this.nextIndex[slot];
+        IndexQueue sent = this.inFlight[slot];
+        boolean isProbing = this.probing[slot];
+        if (isProbing && !sent.isEmpty()) return false;
+        if (!isProbing && (sent.size() >= getInFlightLimit(slot) || nodeNextIndex > getLastLogIndex())) return false;
+        if (nodeNextIndex < this.log.getStartIndex()){
+            sendSnapshotToFollower(slot);
+            return false;
+        }
+        int prevLogTerm = getLogTerm(nodeNextIndex - 1);
+        int lastIndex = getLastIndexToSend(nodeNextIndex);
+        List<Entry> entries = getLogEntries(nodeNextIndex, lastIndex + 1);
+        sendToFollower(slot, new RaftMessage.AppendEntries(this.currentTerm, getContext().getSelf(), nodeNextIndex - 1, prevLogTerm, entries, this.commitIndex));
+        sent.addLast(lastIndex);
+        if (!isProbing) this.nextIndex[slot] = lastIndex + 1;
+        return !isProbing;
+    }
+
+    // a far behind follower gets fewer chunks at once, each one sent as an earlier one is acknowledged
+    private int getInFlightLimit(int slot) {
+        if (isCatchingUp(slot)) return Math.min(this.config.catchUpInFlightAppends, this.config.maxInFlightAppends);
+        return this.config.maxInFlightAppends;
+    }
+
+    private boolean isCatchingUp(int slot) {
+        return getLastLogIndex() - matchIndex[slot] > this.config.catchUpLagEntries;
+    }
+
+    // bounds one message by entry count and encoded size, always sending at least one entry
+    private int getLastIndexToSend(int fromIndex) {
+        int lastIndex = Math.min(getLastLogIndex(), fromIndex + this.config.maxAppendEntries - 1);
+        int bytes = 0;
+        for (int index = fromIndex; index <= lastIndex; index++){
+            bytes += this.log.getEncodedSize(index);
+            if (bytes > this.config.maxAppendBytes && index > fromIndex) return index - 1;
+        }
+        return lastIndex;
+    }
+
+    // the entries this follower needs next have been compacted away
+    private void sendSnapshotToFollower(int slot) {
+        sendToFollower(slot, new RaftMessage.InstallSnapshot(this.currentTerm, getContext().getSelf(), this.snapshot));
+        this.probing[slot] = true;
+        this.inFlight[slot].clear();
+        this.inFlight[slot].addLast(this.snapshot.lastIncludedIndex());
+    }
+
+    private void sendToFollower(int slot, RaftMessage message) {
+        sentMessages[slot]++;
+        peers.get(slot).tell(message);
+    }
+
+    private void acknowledgeMessage(int slot) {
+        acknowledgedMessages[slot]++;
+        heardFromSinceCheck[slot] = true;
+        if (pendingHeartBeat[slot] != 0 && acknowledgedMessages[slot] >= pendingHeartBeat[slot]){
+            acknowledgedHeartBeatSentAt[slot] = pendingHeartBeatSentAt[slot];
+            pendingHeartBeat[slot] = 0;
+        }
+        checkReadRound();
+    }
+
+    // responses from anyone outside the group this leader was started with are ignored
+    private int getPeerSlot(ActorRef<RaftMessage> sender) {
+        Integer slot = peerSlots.get(sender);
+        return slot == null ? -1 : slot;
+    }
+
+    private void handleInstallSnapshotResponse(RaftMessage.InstallSnapshotResponse msg) {
+        int slot = getPeerSlot(msg.sender());
+        int installedIndex = msg.lastIncludedIndex();
+        if (slot < 0) return;
+        acknowledgeMessage(slot);
+        if (installedIndex < 0) return;
+        if (installedIndex > matchIndex[slot]) matchIndex[slot] = installedIndex;
+        nextIndex[slot] = Math.max(nextIndex[slot], installedIndex + 1);
+        inFlight[slot].clear();
+        probing[slot] = false;
+        commitReplicatedEntries();
+        sendAppendEntriesToFollower(slot);
+        sendTimeoutNowIfCaughtUp();
+        advanceMembershipChange();
     }
 
     private void handleAppendEntriesResponse(RaftMessage.AppendEntriesResponse msg) {
-        if (msg.success() == true){
-            if (msg.matchIndex() > matchIndex.get(msg.sender())) matchIndex.put(msg.sender(), msg.matchIndex());
-            if (isEntryIndexSuccessfullyReplicated(msg.matchIndex())) updateCommitIndex(msg.matchIndex());
+        int slot = getPeerSlot(msg.sender());
+        if (slot < 0) return;
+        acknowledgeMessage(slot);
+        if (msg.success() == true) handleSuccessfulAppendEntries(slot, msg);
+        else handleRejectedAppendEntries(slot, msg);
+    }
+
+    private void handleSuccessfulAppendEntries(int slot, RaftMessage.AppendEntriesResponse msg) {
+        IndexQueue sent = inFlight[slot];
+        boolean acknowledgesProbe = probing[slot] && !sent.isEmpty() && msg.matchIndex() >= sent.peekFirst();
+        while (!sent.isEmpty() && sent.peekFirst() <= msg.matchIndex()) sent.pollFirst();
+        if (msg.matchIndex() > matchIndex[slot]) matchIndex[slot] = msg.matchIndex();
+        if (acknowledgesProbe){
+            probing[slot] = false;
+            nextIndex[slot] = Math.max(nextIndex[slot], matchIndex[slot] + 1);
+        }
+        commitReplicatedEntries();
+        sendAppendEntriesToFollower(slot);
+        sendTimeoutNowIfCaughtUp();
+        advanceMembershipChange();
+    }
+
+    // rejections of later pipelined batches are stale once the follower is probing, so only the probe's own counts
+    private void handleRejectedAppendEntries(int slot, RaftMessage.AppendEntriesResponse msg) {
+        IndexQueue sent = inFlight[slot];
+        int next = getNextIndexFromConflict(slot, msg);
+        if (probing[slot]){
+            if (!sent.isEmpty() && sent.peekFirst() != msg.matchIndex()) return;
+            nextIndex[slot] = Math.max(matchIndex[slot] + 1, Math.min(next, nextIndex[slot] - 1));
         } else {
-            nextIndex.put(msg.sender(), nextIndex.get(msg.sender()) - 1);
-            sendAppendEntriesToFollower(msg.sender());
+            probing[slot] = true;
+            nextIndex[slot] = Math.max(matchIndex[slot] + 1, Math.min(next, msg.matchIndex()));
+        }
+        sent.clear();
+        sendAppendEntriesToFollower(slot);
+    }
+
+    // skips every entry of the follower's conflicting term that this log does not share, falling back to one step
+    private int getNextIndexFromConflict(int slot, RaftMessage.AppendEntriesResponse msg) {
+        if (msg.conflictIndex() < 0) return nextIndex[slot] - 1;
+        if (msg.conflictTerm() < 0) return Math.min(msg.conflictIndex(), getLastLogIndex() + 1);
+        int lastIndexOfTerm = getLastIndexOfTerm(msg.conflictTerm(), Math.min(msg.matchIndex(), getLastLogIndex()));
+        if (lastIndexOfTerm >= 0) return lastIndexOfTerm + 1;
+        return msg.conflictIndex();
+    }
+
+    // the last index at or before fromIndex holding the term, if the log holds the term there
+    private int getLastIndexOfTerm(int term, int fromIndex) {
+        int firstIndex = this.log.getFirstIndexOfTerm(term);
+        if (firstIndex < 0 || firstIndex > fromIndex) return -1;
+        return Math.min(this.log.getLastIndexOfTerm(term), fromIndex);
+    }
+
+    // a follower that has not acknowledged anything since the last timeout may have lost what was sent to it
+    private void resendToStalledFollowers() {
+        for (int slot = 0; slot < peers.size(); slot++){
+            int match = matchIndex[slot];
+            if (!inFlight[slot].isEmpty() && match == matchAtLastTimeOut[slot]){
+                probing[slot] = true;
+                inFlight[slot].clear();
+                nextIndex[slot] = match + 1;
+                sendAppendEntriesToFollower(slot);
+            }
+            matchAtLastTimeOut[slot] = match;
         }
     }
 
-    private boolean isEntryIndexSuccessfullyReplicated(int entryIndex) {
-        int numReplicas = getEntryReplicaCount(entryIndex);
-        if (numReplicas >= (groupRefs.size()/2)) return true;
-        else return false;
+    // only a current-term entry commits by counting replicas; earlier ones commit with it
+    private void commitReplicatedEntries() {
+        int replicated = getMajorityReplicatedIndex();
+        if (replicated <= this.commitIndex || getLogTerm(replicated) != this.currentTerm) return;
+        updateCommitIndex(replicated);
+    }
+
+    private int getMajorityReplicatedIndex() {
+        int[] sorted = this.sortedMatchIndex;
+        int count = 0;
+        for (int slot = 0; slot < matchIndex.length; slot++){
+            if (voting[slot]) sorted[count++] = matchIndex[slot];
+        }
+        if (this.isVoter) sorted[count++] = this.durableIndex;
+        for (int i = 1; i < count; i++){
+            int value = sorted[i];
+            int j = i - 1;
+            while (j >= 0 && sorted[j] < value){
+                sorted[j + 1] = sorted[j];
+                j--;
+            }
+            sorted[j + 1] = value;
+        }
+        return sorted[count / 2];
     }
 
     private void updateCommitIndex(int entryIndex) {
         if (entryIndex <= this.commitIndex) return;
+        int firstCommitted = this.commitIndex + 1;
         this.commitIndex = entryIndex;
-        int prevCommit = this.lastApplied;
-        this.applyCommittedEntriesToStateMachine();
-        sendClientResponsesForNewCommittedRequests(prevCommit, this.commitIndex);
+        this.applyCommittedEntriesToStateMachine(true);
+        handleCommittedUpdates(firstCommitted);
+        startReadRoundIfReady();
     }
 
-    private void sendClientResponsesForNewCommittedRequests(int oldCommit, int newCommit) {
-        for (int i = oldCommit + 1; i <= newCommit; i++){
-            ActorRef<ClientMessage> client =  refResolver.resolveActorRef(this.log.get(i).command().getClientRef());
-            client.tell(new ClientMessage.ClientUpdateResponse(true, this.log.get(i).command().getCommandID()));
+    // the client the command names is answered by the state machine, so only a retry from another one is told here
+    private void handleCommittedUpdates(int fromIndex) {
+        for (int index = fromIndex; index <= this.commitIndex; index++){
+            Command command = this.log.getCommand(index);
+            this.pendingCommandIDs.remove(command.getClientRef(), command.getCommandID());
+            ActorRef<ClientMessage> client = this.retriedUpdates.isEmpty() ? null : this.retriedUpdates.remove(command);
+            if (client != null && !client.equals(ActorRefResolver.get(getContext().getSystem()).resolveActorRef(command.getClientRef()))){
+                client.tell(new ClientMessage.ClientUpdateResponse(true, command.getCommandID()));
+            }
         }
     }
 
-    private int getEntryReplicaCount(int entryIndex) {
-        int numReplicas = 0;
-        for (Integer match: matchIndex.values()){
-            if (match >= entryIndex) numReplicas++;
+    // checked once per election timeout: without a majority's acks the leader may have been replaced
+    private boolean isQuorumLost() {
+        if (!this.config.checkQuorum) return false;
+        long now = System.nanoTime();
+        if (now - this.quorumCheckStartedAt < this.config.electionTimeoutMillis * 1_000_000L) return false;
+        int heardFrom = this.isVoter ? 1 : 0;
+        for (int slot = 0; slot < peers.size(); slot++){
+            if (voting[slot] && heardFromSinceCheck[slot]) heardFrom++;
+            heardFromSinceCheck[slot] = false;
         }
-        return numReplicas;
+        this.quorumCheckStartedAt = now;
+        return heardFrom <= getVoterCount() / 2;
     }
 
     @Override
@@ -230,12 +1012,23 @@ public class Leader extends RaftServer {
     @Override
     protected void handleTimeOut() {
         sendHeartBeats();
+        resendToStalledFollowers();
         startTimer();
     }
 
     private void sendHeartBeats() {
-        for (ActorRef<RaftMessage> node: groupRefs){
-            node.tell(new RaftMessage.AppendEntries(this.currentTerm, getContext().getSelf(), -1, -1, new ArrayList<>(), this.commitIndex));
+        for (int slot = 0; slot < peers.size(); slot++){
+            sendHeartBeat(slot);
+        }
+    }
+
+    // heartbeats point at the follower's known match so it can learn the commit index up to there and no further
+    private void sendHeartBeat(int slot) {
+        int prevLogIndex = matchIndex[slot] < getSnapshotIndex() ? -1 : matchIndex[slot];
+        sendToFollower(slot, new RaftMessage.AppendEntries(this.currentTerm, getContext().getSelf(), prevLogIndex, getLogTerm(prevLogIndex), new ArrayList<>(), this.commitIndex));
+        if (pendingHeartBeat[slot] == 0){
+            pendingHeartBeat[slot] = sentMessages[slot];
+            pendingHeartBeatSentAt[slot] = System.nanoTime();
         }
     }
 
@@ -246,16 +1039,23 @@ public class Leader extends RaftServer {
                 msg.sender().tell(new RaftMessage.TestMessage.GetBehaviorResponse("LEADER"));
                 break;
             case RaftMessage.TestMessage.SaveEntries msg:
-                this.log = msg.entries();
-                this.dataManager.saveLog(this.log);
+                this.log.truncateFrom(this.log.getStartIndex());
+                this.log.appendAll(msg.entries());
+                this.dataManager.saveLog(msg.entries());
+                this.durableIndex = getLastLogIndex();
+                reloadConfiguration();
                 this.initializeNextIndex();
+                this.initializeMatchIndex();
+                this.initializeReplicationWindows();
+                invalidateTentativeState();
                 updateTentativeState();
+                initializeAdmission();
                 break;
             case RaftMessage.TestMessage.GetStateMachineState msg:
-                msg.sender().tell(new RaftMessage.TestMessage.GetStateMachineStateResponse(this.stateMachine.getState()));
+                this.applyStage.sendState(msg.sender());
                 break;
             case RaftMessage.TestMessage.GetState msg:
-                msg.sender().tell(new RaftMessage.TestMessage.GetStateResponse(this.currentTerm, this.votedFor, this.log, this.commitIndex, this.lastApplied));
+                msg.sender().tell(new RaftMessage.TestMessage.GetStateResponse(this.currentTerm, this.votedFor, getLogEntries(this.log.getStartIndex(), getLastLogIndex() + 1), this.commitIndex, this.lastApplied));
                 break;
             default:
                 break;
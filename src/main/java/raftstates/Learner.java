@@ -0,0 +1,65 @@
+package raftstates;
+
+import akka.actor.typed.Behavior;
+import akka.actor.typed.SupervisorStrategy;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.TimerScheduler;
+import datapersistence.ServerDataManager;
+import messages.RaftMessage;
+import statemachine.StateMachine;
+
+// replicated to and serves reads like a follower, but never votes or starts an election
+public class Learner extends Follower {
+
+    static Behavior<RaftMessage> create(ServerDataManager dataManager, StateMachine stateMachine, FailFlag failFlag, RaftConfig config, Object timerKey, ServerState state){
+        return Behaviors.<RaftMessage>supervise(
+            Behaviors.setup(context -> Behaviors.withTimers(timers -> new Learner(context, timers, dataManager, stateMachine, failFlag, config, timerKey, state)))
+        ).onFailure(SupervisorStrategy.restart().withStopChildren(false));
+    }
+
+    protected Learner(ActorContext<RaftMessage> context, TimerScheduler<RaftMessage> timers, ServerDataManager dataManager, StateMachine stateMachine, FailFlag failFlag, RaftConfig config, Object timerKey, ServerState state){
+        super(context, timers, dataManager, stateMachine, failFlag, config, timerKey, state);
+        this.timer.cancel(this.TIMER_KEY);
+    }
+
+    @Override
+    protected Behavior<RaftMessage> dispatch(RaftMessage message){
+        if (this.failFlag.failed) return super.dispatch(message);
+        switch (message) {
+            case RaftMessage.RequestVote msg:
+                msg.candidateRef().tell(new RaftMessage.RequestVoteResponse(this.currentTerm, false));
+                return this;
+            case RaftMessage.PreVote msg:
+                msg.candidateRef().tell(new RaftMessage.PreVoteResponse(this.currentTerm, false));
+                return this;
+            case RaftMessage.TimeoutNow msg:
+                return this;
+            case RaftMessage.TimeOut msg:
+                return this;
+            default:
+                return super.dispatch(message);
+        }
+    }
+
+    @Override
+    protected Behavior<RaftMessage> getRoleForConfiguration() {
+        if (this.isLearner) return this;
+        getContext().getLog().info(getContext().getSelf().path().name() + ": NO LONGER A LEARNER " + getContext().getSelf().path().uid());
+        sendBufferedRequestsToSelf();
+        return Follower.create(this.dataManager, this.stateMachine, this.failFlag, this.config, this.TIMER_KEY, captureState());
+    }
+
+    // the follower role starts it on every append, but a learner never times out into an election
+    @Override
+    protected void startTimer() {}
+
+    @Override
+    protected void handleTestMessage(RaftMessage.TestMessage message){
+        if (message instanceof RaftMessage.TestMessage.GetBehavior msg){
+            msg.sender().tell(new RaftMessage.TestMessage.GetBehaviorResponse("LEARNER"));
+            return;
+        }
+        super.handleTestMessage(message);
+    }
+}
@@ -0,0 +1,21 @@
+package raftstates;
+
+public class RaftConfig {
+    public int electionTimeoutMillis = 400;     // shortest election timeout, a random jitter is added on top
+    public int electionTimeoutJitterMillis = 600;
+    public boolean preVote = true;      // a candidate only increments its term once a majority says it could win
+    public boolean checkQuorum = true;  // a leader that hears from no majority within an election timeout steps down
+    public int snapshotInterval = 1000;     // applied entries past the last snapshot before a new one is taken
+    public int maxInFlightAppends = 8;      // unacknowledged AppendEntries a leader may have out to one follower
+    public int batchWindowMillis = 2;       // how long a leader gathers client updates before appending them, 0 disables batching
+    public int maxBatchEntries = 128;
+    public int maxBatchBytes = 64 * 1024;   // encoded size of the gathered entries
+    public int maxAppendEntries = 512;      // entries in one AppendEntries
+    public int maxAppendBytes = 1024 * 1024;    // encoded size of the entries in one AppendEntries
+    public int catchUpLagEntries = 4096;    // a follower this far behind the leader is caught up at a slower pace
+    public int catchUpInFlightAppends = 2;
+    public boolean leaseReads = false;      // leader answers committed reads locally while a majority recently acknowledged it
+    public int leaseClockDriftMillis = 20;  // bound on how much faster a follower's clock may run than the leader's
+    public int memberCatchUpTimeoutMillis = 10_000;    // a server being added that has not caught up by then is not added
+    public int sessionTimeoutEntries = 100_000;    // a client session expires after this many log entries without an update from it
+}
@@ -0,0 +1,235 @@
+package raftstates;
+
+import statemachine.Command;
+import statemachine.Entry;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.ToIntFunction;
+
+// paged in-memory log by absolute index; slices stay unchanged by later truncation, appends and compaction
+public class RaftLog {
+
+    private static final int PAGE_SHIFT = 10;
+
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    public RaftLog(int startIndex){
+        this(startIndex, entry -> 0);
+    }
+
+    public RaftLog(int startIndex, ToIntFunction<Entry> entrySizer){
+        this.entrySizer = entrySizer;
+        this.terms = new TermIndex();
+        this.commandPages = new Command[4][];
+        this.sizePages = new int[4][];
+        this.pageCount = 0;
+        this.baseIndex = startIndex;
+        this.startIndex = startIndex;
+        this.endIndex = startIndex;
+    }
+
+    private final ToIntFunction<Entry> entrySizer;
+
+    private final TermIndex terms;
+
+    private Command[][] commandPages;
+
+    // only read for entries in the log, so a slot past the end is simply written again
+    private int[][] sizePages;
+
+    private int pageCount;
+
+    // absolute index held by the first slot of the first page
+    private int baseIndex;
+
+    private int startIndex;
+
+    // one past the last entry
+    private int endIndex;
+
+    public int getStartIndex(){
+        return this.startIndex;
+    }
+
+    public int getLastIndex(){
+        return this.endIndex - 1;
+    }
+
+    public int size(){
+        return this.endIndex - this.startIndex;
+    }
+
+    public int getTerm(int index){
+        checkIndex(index);
+        return this.terms.getTerm(index);
+    }
+
+    // -1 when no entry in the log holds the term
+    public int getFirstIndexOfTerm(int term){
+        return this.terms.getFirstIndexOfTerm(term);
+    }
+
+    public int getLastIndexOfTerm(int term){
+        return this.terms.getLastIndexOfTerm(term, this.endIndex);
+    }
+
+    public Command getCommand(int index){
+        checkIndex(index);
+        int position = index - this.baseIndex;
+        return this.commandPages[position >>> PAGE_SHIFT][position & PAGE_MASK];
+    }
+
+    public Entry get(int index){
+        return new Entry(getTerm(index), getCommand(index));
+    }
+
+    public int getEncodedSize(int index){
+        checkIndex(index);
+        int position = index - this.baseIndex;
+        return this.sizePages[position >>> PAGE_SHIFT][position & PAGE_MASK];
+    }
+
+    // for entries not yet appended, such as a batch being collected
+    public int measure(Entry entry){
+        return this.entrySizer.applyAsInt(entry);
+    }
+
+    public void append(Entry entry){
+        append(entry, measure(entry));
+    }
+
+    public void append(Entry entry, int encodedSize){
+        int position = this.endIndex - this.baseIndex;
+        int page = position >>> PAGE_SHIFT;
+        if (page == this.pageCount) addPage();
+        this.terms.append(this.endIndex, entry.term());
+        this.commandPages[page][position & PAGE_MASK] = entry.command();
+        this.sizePages[page][position & PAGE_MASK] = encodedSize;
+        this.endIndex++;
+    }
+
+    public void appendAll(List<Entry> entries){
+        for (Entry entry : entries) append(entry);
+    }
+
+    // entries whose sizes were already measured with measure
+    public void appendAll(List<Entry> entries, List<Integer> encodedSizes){
+        for (int i = 0; i < entries.size(); i++) append(entries.get(i), encodedSizes.get(i));
+    }
+
+    // removes fromIndex and every entry after it
+    public void truncateFrom(int fromIndex){
+        if (fromIndex < this.startIndex || fromIndex > this.endIndex) {
+            throw new IllegalArgumentException("Cannot truncate from " + fromIndex + ", log holds " + this.startIndex + " to " + getLastIndex());
+        }
+        if (fromIndex == this.endIndex) return;
+        int position = fromIndex - this.baseIndex;
+        int keptPages = (position + PAGE_MASK) >>> PAGE_SHIFT;
+        if ((position & PAGE_MASK) != 0){
+            int page = keptPages - 1;
+            this.commandPages[page] = Arrays.copyOf(this.commandPages[page], PAGE_SIZE);
+            Arrays.fill(this.commandPages[page], position & PAGE_MASK, PAGE_SIZE, null);
+        }
+        Arrays.fill(this.commandPages, keptPages, this.pageCount, null);
+        Arrays.fill(this.sizePages, keptPages, this.pageCount, null);
+        this.terms.truncateFrom(fromIndex);
+        this.pageCount = keptPages;
+        this.endIndex = fromIndex;
+    }
+
+    // drops every entry up to and including index, which may lie past the end of the log
+    public void discardThrough(int index){
+        if (index < this.startIndex) return;
+        if (index >= getLastIndex()){
+            Arrays.fill(this.commandPages, 0, this.pageCount, null);
+            Arrays.fill(this.sizePages, 0, this.pageCount, null);
+            this.terms.clear();
+            this.pageCount = 0;
+            this.baseIndex = index + 1;
+            this.startIndex = index + 1;
+            this.endIndex = index + 1;
+            return;
+        }
+        this.startIndex = index + 1;
+        this.terms.discardBefore(this.startIndex);
+        int releasedPages = (this.startIndex - this.baseIndex) >>> PAGE_SHIFT;
+        if (releasedPages == 0) return;
+        System.arraycopy(this.commandPages, releasedPages, this.commandPages, 0, this.pageCount - releasedPages);
+        Arrays.fill(this.commandPages, this.pageCount - releasedPages, this.pageCount, null);
+        System.arraycopy(this.sizePages, releasedPages, this.sizePages, 0, this.pageCount - releasedPages);
+        Arrays.fill(this.sizePages, this.pageCount - releasedPages, this.pageCount, null);
+        this.pageCount -= releasedPages;
+        this.baseIndex += releasedPages << PAGE_SHIFT;
+    }
+
+    // entries from fromIndex up to but not including toIndex, unaffected by later changes to the log
+    public List<Entry> slice(int fromIndex, int toIndex){
+        if (fromIndex < this.startIndex || toIndex > this.endIndex || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Slice " + fromIndex + " to " + toIndex + " of log holding " + this.startIndex + " to " + getLastIndex());
+        }
+        if (fromIndex == toIndex) return Collections.emptyList();
+        int firstPosition = fromIndex - this.baseIndex;
+        int firstPage = firstPosition >>> PAGE_SHIFT;
+        int lastPage = (toIndex - 1 - this.baseIndex) >>> PAGE_SHIFT;
+        return new Slice(this.terms.copy(fromIndex, toIndex),
+                fromIndex,
+                Arrays.copyOfRange(this.commandPages, firstPage, lastPage + 1),
+                firstPosition & PAGE_MASK,
+                toIndex - fromIndex);
+    }
+
+    private void addPage(){
+        if (this.pageCount == this.commandPages.length){
+            this.commandPages = Arrays.copyOf(this.commandPages, this.pageCount * 2);
+            this.sizePages = Arrays.copyOf(this.sizePages, this.pageCount * 2);
+        }
+        this.commandPages[this.pageCount] = new Command[PAGE_SIZE];
+        this.sizePages[this.pageCount] = new int[PAGE_SIZE];
+        this.pageCount++;
+    }
+
+    private void checkIndex(int index){
+        if (index < this.startIndex) throw new IllegalArgumentException("Entry " + index + " has been compacted into the snapshot");
+        if (index >= this.endIndex) throw new IndexOutOfBoundsException("Entry " + index + " is past the end of the log at " + getLastIndex());
+    }
+
+    private static class Slice extends AbstractList<Entry> implements RandomAccess {
+
+        Slice(TermIndex terms, int fromIndex, Command[][] commandPages, int offset, int size){
+            this.terms = terms;
+            this.fromIndex = fromIndex;
+            this.commandPages = commandPages;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        private final TermIndex terms;
+
+        private final int fromIndex;
+
+        private final Command[][] commandPages;
+
+        private final int offset;
+
+        private final int size;
+
+        @Override
+        public Entry get(int i){
+            if (i < 0 || i >= this.size) throw new IndexOutOfBoundsException("Index " + i + " of slice of size " + this.size);
+            int position = this.offset + i;
+            return new Entry(this.terms.getTerm(this.fromIndex + i),
+                    this.commandPages[position >>> PAGE_SHIFT][position & PAGE_MASK]);
+        }
+
+        @Override
+        public int size(){
+            return this.size;
+        }
+    }
+}
@@ -3,18 +3,27 @@ package raftstates;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorRefResolver;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
 import akka.actor.typed.PreRestart;
 import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.TimerScheduler;
+import codec.CommandCodecRegistry;
+import codec.EntrySizer;
 import datapersistence.ServerDataManager;
 import messages.ClientMessage;
 import messages.RaftMessage;
+import statemachine.Command;
+import statemachine.ConfigurationCommand;
+import statemachine.ConfigurationCommandCodec;
 import statemachine.Entry;
+import statemachine.SessionTable;
+import statemachine.Snapshot;
 import statemachine.StateMachine;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
@@ -28,22 +37,58 @@ abstract class RaftServer extends AbstractBehavior<RaftMessage> {
     protected ServerDataManager dataManager;
     protected StateMachine stateMachine;
 
+    // owns the committed state machine, which is applied on its own actor
+    protected ApplyStage applyStage;
+
+    // the committed state with the log entries up to tentativeIndex applied on top, skipping retries by its own sessions
     protected StateMachine tentativeStateMachine;
 
+    protected SessionTable tentativeSessions;
+
+    protected int tentativeIndex;
+
     protected FailFlag failFlag;
 
+    protected RaftConfig config;
+
+    // the other voting members of the latest configuration in the log, which is in effect whether or not it has committed
     protected List<ActorRef<RaftMessage>> groupRefs;
 
+    // the group this server was started with, in effect until a configuration entry replaces it
+    protected List<ActorRef<RaftMessage>> initialGroupRefs;
+
+    // the other learners of the latest configuration in the log, replicated to but never counted towards a quorum
+    protected List<ActorRef<RaftMessage>> learnerRefs;
+
+    // index of the configuration entry in effect, -1 for the initial group
+    protected int configIndex;
+
+    // a server that is not a voting member never starts an election
+    protected boolean isVoter;
+
+    protected boolean isLearner;
+
     protected int currentTerm;
 
     protected ActorRef<RaftMessage> votedFor;
 
-    protected List<Entry> log;
+    protected RaftLog log;
+
+    protected Snapshot snapshot;
 
     protected int commitIndex;
 
+    // last entry handed to the apply stage
+    protected int lastDispatched;
+
+    // last entry the apply stage reported as applied
     protected int lastApplied;
 
+    // each client's latest committed update, replicated through the log and carried in snapshots
+    protected SessionTable sessions;
+
+    private boolean snapshotRequested;
+
     private Random randomGen;
 
 
@@ -52,20 +97,28 @@ abstract class RaftServer extends AbstractBehavior<RaftMessage> {
                         ServerDataManager dataManager,
                          StateMachine stateMachine,
                          FailFlag failFlag,
+                         RaftConfig config,
+                         ApplyStage applyStage,
                          int commitIndex,
                          int lastApplied){
         super(context);
         this.timer = timers;
         this.dataManager = dataManager;
         this.stateMachine = stateMachine;
+        this.applyStage = applyStage;
         this.failFlag = failFlag;
+        this.config = config;
         this.commitIndex = commitIndex;
+        this.lastDispatched = lastApplied;
         this.lastApplied = lastApplied;
+        this.sessions = new SessionTable();
         this.randomGen = new Random();
         this.randomGen.setSeed(getContext().getSelf().path().uid());
 
         initializeDataManager(context, dataManager);
         initializeState(dataManager);
+        restoreSnapshotIfAhead();
+        updateTentativeState();
     }
 
     protected RaftServer(ActorContext<RaftMessage> context,
@@ -73,6 +126,8 @@ abstract class RaftServer extends AbstractBehavior<RaftMessage> {
                          ServerDataManager dataManager,
                          StateMachine stateMachine,
                          FailFlag failFlag,
+                         RaftConfig config,
+                         ApplyStage applyStage,
                          Object timerKey,
                          int commitIndex,
                          int lastApplied){
@@ -81,20 +136,67 @@ abstract class RaftServer extends AbstractBehavior<RaftMessage> {
         this.TIMER_KEY = timerKey;
         this.dataManager = dataManager;
         this.stateMachine = stateMachine;
+        this.applyStage = applyStage;
         this.failFlag = failFlag;
+        this.config = config;
         this.commitIndex = commitIndex;
+        this.lastDispatched = lastApplied;
         this.lastApplied = lastApplied;
+        this.sessions = new SessionTable();
         this.randomGen = new Random();
         this.randomGen.setSeed(getContext().getSelf().path().uid());
 
         initializeDataManager(context, dataManager);
         initializeState(dataManager);
+        restoreSnapshotIfAhead();
+        updateTentativeState();
+    }
+
+    protected RaftServer(ActorContext<RaftMessage> context,
+                         TimerScheduler<RaftMessage> timers,
+                         ServerDataManager dataManager,
+                         StateMachine stateMachine,
+                         FailFlag failFlag,
+                         RaftConfig config,
+                         Object timerKey,
+                         ServerState state){
+        super(context);
+        this.timer = timers;
+        this.TIMER_KEY = timerKey;
+        this.dataManager = dataManager;
+        this.stateMachine = stateMachine;
+        this.applyStage = state.applyStage;
+        this.failFlag = failFlag;
+        this.config = config;
+        this.randomGen = new Random();
+        this.randomGen.setSeed(getContext().getSelf().path().uid());
+
+        if (state.claim()){
+            adoptState(state);
+        } else {
+            this.commitIndex = -1;
+            this.lastDispatched = -1;
+            this.lastApplied = -1;
+            this.sessions = new SessionTable();
+            initializeDataManager(context, dataManager);
+            initializeState(dataManager);
+            restoreSnapshotIfAhead();
+        }
         updateTentativeState();
     }
 
     protected void initializeDataManager(ActorContext<RaftMessage> context, ServerDataManager dataManager) {
         dataManager.setActorRefResolver(ActorRefResolver.get(context.getSystem()));
         dataManager.setServerID(context.getSelf().path().uid());
+        dataManager.setCommandCodecs(createCommandCodecs());
+    }
+
+    // configuration entries are written by the Raft servers themselves, whatever the state machine
+    protected CommandCodecRegistry createCommandCodecs() {
+        CommandCodecRegistry codecs = new CommandCodecRegistry();
+        codecs.register(ConfigurationCommandCodec.TAG, ConfigurationCommand.class, new ConfigurationCommandCodec());
+        this.stateMachine.registerCommandCodecs(codecs);
+        return codecs;
     }
 
     protected void initializeState(ServerDataManager dataManager) {
@@ -103,25 +205,190 @@ abstract class RaftServer extends AbstractBehavior<RaftMessage> {
         if (this.votedFor.equals(getContext().getSystem().deadLetters())){
             this.votedFor = null;
         }
-        this.log = dataManager.getLog();
-        this.groupRefs = dataManager.getGroupRefs();
+        this.snapshot = dataManager.getSnapshot();
+        initializeLog(dataManager.getLogStartIndex(), dataManager.getLog());
+        this.initialGroupRefs = dataManager.getGroupRefs();
+        reloadConfiguration();
+    }
+
+    private void adoptState(ServerState state) {
+        this.currentTerm = state.currentTerm;
+        this.votedFor = state.votedFor;
+        this.log = state.log;
+        this.snapshot = state.snapshot;
+        this.groupRefs = state.groupRefs;
+        this.initialGroupRefs = state.initialGroupRefs;
+        this.learnerRefs = state.learnerRefs;
+        this.configIndex = state.configIndex;
+        this.isVoter = state.isVoter;
+        this.isLearner = state.isLearner;
+        this.commitIndex = state.commitIndex;
+        this.lastDispatched = state.lastDispatched;
+        this.lastApplied = state.lastApplied;
+        this.sessions = state.sessions;
+        this.tentativeStateMachine = state.tentativeStateMachine;
+        this.tentativeSessions = state.tentativeSessions;
+        this.tentativeIndex = state.tentativeIndex;
+    }
+
+    protected ServerState captureState() {
+        return new ServerState(this.currentTerm,
+                this.votedFor,
+                this.log,
+                this.snapshot,
+                this.groupRefs,
+                this.initialGroupRefs,
+                this.learnerRefs,
+                this.configIndex,
+                this.isVoter,
+                this.isLearner,
+                this.applyStage,
+                this.commitIndex,
+                this.lastDispatched,
+                this.lastApplied,
+                this.sessions,
+                this.tentativeStateMachine,
+                this.tentativeSessions,
+                this.tentativeIndex);
+    }
+
+    // entries the snapshot already covers can survive a crash between saving the snapshot and compacting
+    private void initializeLog(int persistedStartIndex, List<Entry> persistedLog) {
+        int logStartIndex = getSnapshotIndex() + 1;
+        if (persistedStartIndex > logStartIndex) {
+            throw new IllegalStateException("Log starts at " + persistedStartIndex + " but snapshot ends at " + getSnapshotIndex());
+        }
+        int covered = Math.min(logStartIndex - persistedStartIndex, persistedLog.size());
+        this.log = new RaftLog(logStartIndex, new EntrySizer(createCommandCodecs())::getEncodedSize);
+        this.log.appendAll(persistedLog.subList(covered, persistedLog.size()));
+    }
+
+    protected void setInitialGroupRefs(List<ActorRef<RaftMessage>> groupRefs) {
+        this.initialGroupRefs = groupRefs;
+        this.dataManager.saveGroupRefs(groupRefs);
+        reloadConfiguration();
+    }
+
+    // after entries from fromIndex on were appended, possibly replacing the entry the configuration came from
+    protected void updateConfiguration(int fromIndex) {
+        if (fromIndex <= this.configIndex){
+            reloadConfiguration();
+            return;
+        }
+        for (int index = getLastLogIndex(); index >= fromIndex; index--){
+            if (this.log.getCommand(index) instanceof ConfigurationCommand configuration){
+                setConfiguration(index, configuration);
+                return;
+            }
+        }
+    }
+
+    protected void reloadConfiguration() {
+        for (int index = getLastLogIndex(); index >= this.log.getStartIndex(); index--){
+            if (this.log.getCommand(index) instanceof ConfigurationCommand configuration){
+                setConfiguration(index, configuration);
+                return;
+            }
+        }
+        if (this.snapshot != null && this.snapshot.configuration() != null){
+            setConfiguration(getSnapshotIndex(), this.snapshot.configuration());
+            return;
+        }
+        this.groupRefs = this.initialGroupRefs;
+        this.learnerRefs = new ArrayList<>();
+        this.isVoter = true;
+        this.isLearner = false;
+        this.configIndex = -1;
+    }
+
+    protected void setConfiguration(int index, ConfigurationCommand configuration) {
+        ActorRefResolver refResolver = ActorRefResolver.get(getContext().getSystem());
+        List<ActorRef<RaftMessage>> members = new ArrayList<>();
+        for (String member : configuration.getMembers()) members.add(refResolver.resolveActorRef(member));
+        List<ActorRef<RaftMessage>> learners = new ArrayList<>();
+        for (String learner : configuration.getLearners()) learners.add(refResolver.resolveActorRef(learner));
+        this.isVoter = members.remove(getContext().getSelf());
+        this.isLearner = learners.remove(getContext().getSelf());
+        this.groupRefs = members;
+        this.learnerRefs = learners;
+        this.configIndex = index;
+    }
+
+    // the serialized refs of every voting member, this server's included if it is one
+    protected List<String> getMembers() {
+        ActorRefResolver refResolver = ActorRefResolver.get(getContext().getSystem());
+        List<String> members = new ArrayList<>();
+        if (this.isVoter) members.add(refResolver.toSerializationFormat(getContext().getSelf()));
+        for (ActorRef<RaftMessage> ref : this.groupRefs) members.add(refResolver.toSerializationFormat(ref));
+        return members;
+    }
+
+    // the serialized refs of every learner, this server's included if it is one
+    protected List<String> getLearners() {
+        ActorRefResolver refResolver = ActorRefResolver.get(getContext().getSystem());
+        List<String> learners = new ArrayList<>();
+        if (this.isLearner) learners.add(refResolver.toSerializationFormat(getContext().getSelf()));
+        for (ActorRef<RaftMessage> ref : this.learnerRefs) learners.add(refResolver.toSerializationFormat(ref));
+        return learners;
+    }
+
+    private void restoreSnapshotIfAhead() {
+        if (this.snapshot == null || this.lastDispatched >= this.snapshot.lastIncludedIndex()) return;
+        this.applyStage.installSnapshot(this.snapshot);
+        this.sessions = this.snapshot.sessions().copy();
+        invalidateTentativeState();
+        this.commitIndex = Math.max(this.commitIndex, this.snapshot.lastIncludedIndex());
+        this.lastDispatched = this.snapshot.lastIncludedIndex();
     }
 
     protected void startTimer() {
-        int randomNum = randomGen.nextInt(600);
-        this.timer.startSingleTimer(TIMER_KEY, new RaftMessage.TimeOut(), Duration.ofMillis(400 + randomNum));
+        int randomNum = randomGen.nextInt(this.config.electionTimeoutJitterMillis);
+        this.timer.startSingleTimer(TIMER_KEY, new RaftMessage.TimeOut(), Duration.ofMillis(this.config.electionTimeoutMillis + randomNum));
     }
 
     protected void handleTimeOut() {
+        startElectionTerm(false);
+    }
+
+    protected void startElectionTerm(boolean leadershipTransfer) {
         this.currentTerm++;
         this.dataManager.saveCurrentTerm(this.currentTerm);
         this.votedFor = getContext().getSelf();
         this.dataManager.saveVotedFor(this.votedFor);
-        sendRequestVotesToAllNodes();
+        sendRequestVotesToAllNodes(leadershipTransfer);
+    }
+
+    // the pre-vote is for the term the election would be held in, so nothing is persisted until a majority agrees
+    protected void sendPreVotesToAllNodes() {
+        for (ActorRef<RaftMessage> ref: this.groupRefs){
+            ref.tell(new RaftMessage.PreVote(this.currentTerm + 1,
+                    getContext().getSelf(),
+                    getLastLogIndex(),
+                    getLastLogTerm()));
+        }
+    }
+
+    // granting a pre-vote changes neither this server's term nor its vote
+    protected void handlePreVote(RaftMessage.PreVote msg, boolean leaderRecentlyHeard) {
+        boolean granted = !leaderRecentlyHeard
+                && msg.term() > this.currentTerm
+                && isLogUpToDate(msg.lastLogIndex(), msg.lastLogTerm());
+        msg.candidateRef().tell(new RaftMessage.PreVoteResponse(this.currentTerm, granted));
+    }
+
+    protected boolean isLogUpToDate(int lastLogIndex, int lastLogTerm) {
+        if (getLastLogIndex() == -1) return true;
+        if (lastLogTerm != getLastLogTerm()) return lastLogTerm > getLastLogTerm();
+        return lastLogIndex >= getLastLogIndex();
     }
 
+    // a vote only holds for the term it was cast in
     protected void updateCurrentTerm(int senderTerm) {
-        if (senderTerm > this.currentTerm){this.currentTerm = senderTerm;}
+        if (senderTerm > this.currentTerm){
+            this.currentTerm = senderTerm;
+            this.votedFor = null;
+            this.dataManager.saveVotedFor(null);
+        }
         this.dataManager.saveCurrentTerm(this.currentTerm);
     }
 
@@ -136,10 +403,43 @@ abstract class RaftServer extends AbstractBehavior<RaftMessage> {
         msg.candidateRef().tell(new RaftMessage.RequestVoteResponse(this.currentTerm, success));
     }
 
-    protected void applyCommittedEntriesToStateMachine(){
-        List<Entry> entries = this.log.subList(this.lastApplied + 1, this.commitIndex + 1);
-        for (Entry e : entries) this.stateMachine.apply(e.command());
-        this.lastApplied = this.commitIndex;
+    // sessions advance here too, so retries are recognised before the state machine catches up
+    protected void applyCommittedEntriesToStateMachine(boolean respondToClients){
+        if (this.commitIndex <= this.lastDispatched) return;
+        for (int index = this.lastDispatched + 1; index <= this.commitIndex; index++){
+            Command command = this.log.getCommand(index);
+            if (command instanceof ConfigurationCommand) continue;
+            if (!this.sessions.isSkipped(command)) this.sessions.record(command, index, this.config.sessionTimeoutEntries);
+        }
+        this.applyStage.apply(this.lastDispatched + 1, getLogEntries(this.lastDispatched + 1, this.commitIndex + 1), respondToClients);
+        this.lastDispatched = this.commitIndex;
+    }
+
+    // a report from before a simulated failure can arrive after the reset, when less has been dispatched
+    protected void handleEntriesApplied(RaftMessage.EntriesApplied msg){
+        this.lastApplied = Math.min(msg.index(), this.lastDispatched);
+        takeSnapshotIfDue();
+    }
+
+    // the apply stage snapshots whatever it has applied when the request reaches it
+    protected void takeSnapshotIfDue(){
+        if (this.snapshotRequested || this.lastApplied - getSnapshotIndex() < this.config.snapshotInterval) return;
+        this.snapshotRequested = true;
+        this.applyStage.takeSnapshot();
+    }
+
+    protected void handleSnapshotTaken(RaftMessage.SnapshotTaken msg){
+        this.snapshotRequested = false;
+        Snapshot snapshot = msg.snapshot();
+        if (snapshot.lastIncludedIndex() <= getSnapshotIndex()) return;
+        this.dataManager.saveSnapshot(snapshot);
+        this.dataManager.compactLog(snapshot.lastIncludedIndex());
+        discardLogThrough(snapshot.lastIncludedIndex());
+        this.snapshot = snapshot;
+    }
+
+    protected void discardLogThrough(int index){
+        this.log.discardThrough(index);
     }
 
     protected Behavior<RaftMessage> handlePreRestart(PreRestart signal) {
@@ -147,39 +447,75 @@ abstract class RaftServer extends AbstractBehavior<RaftMessage> {
         return Behaviors.same();
     }
 
+    protected Behavior<RaftMessage> handlePostStop(PostStop signal) {
+        this.dataManager.close();
+        return Behaviors.same();
+    }
+
     protected void resetTransientState(){
-        this.stateMachine.resetState();
+        this.applyStage.reset();
         this.commitIndex = -1;
+        this.lastDispatched = -1;
         this.lastApplied = -1;
+        this.sessions = new SessionTable();
+        invalidateTentativeState();
+        restoreSnapshotIfAhead();
     }
 
-    private void sendRequestVotesToAllNodes() {
+    private void sendRequestVotesToAllNodes(boolean leadershipTransfer) {
         for (ActorRef<RaftMessage> ref: this.groupRefs){
             ref.tell(new RaftMessage.RequestVote(this.currentTerm,
                     getContext().getSelf(),
-                    this.log.size()-1,
-                    getLastLogTerm()));
+                    getLastLogIndex(),
+                    getLastLogTerm(),
+                    leadershipTransfer));
         }
     }
 
-    private int getLastLogTerm() {
-        if (this.log.size() == 0) return -1;
-        else return this.log.get(this.log.size() - 1).term();
+    protected int getSnapshotIndex() {
+        if (this.snapshot == null) return -1;
+        else return this.snapshot.lastIncludedIndex();
+    }
+
+    protected int getLastLogIndex() {
+        return this.log.getLastIndex();
+    }
+
+    protected int getLastLogTerm() {
+        return getLogTerm(getLastLogIndex());
+    }
+
+    protected int getLogTerm(int index) {
+        if (index < 0) return -1;
+        if (index == getSnapshotIndex()) return this.snapshot.lastIncludedTerm();
+        return this.log.getTerm(index);
+    }
+
+    protected Entry getLogEntry(int index) {
+        return this.log.get(index);
+    }
+
+    // entries from fromIndex up to but not including toIndex, as an immutable view that later log changes do not affect
+    protected List<Entry> getLogEntries(int fromIndex, int toIndex) {
+        return this.log.slice(fromIndex, toIndex);
     }
 
     protected boolean isDuplicate(RaftMessage.ClientUpdateRequest msg) {
-        for (Entry e : this.log){
-            if (e.command().equals(msg.command())) return true;
-        }
-        return false;
+        return this.sessions.isApplied(msg.command());
     }
 
     protected boolean isLogFullyCommitted() {
-        return this.commitIndex >= this.log.size() - 1;
+        return this.commitIndex >= getLastLogIndex();
     }
 
+    // with every entry committed the tentative state is the committed state, possibly ahead of the apply stage
     protected void sendCommittedState(RaftMessage.ClientUnstableReadRequest msg) {
-        msg.clientRef().tell(new ClientMessage.ClientCommittedReadResponse<>(this.stateMachine.getState()));
+        msg.clientRef().tell(new ClientMessage.ClientCommittedReadResponse<>(this.tentativeStateMachine.getState()));
+    }
+
+    // answered from this server's committed state once it has applied everything it knows to be committed, without asking the leader
+    protected void handleLaggedReadRequest(RaftMessage.ClientLaggedReadRequest msg){
+        this.applyStage.read(this.commitIndex, msg.clientRef());
     }
 
     protected void handleUnstableReadRequest(RaftMessage.ClientUnstableReadRequest msg){
@@ -191,10 +527,30 @@ abstract class RaftServer extends AbstractBehavior<RaftMessage> {
         msg.clientRef().tell(new ClientMessage.ClientUnstableReadResponse<>(this.tentativeStateMachine.getState()));
     }
 
+    // incremental; a rebuild replays the log onto the apply stage's initial state or the latest snapshot
     protected void updateTentativeState(){
-        StateMachine tentativeState = this.stateMachine.forkStateMachine();
-        List<Entry> uncommittedEntries = this.log.subList(this.commitIndex + 1, this.log.size());
-        for (Entry e : uncommittedEntries) tentativeState.apply(e.command());
-        this.tentativeStateMachine = tentativeState;
+        if (this.tentativeStateMachine == null){
+            ApplyStage.Fork fork = this.applyStage.forkInitialState();
+            this.tentativeStateMachine = fork.state();
+            this.tentativeSessions = fork.sessions();
+            this.tentativeIndex = fork.appliedIndex();
+            if (this.tentativeIndex < getSnapshotIndex()){
+                this.tentativeStateMachine.installSnapshot(this.snapshot.state());
+                this.tentativeSessions = this.snapshot.sessions().copy();
+                this.tentativeIndex = getSnapshotIndex();
+            }
+        }
+        for (int index = this.tentativeIndex + 1; index <= getLastLogIndex(); index++){
+            Command command = this.log.getCommand(index);
+            if (command instanceof ConfigurationCommand || this.tentativeSessions.isSkipped(command)) continue;
+            this.tentativeStateMachine.apply(command);
+            this.tentativeSessions.record(command, index, this.config.sessionTimeoutEntries);
+        }
+        this.tentativeIndex = Math.max(this.tentativeIndex, getLastLogIndex());
+    }
+
+    // called when the entries or the committed state the tentative state was built from are replaced
+    protected void invalidateTentativeState(){
+        this.tentativeStateMachine = null;
     }
 }
@@ -0,0 +1,96 @@
+package raftstates;
+
+import akka.actor.typed.ActorRef;
+import messages.RaftMessage;
+import statemachine.SessionTable;
+import statemachine.Snapshot;
+import statemachine.StateMachine;
+
+import java.util.List;
+
+// Raft state handed from one role to the next, so a role change does not reload the log
+class ServerState {
+
+    ServerState(int currentTerm,
+                ActorRef<RaftMessage> votedFor,
+                RaftLog log,
+                Snapshot snapshot,
+                List<ActorRef<RaftMessage>> groupRefs,
+                List<ActorRef<RaftMessage>> initialGroupRefs,
+                List<ActorRef<RaftMessage>> learnerRefs,
+                int configIndex,
+                boolean isVoter,
+                boolean isLearner,
+                ApplyStage applyStage,
+                int commitIndex,
+                int lastDispatched,
+                int lastApplied,
+                SessionTable sessions,
+                StateMachine tentativeStateMachine,
+                SessionTable tentativeSessions,
+                int tentativeIndex){
+        this.currentTerm = currentTerm;
+        this.votedFor = votedFor;
+        this.log = log;
+        this.snapshot = snapshot;
+        this.groupRefs = groupRefs;
+        this.initialGroupRefs = initialGroupRefs;
+        this.learnerRefs = learnerRefs;
+        this.configIndex = configIndex;
+        this.isVoter = isVoter;
+        this.isLearner = isLearner;
+        this.applyStage = applyStage;
+        this.commitIndex = commitIndex;
+        this.lastDispatched = lastDispatched;
+        this.lastApplied = lastApplied;
+        this.sessions = sessions;
+        this.tentativeStateMachine = tentativeStateMachine;
+        this.tentativeSessions = tentativeSessions;
+        this.tentativeIndex = tentativeIndex;
+    }
+
+    final int currentTerm;
+
+    final ActorRef<RaftMessage> votedFor;
+
+    final RaftLog log;
+
+    final Snapshot snapshot;
+
+    final List<ActorRef<RaftMessage>> groupRefs;
+
+    final List<ActorRef<RaftMessage>> initialGroupRefs;
+
+    final List<ActorRef<RaftMessage>> learnerRefs;
+
+    final int configIndex;
+
+    final boolean isVoter;
+
+    final boolean isLearner;
+
+    final ApplyStage applyStage;
+
+    final int commitIndex;
+
+    final int lastDispatched;
+
+    final int lastApplied;
+
+    final SessionTable sessions;
+
+    final StateMachine tentativeStateMachine;
+
+    final SessionTable tentativeSessions;
+
+    final int tentativeIndex;
+
+    private boolean claimed;
+
+    // a supervisor restart runs the role's setup again, and must then reload from disk instead of reusing this
+    synchronized boolean claim(){
+        if (this.claimed) return false;
+        this.claimed = true;
+        return true;
+    }
+}
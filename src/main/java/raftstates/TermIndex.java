@@ -0,0 +1,94 @@
+package raftstates;
+
+import java.util.Arrays;
+
+// log terms as sorted (first index, term) runs, one per term, searched from the end
+class TermIndex {
+
+    TermIndex(){
+        this.runStarts = new int[8];
+        this.runTerms = new int[8];
+        this.runCount = 0;
+    }
+
+    private int[] runStarts;
+
+    private int[] runTerms;
+
+    private int runCount;
+
+    // index must directly follow the last index already added
+    void append(int index, int term){
+        if (this.runCount > 0 && this.runTerms[this.runCount - 1] == term) return;
+        if (this.runCount == this.runStarts.length){
+            this.runStarts = Arrays.copyOf(this.runStarts, this.runCount * 2);
+            this.runTerms = Arrays.copyOf(this.runTerms, this.runCount * 2);
+        }
+        this.runStarts[this.runCount] = index;
+        this.runTerms[this.runCount] = term;
+        this.runCount++;
+    }
+
+    int getTerm(int index){
+        return this.runTerms[findRun(index)];
+    }
+
+    // -1 when no index holds the term
+    int getFirstIndexOfTerm(int term){
+        int run = findTerm(term);
+        return run < 0 ? -1 : this.runStarts[run];
+    }
+
+    // endIndex is one past the last index added
+    int getLastIndexOfTerm(int term, int endIndex){
+        int run = findTerm(term);
+        if (run < 0) return -1;
+        return run + 1 < this.runCount ? this.runStarts[run + 1] - 1 : endIndex - 1;
+    }
+
+    void truncateFrom(int index){
+        while (this.runCount > 0 && this.runStarts[this.runCount - 1] >= index) this.runCount--;
+    }
+
+    // drops the runs that end before startIndex, which must not be past the last index added
+    void discardBefore(int startIndex){
+        int first = findRun(startIndex);
+        System.arraycopy(this.runStarts, first, this.runStarts, 0, this.runCount - first);
+        System.arraycopy(this.runTerms, first, this.runTerms, 0, this.runCount - first);
+        this.runCount -= first;
+        this.runStarts[0] = startIndex;
+    }
+
+    void clear(){
+        this.runCount = 0;
+    }
+
+    // the runs covering fromIndex up to but not including toIndex, starting at fromIndex
+    TermIndex copy(int fromIndex, int toIndex){
+        TermIndex copy = new TermIndex();
+        for (int run = findRun(fromIndex); run < this.runCount && this.runStarts[run] < toIndex; run++){
+            copy.append(Math.max(this.runStarts[run], fromIndex), this.runTerms[run]);
+        }
+        return copy;
+    }
+
+    // the last run starting at or before index
+    private int findRun(int index){
+        int last = this.runCount - 1;
+        if (this.runStarts[last] <= index) return last;
+        int low = 0;
+        int high = last - 1;
+        while (low < high){
+            int mid = (low + high + 1) >>> 1;
+            if (this.runStarts[mid] <= index) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    private int findTerm(int term){
+        if (this.runCount == 0) return -1;
+        int run = Arrays.binarySearch(this.runTerms, 0, this.runCount, term);
+        return run < 0 ? -1 : run;
+    }
+}
@@ -1,6 +1,7 @@
 package statemachine;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 public abstract class Command implements Serializable {
 
@@ -17,7 +18,13 @@ public abstract class Command implements Serializable {
     public int getCommandID(){
         return commandID;
     }
-    public boolean equals(Command other){
-        return this.clientRef == other.getClientRef() && this.commandID == other.getCommandID();
+    @Override
+    public boolean equals(Object other){
+        if (!(other instanceof Command command)) return false;
+        return Objects.equals(this.clientRef, command.getClientRef()) && this.commandID == command.getCommandID();
+    }
+    @Override
+    public int hashCode(){
+        return Objects.hash(this.clientRef, this.commandID);
     }
 }
@@ -0,0 +1,30 @@
+package statemachine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// voters and learners of the group; takes effect when appended, never applied to the state machine
+public class ConfigurationCommand extends Command {
+
+    private List<String> members;
+
+    private List<String> learners;
+
+    public ConfigurationCommand(String leaderRef, int commandID, List<String> members){
+        this(leaderRef, commandID, members, List.of());
+    }
+
+    public ConfigurationCommand(String leaderRef, int commandID, List<String> members, List<String> learners){
+        super(leaderRef, commandID);
+        this.members = new ArrayList<>(members);
+        this.learners = new ArrayList<>(learners);
+    }
+
+    public List<String> getMembers(){
+        return members;
+    }
+
+    public List<String> getLearners(){
+        return learners;
+    }
+}
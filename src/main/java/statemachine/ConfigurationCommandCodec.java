@@ -0,0 +1,37 @@
+package statemachine;
+
+import codec.BinaryReader;
+import codec.BinaryWriter;
+import codec.CommandCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ConfigurationCommandCodec implements CommandCodec<ConfigurationCommand> {
+
+    public static final int TAG = 0;
+
+    @Override
+    public void writePayload(ConfigurationCommand command, BinaryWriter out) {
+        writeRefs(command.getMembers(), out);
+        writeRefs(command.getLearners(), out);
+    }
+
+    @Override
+    public ConfigurationCommand readCommand(String clientRef, int commandID, BinaryReader in) {
+        List<String> members = readRefs(in);
+        return new ConfigurationCommand(clientRef, commandID, members, readRefs(in));
+    }
+
+    private static void writeRefs(List<String> refs, BinaryWriter out) {
+        out.writeVarint(refs.size());
+        for (String ref : refs) out.writeString(ref);
+    }
+
+    private static List<String> readRefs(BinaryReader in) {
+        int count = in.readVarint();
+        List<String> refs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) refs.add(in.readString());
+        return refs;
+    }
+}
@@ -0,0 +1,20 @@
+package statemachine;
+
+import codec.BinaryReader;
+import codec.BinaryWriter;
+import codec.CommandCodec;
+
+public class CounterCommandCodec implements CommandCodec<CounterCommand> {
+
+    public static final int TAG = 1;
+
+    @Override
+    public void writePayload(CounterCommand command, BinaryWriter out) {
+        out.writeSignedVarint(command.getValue());
+    }
+
+    @Override
+    public CounterCommand readCommand(String clientRef, int commandID, BinaryReader in) {
+        return new CounterCommand(clientRef, commandID, in.readSignedVarint());
+    }
+}
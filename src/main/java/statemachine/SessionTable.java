@@ -0,0 +1,64 @@
+package statemachine;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// highest applied command ID per client, so retries are skipped; idle sessions expire and their clients are refused
+public class SessionTable implements Serializable {
+
+    public SessionTable(){
+        this.sessions = new LinkedHashMap<>();
+        this.expiredClients = new HashSet<>();
+    }
+
+    private final LinkedHashMap<String, Session> sessions;
+
+    private final HashSet<String> expiredClients;
+
+    public record Session(int commandID, int lastIndex) implements Serializable {}
+
+    public Session get(String clientRef){
+        return this.sessions.get(clientRef);
+    }
+
+    public boolean isApplied(Command command){
+        Session session = this.sessions.get(command.getClientRef());
+        return session != null && command.getCommandID() <= session.commandID();
+    }
+
+    public boolean isExpired(String clientRef){
+        return this.expiredClients.contains(clientRef);
+    }
+
+    // a committed entry that is a retry of an applied command, or comes from an expired client, is not applied
+    public boolean isSkipped(Command command){
+        return isApplied(command) || isExpired(command.getClientRef());
+    }
+
+    // records a command applied at entryIndex and drops sessions with no update in the last timeoutEntries entries
+    public void record(Command command, int entryIndex, int timeoutEntries){
+        this.sessions.remove(command.getClientRef());
+        this.sessions.put(command.getClientRef(), new Session(command.getCommandID(), entryIndex));
+        Iterator<Map.Entry<String, Session>> oldest = this.sessions.entrySet().iterator();
+        while (oldest.hasNext()){
+            Map.Entry<String, Session> session = oldest.next();
+            if (session.getValue().lastIndex() > entryIndex - timeoutEntries) break;
+            this.expiredClients.add(session.getKey());
+            oldest.remove();
+        }
+    }
+
+    public int size(){
+        return this.sessions.size();
+    }
+
+    public SessionTable copy(){
+        SessionTable copy = new SessionTable();
+        copy.sessions.putAll(this.sessions);
+        copy.expiredClients.addAll(this.expiredClients);
+        return copy;
+    }
+}
@@ -0,0 +1,18 @@
+package statemachine;
+
+import java.io.Serializable;
+
+// configuration is the latest one at or before lastIncludedIndex, null while the group has never been reconfigured
+public record Snapshot(int lastIncludedIndex, int lastIncludedTerm, Serializable state, SessionTable sessions, ConfigurationCommand configuration) implements Serializable {
+    public Snapshot {
+        if (sessions == null) sessions = new SessionTable();
+    }
+
+    public Snapshot(int lastIncludedIndex, int lastIncludedTerm, Serializable state, SessionTable sessions){
+        this(lastIncludedIndex, lastIncludedTerm, state, sessions, null);
+    }
+
+    public Snapshot(int lastIncludedIndex, int lastIncludedTerm, Serializable state){
+        this(lastIncludedIndex, lastIncludedTerm, state, new SessionTable());
+    }
+}
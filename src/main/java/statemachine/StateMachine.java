@@ -1,5 +1,8 @@
 package statemachine;
 
+import codec.CommandCodecRegistry;
+
+import java.io.Serializable;
 import java.util.List;
 
 public interface StateMachine<stateType, commandType> {
@@ -14,4 +17,13 @@ public interface StateMachine<stateType, commandType> {
     public StateMachine<stateType, commandType> forkStateMachine();
 
     public boolean isStateValid();
+
+    // whether applying the command would leave the state valid, without applying it
+    public boolean canApply(commandType command);
+
+    public Serializable takeSnapshot();
+
+    public void installSnapshot(Serializable snapshot);
+
+    public void registerCommandCodecs(CommandCodecRegistry registry);
 }
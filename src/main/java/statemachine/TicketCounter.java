@@ -1,12 +1,15 @@
 package statemachine;
 
+import codec.CommandCodecRegistry;
+
+import java.io.Serializable;
 import java.util.List;
 
 public class TicketCounter implements StateMachine<Integer, CounterCommand> {
 
-    private Integer count;
+    private int count;
 
-    private Integer initialState;
+    private int initialState;
 
     public TicketCounter(int count){
         this.count = count;
@@ -44,4 +47,24 @@ public class TicketCounter implements StateMachine<Integer, CounterCommand> {
         if (this.count >= 0) return true;
         else return false;
     }
+
+    @Override
+    public boolean canApply(CounterCommand command){
+        return this.count - command.getValue() >= 0;
+    }
+
+    @Override
+    public Serializable takeSnapshot(){
+        return this.count;
+    }
+
+    @Override
+    public void installSnapshot(Serializable snapshot){
+        this.count = (Integer) snapshot;
+    }
+
+    @Override
+    public void registerCommandCodecs(CommandCodecRegistry registry){
+        registry.register(CounterCommandCodec.TAG, CounterCommand.class, new CounterCommandCodec());
+    }
 }
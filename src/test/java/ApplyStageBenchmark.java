@@ -0,0 +1,113 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import datapersistence.DurabilityMode;
+import datapersistence.SegmentedLogWriter;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import statemachine.CounterCommand;
+import statemachine.Entry;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * How long a follower takes to answer a vote request while its state machine is slow to apply. Every round the
+ * leader sends a batch of entries that commits the previous batch, then a candidate with a stale term asks for a
+ * vote. The vote response is delayed by whatever the follower's event loop is doing, so with the state machine
+ * applied inside the Raft actor it waits for the whole committed batch. The committed state machine here spends
+ * a fixed time per command waiting, as if on a write to an external store; its forks, used for the tentative state, do not.
+ *
+ * Run with: java -cp <test classpath> ApplyStageBenchmark [rounds] [apply micros per command]
+ */
+public class ApplyStageBenchmark {
+
+    private static final int ENTRIES_PER_ROUND = 64;
+
+    private static final int ROUND_MILLIS = 20;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int applyMicros = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            TestProbe<RaftMessage> leader = testKit.createTestProbe();
+            TestProbe<RaftMessage> candidate = testKit.createTestProbe();
+            ActorRef<RaftMessage> follower = testKit.spawn(Follower.create(new SegmentedLogWriter(DurabilityMode.PAGE_CACHE), new SlowTicketCounter(applyMicros), new FailFlag()));
+
+            long[] voteMicros = new long[rounds];
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++){
+                long roundStart = System.nanoTime();
+                int prevLogIndex = round * ENTRIES_PER_ROUND - 1;
+                follower.tell(new RaftMessage.AppendEntries(1, leader.ref(), prevLogIndex, prevLogIndex < 0 ? -1 : 1, getEntries(prevLogIndex + 1), prevLogIndex));
+                follower.tell(new RaftMessage.RequestVote(0, candidate.ref(), -1, -1, false));
+                candidate.expectMessageClass(RaftMessage.RequestVoteResponse.class, Duration.ofSeconds(60));
+                voteMicros[round] = (System.nanoTime() - roundStart) / 1_000;
+                leader.expectMessageClass(RaftMessage.AppendEntriesResponse.class, Duration.ofSeconds(60));
+                LockSupport.parkNanos(roundStart + ROUND_MILLIS * 1_000_000L - System.nanoTime());
+            }
+            int lastIndex = rounds * ENTRIES_PER_ROUND - 1;
+            follower.tell(new RaftMessage.AppendEntries(1, leader.ref(), lastIndex, 1, new ArrayList<>(), lastIndex));
+            follower.tell(new RaftMessage.TestMessage.GetStateMachineState(leader.ref()));
+            while (!(leader.receiveMessage(Duration.ofSeconds(60)) instanceof RaftMessage.TestMessage.GetStateMachineStateResponse<?>)) {}
+            double seconds = (System.nanoTime() - start) / 1e9;
+            follower.tell(new RaftMessage.ShutDown(null));
+
+            Arrays.sort(voteMicros);
+            System.out.printf("%d rounds of %d entries, %d us to apply each command%n", rounds, ENTRIES_PER_ROUND, applyMicros);
+            System.out.printf("vote response us  p50 %d  p90 %d  p99 %d  max %d%n",
+                    voteMicros[rounds / 2], voteMicros[rounds * 9 / 10], voteMicros[rounds * 99 / 100], voteMicros[rounds - 1]);
+            System.out.printf("all entries applied after %.2f s%n", seconds);
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    private static class SlowTicketCounter extends TicketCounter {
+
+        SlowTicketCounter(int applyMicros){
+            super(Integer.MAX_VALUE);
+            this.applyNanos = applyMicros * 1_000L;
+        }
+
+        private final long applyNanos;
+
+        @Override
+        public void apply(CounterCommand command) {
+            LockSupport.parkNanos(this.applyNanos);
+            super.apply(command);
+        }
+
+        @Override
+        public void applyAll(List<CounterCommand> commands) {
+            LockSupport.parkNanos(this.applyNanos * commands.size());
+            super.applyAll(commands);
+        }
+    }
+
+    private static List<Entry> getEntries(int firstCommandID) {
+        List<Entry> entries = new ArrayList<>(ENTRIES_PER_ROUND);
+        for (int i = 0; i < ENTRIES_PER_ROUND; i++){
+            entries.add(new Entry(1, new CounterCommand("client", firstCommandID + i, 1)));
+        }
+        return entries;
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
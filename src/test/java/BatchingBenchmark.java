@@ -0,0 +1,212 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
+import datapersistence.SegmentedLogWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.RaftConfig;
+import statemachine.CounterCommand;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Throughput and update latency of a five server cluster for different leader batching settings. Every client
+ * runs the Orchestrator's request pattern (ten updates, an unstable read and a committed read per round) in a
+ * closed loop against one server, so a batch can hold at most one update per client. Each setting gets a fresh
+ * cluster, which is given time to elect a leader before the clients start.
+ *
+ * Run with: java -cp <test classpath> BatchingBenchmark [clients] [rounds per client]
+ */
+public class BatchingBenchmark {
+
+    private static final int SERVERS = 5;
+
+    private static final int UPDATES_PER_ROUND = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 25;
+        int[][] settings = {{0, 1}, {1, 128}, {2, 8}, {2, 128}, {5, 128}, {10, 128}};
+
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            System.out.printf("%-10s %-10s %14s %16s %16s%n", "window ms", "max batch", "updates/s", "mean latency ms", "p99 latency ms");
+            for (int[] setting : settings){
+                RaftConfig config = new RaftConfig();
+                config.batchWindowMillis = setting[0];
+                config.maxBatchEntries = setting[1];
+                run(testKit, config, clients, rounds);
+            }
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    private static void run(ActorTestKit testKit, RaftConfig config, int clients, int rounds) throws InterruptedException {
+        List<ActorRef<RaftMessage>> servers = new ArrayList<>();
+        for (int i = 0; i < SERVERS; i++){
+            servers.add(testKit.spawn(Follower.create(new SegmentedLogWriter(), new TicketCounter(clients * rounds * UPDATES_PER_ROUND + 1), new FailFlag(), config)));
+        }
+        for (ActorRef<RaftMessage> server : servers){
+            List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>(servers);
+            groupRefs.remove(server);
+            server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+            server.tell(new RaftMessage.Start());
+        }
+        Thread.sleep(1000);
+
+        CountDownLatch finished = new CountDownLatch(clients);
+        List<List<Long>> latencies = new ArrayList<>();
+        List<ActorRef<ClientMessage>> clientRefs = new ArrayList<>();
+        for (int i = 0; i < clients; i++){
+            List<Long> clientLatencies = Collections.synchronizedList(new ArrayList<>());
+            latencies.add(clientLatencies);
+            clientRefs.add(testKit.spawn(BenchmarkClient.create(servers.get(i % SERVERS), rounds, clientLatencies, finished)));
+        }
+        long start = System.nanoTime();
+        for (ActorRef<ClientMessage> client : clientRefs) client.tell(new ClientMessage.Start());
+        if (!finished.await(5, TimeUnit.MINUTES)) throw new IllegalStateException("clients did not finish");
+        long elapsed = System.nanoTime() - start;
+
+        List<Long> all = new ArrayList<>();
+        for (List<Long> clientLatencies : latencies) all.addAll(clientLatencies);
+        Collections.sort(all);
+        double mean = all.stream().mapToLong(Long::longValue).average().orElse(0) / 1_000_000;
+        double p99 = all.get((int) (all.size() * 0.99)) / 1_000_000.0;
+        System.out.printf("%-10d %-10d %14.0f %16.2f %16.2f%n", config.batchWindowMillis, config.maxBatchEntries,
+                all.size() / (elapsed / 1_000_000_000.0), mean, p99);
+
+        for (ActorRef<ClientMessage> client : clientRefs) testKit.stop(client);
+        for (ActorRef<RaftMessage> server : servers) testKit.stop(server);
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+
+    // closed loop client that resends its current request after a time out, like TicketClient
+    private static class BenchmarkClient extends AbstractBehavior<ClientMessage> {
+
+        static Behavior<ClientMessage> create(ActorRef<RaftMessage> server, int rounds, List<Long> latencies, CountDownLatch finished){
+            return Behaviors.setup(context -> Behaviors.withTimers(timers -> new BenchmarkClient(context, timers, server, rounds, latencies, finished)));
+        }
+
+        private BenchmarkClient(ActorContext<ClientMessage> context,
+                                TimerScheduler<ClientMessage> timers,
+                                ActorRef<RaftMessage> server,
+                                int rounds,
+                                List<Long> latencies,
+                                CountDownLatch finished){
+            super(context);
+            this.timer = timers;
+            this.server = server;
+            this.latencies = latencies;
+            this.finished = finished;
+            this.requests = new ArrayList<>();
+            String clientRef = ActorRefResolver.get(context.getSystem()).toSerializationFormat(context.getSelf());
+            int commandID = 0;
+            for (int round = 0; round < rounds; round++){
+                for (int i = 0; i < UPDATES_PER_ROUND; i++){
+                    this.requests.add(new RaftMessage.ClientUpdateRequest(context.getSelf(), new CounterCommand(clientRef, commandID++, 1)));
+                }
+                this.requests.add(new RaftMessage.ClientUnstableReadRequest(context.getSelf()));
+                this.requests.add(new RaftMessage.ClientCommittedReadRequest(context.getSelf()));
+            }
+        }
+
+        private final Object REQUEST_TIMER_KEY = new Object();
+
+        private final TimerScheduler<ClientMessage> timer;
+
+        private final ActorRef<RaftMessage> server;
+
+        private final List<Long> latencies;
+
+        private final CountDownLatch finished;
+
+        private final List<RaftMessage> requests;
+
+        private int nextRequest;
+
+        private long sentAt;
+
+        @Override
+        public Receive<ClientMessage> createReceive() {
+            return newReceiveBuilder()
+                    .onMessage(ClientMessage.class, this::dispatch)
+                    .build();
+        }
+
+        private Behavior<ClientMessage> dispatch(ClientMessage message){
+            switch (message) {
+                case ClientMessage.Start msg:
+                    sendRequest();
+                    break;
+                case ClientMessage.ClientUpdateResponse msg:
+                    if (msg.commandID() != getCurrentCommandID()) break;
+                    this.latencies.add(System.nanoTime() - this.sentAt);
+                    sendNextRequest();
+                    break;
+                case ClientMessage.ClientUnstableReadResponse msg:
+                    if (isCurrentRequestRead()) sendNextRequest();
+                    break;
+                case ClientMessage.ClientCommittedReadResponse msg:
+                    if (isCurrentRequestRead()) sendNextRequest();
+                    break;
+                case ClientMessage.TimeOut msg:
+                    sendRequest();
+                    break;
+                default:
+                    break;
+            }
+            return this;
+        }
+
+        private void sendNextRequest() {
+            this.nextRequest++;
+            if (this.nextRequest < this.requests.size()) sendRequest();
+            else {
+                this.timer.cancel(REQUEST_TIMER_KEY);
+                this.finished.countDown();
+            }
+        }
+
+        private void sendRequest() {
+            this.sentAt = System.nanoTime();
+            this.server.tell(this.requests.get(this.nextRequest));
+            this.timer.startSingleTimer(REQUEST_TIMER_KEY, new ClientMessage.TimeOut(), Duration.ofMillis(500));
+        }
+
+        private boolean isCurrentRequestRead() {
+            return this.nextRequest < this.requests.size() && !(this.requests.get(this.nextRequest) instanceof RaftMessage.ClientUpdateRequest);
+        }
+
+        private int getCurrentCommandID() {
+            if (this.nextRequest >= this.requests.size()) return -1;
+            if (this.requests.get(this.nextRequest) instanceof RaftMessage.ClientUpdateRequest request) return request.command().getCommandID();
+            return -1;
+        }
+    }
+}
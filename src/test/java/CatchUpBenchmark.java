@@ -0,0 +1,126 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import datapersistence.SegmentedLogWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.Leader;
+import raftstates.RaftConfig;
+import statemachine.CounterCommand;
+import statemachine.Entry;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Counts the AppendEntries round trips and the time a leader needs to bring a lagging or diverged follower
+ * back in line. A real Leader and Follower are connected through two probes that relay every message, so each
+ * rejection can be counted. The last column is the round trips the old one-entry-at-a-time backtracking needed.
+ *
+ * Run with: java -cp <test classpath> CatchUpBenchmark [entries behind]
+ */
+public class CatchUpBenchmark {
+
+    private static final int COMMON_PREFIX = 1_000;
+
+    public static void main(String[] args) {
+        int behind = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            System.out.printf("%-36s %8s %10s %16s%n", "scenario", "rounds", "ms", "rounds before");
+            run(testKit, "follower missing entries", 0, 0, behind);
+            run(testKit, "diverged by one stale term", 1, behind, behind);
+            run(testKit, "diverged by 50 stale terms", 50, behind / 50, behind);
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    /*
+     * Both logs share COMMON_PREFIX entries of term 1. The follower then holds staleTerms runs of staleRunLength
+     * entries, each in its own term, and the leader holds leaderEntries entries of a newer term.
+     */
+    private static void run(ActorTestKit testKit, String scenario, int staleTerms, int staleRunLength, int leaderEntries) {
+        ActorRefResolver refResolver = ActorRefResolver.get(testKit.system());
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        String clientRef = refResolver.toSerializationFormat(client.ref());
+        TestProbe<RaftMessage> toFollower = testKit.createTestProbe();
+        TestProbe<RaftMessage> toLeader = testKit.createTestProbe();
+        RaftConfig config = new RaftConfig();
+        config.snapshotInterval = Integer.MAX_VALUE;
+        config.batchWindowMillis = 0;
+
+        int commandID = 0;
+        ActorRef<RaftMessage> follower = testKit.spawn(Follower.create(new SegmentedLogWriter(), new TicketCounter(Integer.MAX_VALUE), new FailFlag(), config));
+        follower.tell(new RaftMessage.AppendEntries(1, toLeader.ref(), -1, -1, getEntries(clientRef, 1, commandID, COMMON_PREFIX), -1));
+        commandID += COMMON_PREFIX;
+        for (int term = 2; term < 2 + staleTerms; term++){
+            int prevLogIndex = COMMON_PREFIX - 1 + (term - 2) * staleRunLength;
+            follower.tell(new RaftMessage.AppendEntries(term, toLeader.ref(), prevLogIndex, term - 1, getEntries(clientRef, term, commandID, staleRunLength), -1));
+            commandID += staleRunLength;
+        }
+        for (int i = 0; i < 1 + staleTerms; i++) toLeader.expectMessageClass(RaftMessage.AppendEntriesResponse.class, Duration.ofSeconds(30));
+
+        int leaderTerm = 2 + staleTerms;
+        List<Entry> leaderLog = getEntries(clientRef, 1, 0, COMMON_PREFIX);
+        leaderLog.addAll(getEntries(clientRef, leaderTerm, commandID, leaderEntries));
+        commandID += leaderEntries;
+        ActorRef<RaftMessage> leader = testKit.spawn(Leader.create(new SegmentedLogWriter(), new TicketCounter(Integer.MAX_VALUE), new Object(), new FailFlag(), config, leaderTerm, List.of(toFollower.ref()), -1, -1));
+        toFollower.expectMessageClass(RaftMessage.AppendEntries.class, Duration.ofSeconds(30));     // the leader's no-op, replaced along with the rest of its log
+        leader.tell(new RaftMessage.TestMessage.SaveEntries(leaderLog));
+        int lastIndex = leaderLog.size();
+
+        long start = System.nanoTime();
+        leader.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, commandID, 1)));
+        int rounds = 0;
+        while (true){
+            RaftMessage.AppendEntries request = relayNextAppendEntries(toFollower, follower, toLeader.ref());
+            if (request == null) continue;
+            RaftMessage.AppendEntriesResponse response = toLeader.expectMessageClass(RaftMessage.AppendEntriesResponse.class, Duration.ofSeconds(30));
+            rounds++;
+            leader.tell(new RaftMessage.AppendEntriesResponse(toFollower.ref(), response.term(), response.success(), response.matchIndex(),
+                    response.conflictTerm(), response.conflictIndex()));
+            if (response.success() && response.matchIndex() == lastIndex) break;
+        }
+        double millis = (System.nanoTime() - start) / 1_000_000.0;
+        int followerLength = COMMON_PREFIX + staleTerms * staleRunLength;
+        int roundsBefore = Math.max(lastIndex, followerLength) - COMMON_PREFIX + 1;
+        System.out.printf("%-36s %8d %10.1f %16d%n", scenario, rounds, millis, roundsBefore);
+
+        testKit.stop(leader);
+        testKit.stop(follower);
+    }
+
+    // forwards one message from the leader to the follower, redirecting the reply; heartbeats are not counted
+    private static RaftMessage.AppendEntries relayNextAppendEntries(TestProbe<RaftMessage> toFollower, ActorRef<RaftMessage> follower, ActorRef<RaftMessage> replyTo) {
+        RaftMessage message = toFollower.receiveMessage(Duration.ofSeconds(30));
+        if (!(message instanceof RaftMessage.AppendEntries msg) || (msg.prevLogIndex() == -1 && msg.entries().isEmpty())) return null;
+        follower.tell(new RaftMessage.AppendEntries(msg.term(), replyTo, msg.prevLogIndex(), msg.prevLogTerm(), msg.entries(), msg.leaderCommit()));
+        return msg;
+    }
+
+    private static List<Entry> getEntries(String clientRef, int term, int firstCommandID, int count) {
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            entries.add(new Entry(term, new CounterCommand(clientRef, firstCommandID + i, 1)));
+        }
+        return entries;
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
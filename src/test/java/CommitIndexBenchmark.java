@@ -0,0 +1,101 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Nanoseconds and bytes allocated per AppendEntriesResponse for the leader's replication bookkeeping, comparing
+ * the old HashMap<follower, Integer> match indexes with a replica count scan per candidate index against the
+ * int array and majority order statistic the Leader now uses. Each simulated response advances one follower's
+ * match index by one and recomputes the commit index, for clusters of 3 to 9 voters.
+ *
+ * Run with: java -cp <test classpath> CommitIndexBenchmark [responses]
+ */
+public class CommitIndexBenchmark {
+
+    public static void main(String[] args) {
+        int responses = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        System.out.printf("%-8s %-24s %12s %14s%n", "voters", "bookkeeping", "ns/response", "bytes/response");
+        for (int voters : new int[]{3, 5, 7, 9}){
+            for (int round = 0; round < 3; round++){
+                boolean print = round == 2;
+                report("HashMap + replica scan", voters, responses, measureHashMap(voters, responses), print);
+                report("int[] + order statistic", voters, responses, measureArrays(voters, responses), print);
+            }
+        }
+    }
+
+    private static long[] measureHashMap(int voters, int responses) {
+        List<Object> followers = new ArrayList<>();
+        HashMap<Object, Integer> matchIndex = new HashMap<>();
+        for (int i = 0; i < voters - 1; i++){
+            Object follower = new Object();
+            followers.add(follower);
+            matchIndex.put(follower, -1);
+        }
+        int commitIndex = -1;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < responses; i++){
+            Object follower = followers.get(i % followers.size());
+            matchIndex.put(follower, matchIndex.get(follower) + 1);
+            for (int match : matchIndex.values()){
+                if (match > commitIndex && countReplicas(matchIndex, match) >= (voters - 1) / 2) commitIndex = match;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        return new long[]{nanos, allocatedBytes() - allocated, commitIndex};
+    }
+
+    private static int countReplicas(HashMap<Object, Integer> matchIndex, int entryIndex) {
+        int replicas = 0;
+        for (Integer match : matchIndex.values()){
+            if (match >= entryIndex) replicas++;
+        }
+        return replicas;
+    }
+
+    private static long[] measureArrays(int voters, int responses) {
+        HashMap<Object, Integer> slots = new HashMap<>();
+        List<Object> followers = new ArrayList<>();
+        int[] matchIndex = new int[voters - 1];
+        int[] sorted = new int[voters];
+        for (int i = 0; i < voters - 1; i++){
+            Object follower = new Object();
+            followers.add(follower);
+            slots.put(follower, i);
+            matchIndex[i] = -1;
+        }
+        int commitIndex = -1;
+        int leaderIndex = Integer.MAX_VALUE;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < responses; i++){
+            int slot = slots.get(followers.get(i % followers.size()));
+            matchIndex[slot]++;
+            for (int j = 0; j < matchIndex.length; j++) sorted[j] = matchIndex[j];
+            sorted[voters - 1] = leaderIndex;
+            for (int j = 1; j < voters; j++){
+                int value = sorted[j];
+                int k = j - 1;
+                while (k >= 0 && sorted[k] < value){
+                    sorted[k + 1] = sorted[k];
+                    k--;
+                }
+                sorted[k + 1] = value;
+            }
+            if (sorted[voters / 2] > commitIndex) commitIndex = sorted[voters / 2];
+        }
+        long nanos = System.nanoTime() - start;
+        return new long[]{nanos, allocatedBytes() - allocated, commitIndex};
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void report(String name, int voters, int responses, long[] result, boolean print) {
+        if (!print) return;
+        System.out.printf("%-8d %-24s %12.1f %14.2f%n", voters, name, result[0] / (double) responses, result[1] / (double) responses);
+    }
+}
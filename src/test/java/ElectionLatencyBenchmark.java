@@ -0,0 +1,134 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import codec.CommandCodecRegistry;
+import datapersistence.SegmentedLogWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.RaftConfig;
+import statemachine.ConfigurationCommand;
+import statemachine.ConfigurationCommandCodec;
+import statemachine.CounterCommand;
+import statemachine.Entry;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Measures election-to-first-commit latency for a server holding logs of different sizes. Each round times
+ * out a follower, grants it the pre-vote and vote from one of two probe peers, sends a client update and acknowledges the
+ * replicated entry, then steps the new leader down again with a heartbeat from a peer. The time from the
+ * timeout to the client's response covers the Follower -> Candidate -> Leader transitions and the first commit.
+ * For reference it also reports how long one reload of the persisted state takes at each size, which is what
+ * every role transition paid before state was handed from one role to the next.
+ *
+ * Run with: java -cp <test classpath> ElectionLatencyBenchmark [rounds] [sizes...]
+ */
+public class ElectionLatencyBenchmark {
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) sizes.add(Integer.parseInt(args[i]));
+        if (sizes.isEmpty()) sizes = List.of(1_000, 10_000, 100_000, 1_000_000);
+
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            System.out.printf("%-12s %20s %20s%n", "log entries", "election->commit ms", "state reload ms");
+            for (int size : sizes){
+                run(testKit, size, rounds);
+            }
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    private static void run(ActorTestKit testKit, int size, int rounds) {
+        ActorRefResolver refResolver = ActorRefResolver.get(testKit.system());
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        String clientRef = refResolver.toSerializationFormat(client.ref());
+        TestProbe<RaftMessage> peer = testKit.createTestProbe();
+        TestProbe<RaftMessage> otherPeer = testKit.createTestProbe();
+        List<ActorRef<RaftMessage>> groupRefs = List.of(peer.ref(), otherPeer.ref());
+
+        RaftConfig config = new RaftConfig();
+        config.snapshotInterval = Integer.MAX_VALUE;    // keep the whole log in memory
+        ActorRef<RaftMessage> server = testKit.spawn(Follower.create(new SegmentedLogWriter(), new TicketCounter(size + rounds + 1), new FailFlag(), config));
+        server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+        server.tell(new RaftMessage.AppendEntries(1, peer.ref(), -1, -1, getEntries(clientRef, size), size - 1));
+        expectMessage(peer, RaftMessage.AppendEntriesResponse.class);
+
+        long totalNanos = 0;
+        int nextIndex = size;
+        for (int round = 0; round < rounds; round++){
+            long start = System.nanoTime();
+            server.tell(new RaftMessage.TimeOut());
+            int preVoteTerm = expectMessage(peer, RaftMessage.PreVote.class).term();
+            server.tell(new RaftMessage.PreVoteResponse(preVoteTerm - 1, true));
+            int term = expectMessage(peer, RaftMessage.RequestVote.class).term();
+            server.tell(new RaftMessage.RequestVoteResponse(term, true));
+            server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, size + round, 1)));
+            while (expectMessage(peer, RaftMessage.AppendEntries.class).entries().isEmpty());
+            server.tell(new RaftMessage.AppendEntriesResponse(peer.ref(), term, true, nextIndex));
+            client.expectMessage(Duration.ofSeconds(30), new ClientMessage.ClientUpdateResponse(true, size + round));
+            totalNanos += System.nanoTime() - start;
+            nextIndex++;
+            server.tell(new RaftMessage.AppendEntries(term, peer.ref(), -1, -1, new ArrayList<>(), -1));
+        }
+        testKit.stop(server);
+
+        double reloadMillis = timeStateReload(refResolver, server.path().uid());
+        System.out.printf("%-12d %20.2f %20.2f%n", size, totalNanos / (double) rounds / 1_000_000, reloadMillis);
+        deleteDirectory(new File("./data/" + server.path().uid() + "/"));
+    }
+
+    // the reads every RaftServer constructor made before the in-memory state was handed over
+    private static double timeStateReload(ActorRefResolver refResolver, int serverID) {
+        long start = System.nanoTime();
+        SegmentedLogWriter dataManager = new SegmentedLogWriter();
+        dataManager.setActorRefResolver(refResolver);
+        dataManager.setServerID(serverID);
+        CommandCodecRegistry codecs = new CommandCodecRegistry();
+        codecs.register(ConfigurationCommandCodec.TAG, ConfigurationCommand.class, new ConfigurationCommandCodec());
+        new TicketCounter(0).registerCommandCodecs(codecs);
+        dataManager.setCommandCodecs(codecs);
+        dataManager.getCurrentTerm();
+        dataManager.getVotedFor();
+        dataManager.getSnapshot();
+        dataManager.getLogStartIndex();
+        dataManager.getLog();
+        dataManager.getGroupRefs();
+        return (System.nanoTime() - start) / 1_000_000.0;
+    }
+
+    private static <T extends RaftMessage> T expectMessage(TestProbe<RaftMessage> probe, Class<T> messageClass) {
+        while (true){
+            RaftMessage message = probe.receiveMessage(Duration.ofSeconds(30));
+            if (messageClass.isInstance(message)) return messageClass.cast(message);
+        }
+    }
+
+    private static List<Entry> getEntries(String clientRef, int count) {
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            entries.add(new Entry(1, new CounterCommand(clientRef, i, 1)));
+        }
+        return entries;
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,95 @@
+import codec.ClientIdTable;
+import codec.CommandCodecRegistry;
+import codec.EntryCodec;
+import statemachine.ConfigurationCommand;
+import statemachine.ConfigurationCommandCodec;
+import statemachine.CounterCommand;
+import statemachine.Entry;
+import statemachine.TicketCounter;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Compares bytes and nanoseconds per entry for EntryCodec against the ObjectOutputStream paths, both one
+ * stream per entry and one stream for the whole log as ServerFileWriter does.
+ *
+ * Run with: java -cp <test classpath> EntryCodecBenchmark [entries]
+ */
+public class EntryCodecBenchmark {
+
+    private static final String CLIENT_REF = "akka://TICKET-APP-DEMO/user/CLIENT_0#-1289347518";
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) entries.add(new Entry(3, new CounterCommand(CLIENT_REF, i, 1)));
+        CommandCodecRegistry registry = new CommandCodecRegistry();
+        registry.register(ConfigurationCommandCodec.TAG, ConfigurationCommand.class, new ConfigurationCommandCodec());
+        new TicketCounter(0).registerCommandCodecs(registry);
+
+        System.out.printf("%-30s %12s %12s %12s%n", "format", "bytes/entry", "encode ns", "decode ns");
+        for (int round = 0; round < 3; round++){
+            boolean print = round == 2;
+            measureCodec(registry, entries, print);
+            measureObjectStreamPerEntry(entries, print);
+            measureObjectStreamWholeLog(entries, print);
+        }
+    }
+
+    private static void measureCodec(CommandCodecRegistry registry, List<Entry> entries, boolean print) {
+        EntryCodec codec = new EntryCodec(registry, new ClientIdTable());
+        List<byte[]> encoded = new ArrayList<>(entries.size());
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (Entry entry : entries){
+            byte[] record = codec.encode(entry);
+            bytes += record.length;
+            encoded.add(record);
+        }
+        long encodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (byte[] record : encoded) codec.decode(record);
+        long decodeNanos = System.nanoTime() - start;
+        if (print) report("EntryCodec", entries.size(), bytes, encodeNanos, decodeNanos);
+    }
+
+    private static void measureObjectStreamPerEntry(List<Entry> entries, boolean print) throws Exception {
+        List<byte[]> encoded = new ArrayList<>(entries.size());
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (Entry entry : entries){
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(entry);
+            oos.close();
+            bytes += out.size();
+            encoded.add(out.toByteArray());
+        }
+        long encodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (byte[] record : encoded){
+            new ObjectInputStream(new ByteArrayInputStream(record)).readObject();
+        }
+        long decodeNanos = System.nanoTime() - start;
+        if (print) report("ObjectOutputStream per entry", entries.size(), bytes, encodeNanos, decodeNanos);
+    }
+
+    private static void measureObjectStreamWholeLog(List<Entry> entries, boolean print) throws Exception {
+        long start = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(new ArrayList<>(entries));
+        oos.close();
+        long encodeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        new ObjectInputStream(new ByteArrayInputStream(out.toByteArray())).readObject();
+        long decodeNanos = System.nanoTime() - start;
+        if (print) report("ObjectOutputStream whole log", entries.size(), out.size(), encodeNanos, decodeNanos);
+    }
+
+    private static void report(String name, int count, long bytes, long encodeNanos, long decodeNanos) {
+        System.out.printf("%-30s %12.1f %12.1f %12.1f%n", name, bytes / (double) count, encodeNanos / (double) count, decodeNanos / (double) count);
+    }
+}
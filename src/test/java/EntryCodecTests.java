@@ -0,0 +1,96 @@
+import codec.BinaryReader;
+import codec.BinaryWriter;
+import codec.ClientIdTable;
+import codec.CommandCodecRegistry;
+import codec.EntryCodec;
+import codec.EntrySizer;
+import org.junit.*;
+import statemachine.ConfigurationCommand;
+import statemachine.ConfigurationCommandCodec;
+import statemachine.CounterCommand;
+import statemachine.Entry;
+import statemachine.TicketCounter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EntryCodecTests {
+
+    CommandCodecRegistry registry;
+
+    @Before
+    public void setUp(){
+        registry = new CommandCodecRegistry();
+        new TicketCounter(0).registerCommandCodecs(registry);
+    }
+
+    @Test
+    public void counterEntryRoundTripsThroughCodec(){
+        EntryCodec codec = new EntryCodec(registry, new ClientIdTable());
+        Entry decoded = codec.decode(codec.encode(new Entry(7, new CounterCommand("akka://app/user/CLIENT_0", 300, 2))));
+        CounterCommand command = (CounterCommand) decoded.command();
+        assertEquals(7, decoded.term());
+        assertEquals("akka://app/user/CLIENT_0", command.getClientRef());
+        assertEquals(300, command.getCommandID());
+        assertEquals(2, command.getValue());
+    }
+
+    @Test
+    public void configurationEntryRoundTripsWithoutAStateMachineCodec(){
+        CommandCodecRegistry registry = new CommandCodecRegistry();
+        registry.register(ConfigurationCommandCodec.TAG, ConfigurationCommand.class, new ConfigurationCommandCodec());
+        EntryCodec codec = new EntryCodec(registry, new ClientIdTable());
+        List<String> members = List.of("akka://app/user/SERVER_0", "akka://app/user/SERVER_1");
+        List<String> learners = List.of("akka://app/user/SERVER_2");
+        Entry decoded = codec.decode(codec.encode(new Entry(3, new ConfigurationCommand("akka://app/user/SERVER_0", 12, members, learners))));
+        ConfigurationCommand command = (ConfigurationCommand) decoded.command();
+        assertEquals(3, decoded.term());
+        assertEquals(12, command.getCommandID());
+        assertEquals(members, command.getMembers());
+        assertEquals(learners, command.getLearners());
+    }
+
+    @Test
+    public void repeatedClientRefIsInternedAfterFirstUse(){
+        ClientIdTable clients = new ClientIdTable();
+        EntryCodec codec = new EntryCodec(registry, clients);
+        String clientRef = "akka://app/user/CLIENT_0#123456789";
+        codec.encode(new Entry(1, new CounterCommand(clientRef, 1, 1)));
+        byte[] second = codec.encode(new Entry(1, new CounterCommand(clientRef, 2, 1)));
+        assertEquals(1, clients.size());
+        assertTrue(second.length < 8);
+    }
+
+    @Test
+    public void encodedBatchCarriesItsOwnClientTable(){
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 10; i++) entries.add(new Entry(i / 4, new CounterCommand("client-" + (i % 2), i, 1)));
+        List<Entry> decoded = EntryCodec.decodeEntries(registry, EntryCodec.encodeEntries(registry, entries));
+        assertEquals(entries.size(), decoded.size());
+        for (int i = 0; i < entries.size(); i++){
+            assertEquals(entries.get(i).term(), decoded.get(i).term());
+            assertEquals(entries.get(i).command().getClientRef(), decoded.get(i).command().getClientRef());
+            assertEquals(entries.get(i).command().getCommandID(), decoded.get(i).command().getCommandID());
+        }
+    }
+
+    @Test
+    public void signedVarintsRoundTrip(){
+        BinaryWriter out = new BinaryWriter(1);
+        int[] values = {0, 1, -1, 63, -64, 300, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values) out.writeSignedVarint(value);
+        BinaryReader in = new BinaryReader(out.toByteArray());
+        for (int value : values) assertEquals(value, in.readSignedVarint());
+    }
+
+    @Test
+    public void sizerMatchesTheEncodingOfAnEntryWithASmallClientID(){
+        EntryCodec codec = new EntryCodec(registry, new ClientIdTable());
+        EntrySizer sizer = new EntrySizer(registry);
+        Entry entry = new Entry(4, new CounterCommand("akka://app/user/CLIENT_0#123456789", 70000, 3));
+        assertEquals(codec.encode(entry).length, sizer.getEncodedSize(entry));
+    }
+}
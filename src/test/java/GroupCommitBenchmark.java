@@ -0,0 +1,87 @@
+import codec.CommandCodecRegistry;
+import datapersistence.DurabilityMode;
+import datapersistence.SegmentedLogWriter;
+import datapersistence.ServerDataManager;
+import datapersistence.ServerFileWriter;
+import statemachine.ConfigurationCommand;
+import statemachine.ConfigurationCommandCodec;
+import statemachine.CounterCommand;
+import statemachine.Entry;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Measures durable commits per second on a leader's local log with the given number of clients, each of
+ * which sends its next update as soon as the previous one is durable. One thread plays the leader actor:
+ * it appends an entry and requests a sync, and completed syncs hand the client back to it.
+ *
+ * Run with: java -cp <test classpath> GroupCommitBenchmark [clients] [seconds]
+ */
+public class GroupCommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        System.out.printf("%-32s %12s%n", "backend", "commits/s");
+        report("ServerFileWriter (rewrite log)", new ServerFileWriter(), clients, seconds, false);
+        report("Segmented, fsync per entry", new SegmentedLogWriter(DurabilityMode.FSYNC_PER_BATCH), clients, seconds, true);
+        for (DurabilityMode mode : DurabilityMode.values()){
+            report("Segmented, " + mode, new SegmentedLogWriter(mode), clients, seconds, false);
+        }
+    }
+
+    private static int nextServerID = 1_000_000;
+
+    private static void report(String name, ServerDataManager dataManager, int clients, int seconds, boolean syncEachEntry) throws InterruptedException {
+        int serverID = nextServerID++;
+        dataManager.setServerID(serverID);
+        CommandCodecRegistry codecs = new CommandCodecRegistry();
+        codecs.register(ConfigurationCommandCodec.TAG, ConfigurationCommand.class, new ConfigurationCommandCodec());
+        new TicketCounter(0).registerCommandCodecs(codecs);
+        dataManager.setCommandCodecs(codecs);
+        double commitsPerSecond = run(dataManager, clients, seconds, syncEachEntry);
+        System.out.printf("%-32s %12.0f%n", name, commitsPerSecond);
+        dataManager.close();
+        deleteDirectory(new File("./data/" + serverID + "/"));
+    }
+
+    private static double run(ServerDataManager dataManager, int clients, int seconds, boolean syncEachEntry) throws InterruptedException {
+        LinkedBlockingQueue<Integer> readyClients = new LinkedBlockingQueue<>();
+        for (int client = 0; client < clients; client++) readyClients.add(client);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        AtomicInteger durableCommits = new AtomicInteger();
+        int nextIndex = 0;
+        while (System.nanoTime() < deadline){
+            Integer client = readyClients.poll(10, TimeUnit.MILLISECONDS);
+            if (client == null) continue;
+            dataManager.appendToLog(nextIndex, List.of(new Entry(1, new CounterCommand("client-" + client, nextIndex, 1))));
+            nextIndex++;
+            if (syncEachEntry){
+                dataManager.syncLog();
+                durableCommits.incrementAndGet();
+                readyClients.add(client);
+            } else {
+                dataManager.syncLogAsync(() -> {
+                    durableCommits.incrementAndGet();
+                    readyClients.add(client);
+                });
+            }
+        }
+        return durableCommits.get() / (double) seconds;
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,201 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import datapersistence.DurabilityMode;
+import datapersistence.SegmentedLogWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.RaftConfig;
+import statemachine.CounterCommand;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * How long a three server group accepts no writes when its leader is restarted for a deploy. The restart is the
+ * simulated failure, after which the server comes back as a follower. Either the leader is restarted straight
+ * away and the others wait out their election timeout, or it first hands leadership to a follower with
+ * TimeoutNow and is restarted once it has stepped down. One client keeps sending updates through a follower;
+ * the window is the longest time between two commits from the moment the restart is asked for.
+ *
+ * Run with: java -cp <test classpath> LeadershipTransferBenchmark [rounds]
+ */
+public class LeadershipTransferBenchmark {
+
+    private static final int RETRY_MILLIS = 50;
+
+    private static final int SETTLE_MILLIS = 3_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        System.out.printf("%-24s %12s %12s%n", "restart", "median ms", "max ms");
+        report("restart leader", false, rounds);
+        report("transfer, then restart", true, rounds);
+    }
+
+    private static void report(String name, boolean transfer, int rounds) throws InterruptedException {
+        long[] windowMillis = new long[rounds];
+        for (int round = 0; round < rounds; round++){
+            windowMillis[round] = measureWindow(transfer);
+        }
+        Arrays.sort(windowMillis);
+        System.out.printf("%-24s %12d %12d%n", name, windowMillis[rounds / 2], windowMillis[rounds - 1]);
+    }
+
+    private static long measureWindow(boolean transfer) throws InterruptedException {
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            List<ActorRef<RaftMessage>> servers = new ArrayList<>();
+            for (int i = 0; i < 3; i++){
+                servers.add(testKit.spawn(Follower.create(new SegmentedLogWriter(DurabilityMode.PAGE_CACHE), new TicketCounter(Integer.MAX_VALUE), new FailFlag(), new RaftConfig())));
+            }
+            for (ActorRef<RaftMessage> server : servers){
+                List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>(servers);
+                groupRefs.remove(server);
+                server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+                server.tell(new RaftMessage.Start());
+            }
+            LinkedBlockingQueue<RaftMessage> replies = new LinkedBlockingQueue<>();
+            ActorRef<RaftMessage> replyRef = testKit.spawn(Inbox.create(replies));
+            int leader = awaitLeader(servers, replyRef, replies);
+
+            LinkedBlockingQueue<ClientMessage> responses = new LinkedBlockingQueue<>();
+            ActorRef<ClientMessage> clientRef = testKit.spawn(Inbox.create(responses));
+            Client client = new Client(servers.get((leader + 1) % servers.size()), clientRef,
+                    ActorRefResolver.get(testKit.system()).toSerializationFormat(clientRef), responses);
+            Thread clientThread = new Thread(client);
+            clientThread.start();
+            Thread.sleep(500);
+
+            long restartAskedAt = System.nanoTime();
+            ActorRef<RaftMessage> oldLeader = servers.get(leader);
+            if (transfer){
+                oldLeader.tell(new RaftMessage.TransferLeadership(null));
+                while (isLeader(oldLeader, replyRef, replies)) Thread.sleep(1);
+            }
+            oldLeader.tell(new RaftMessage.Failure());
+            Thread.sleep(SETTLE_MILLIS);
+            client.stop = true;
+            clientThread.join();
+            for (ActorRef<RaftMessage> server : servers) server.tell(new RaftMessage.ShutDown(null));
+
+            long window = 0;
+            long previous = 0;
+            for (long committedAt : client.commits){
+                if (committedAt > restartAskedAt) window = Math.max(window, committedAt - Math.max(previous, restartAskedAt));
+                previous = committedAt;
+            }
+            return window / 1_000_000;
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    private static class Client implements Runnable {
+
+        Client(ActorRef<RaftMessage> server, ActorRef<ClientMessage> ref, String serializedRef, LinkedBlockingQueue<ClientMessage> responses){
+            this.server = server;
+            this.ref = ref;
+            this.serializedRef = serializedRef;
+            this.responses = responses;
+        }
+
+        private final ActorRef<RaftMessage> server;
+
+        private final ActorRef<ClientMessage> ref;
+
+        private final String serializedRef;
+
+        private final LinkedBlockingQueue<ClientMessage> responses;
+
+        final ConcurrentLinkedQueue<Long> commits = new ConcurrentLinkedQueue<>();
+
+        volatile boolean stop;
+
+        // an update that is not answered in time is sent again with the same command ID
+        @Override
+        public void run() {
+            int commandID = 0;
+            try {
+                while (!this.stop){
+                    this.server.tell(new RaftMessage.ClientUpdateRequest(this.ref, new CounterCommand(this.serializedRef, commandID, 1)));
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS);
+                    ClientMessage response;
+                    while ((response = this.responses.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null){
+                        if (response instanceof ClientMessage.ClientUpdateResponse msg && msg.commandID() == commandID){
+                            this.commits.add(System.nanoTime());
+                            commandID++;
+                            break;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static int awaitLeader(List<ActorRef<RaftMessage>> servers, ActorRef<RaftMessage> replyRef, LinkedBlockingQueue<RaftMessage> replies) throws InterruptedException {
+        while (true){
+            for (int i = 0; i < servers.size(); i++){
+                if (isLeader(servers.get(i), replyRef, replies)) return i;
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static boolean isLeader(ActorRef<RaftMessage> server, ActorRef<RaftMessage> replyRef, LinkedBlockingQueue<RaftMessage> replies) throws InterruptedException {
+        replies.clear();
+        server.tell(new RaftMessage.TestMessage.GetBehavior(replyRef));
+        return replies.poll(1, TimeUnit.SECONDS) instanceof RaftMessage.TestMessage.GetBehaviorResponse msg && msg.behavior().equals("LEADER");
+    }
+
+    private static class Inbox<T> extends AbstractBehavior<T> {
+
+        static <T> Behavior<T> create(LinkedBlockingQueue<T> queue){
+            return Behaviors.setup(context -> new Inbox<>(context, queue));
+        }
+
+        private Inbox(ActorContext<T> context, LinkedBlockingQueue<T> queue){
+            super(context);
+            this.queue = queue;
+        }
+
+        private final LinkedBlockingQueue<T> queue;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Receive<T> createReceive() {
+            return newReceiveBuilder()
+                    .onMessage((Class<T>) Object.class, message -> {
+                        this.queue.add(message);
+                        return this;
+                    })
+                    .build();
+        }
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,142 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import datapersistence.SegmentedLogWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.RaftConfig;
+import statemachine.CounterCommand;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Update latency and lagged read throughput of a three server group, a five server group and a three server group
+ * with two learners. One writer sends updates to the leader one at a time while readers spread over the servers
+ * other than the leader send lagged reads, each answered from the server's own committed state. Learners add
+ * servers to read from without adding to the majority each update has to reach.
+ *
+ * Run with: java -cp <test classpath> LearnerBenchmark [seconds per run] [readers]
+ */
+public class LearnerBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            System.out.printf("%-20s %14s %14s %14s%n", "group", "update p50 ms", "update p99 ms", "reads/s");
+            run(testKit, 3, 0, readers, seconds);
+            run(testKit, 5, 0, readers, seconds);
+            run(testKit, 3, 2, readers, seconds);
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    private static void run(ActorTestKit testKit, int voterCount, int learnerCount, int readers, int seconds) throws InterruptedException {
+        RaftConfig config = new RaftConfig();
+        List<ActorRef<RaftMessage>> voters = new ArrayList<>();
+        for (int i = 0; i < voterCount; i++){
+            voters.add(testKit.spawn(Follower.create(new SegmentedLogWriter(), new TicketCounter(Integer.MAX_VALUE), new FailFlag(), config)));
+        }
+        for (ActorRef<RaftMessage> server : voters){
+            List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>(voters);
+            groupRefs.remove(server);
+            server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+            server.tell(new RaftMessage.Start());
+        }
+        ActorRef<RaftMessage> leader = findLeader(testKit, voters);
+        List<ActorRef<RaftMessage>> readFrom = new ArrayList<>(voters);
+        readFrom.remove(leader);
+        for (int i = 0; i < learnerCount; i++){
+            ActorRef<RaftMessage> learner = testKit.spawn(Follower.create(new SegmentedLogWriter(), new TicketCounter(Integer.MAX_VALUE), new FailFlag(), config));
+            addLearner(testKit, leader, learner);
+            readFrom.add(learner);
+        }
+
+        AtomicLong answered = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readers; i++){
+            ActorRef<RaftMessage> target = readFrom.get(i % readFrom.size());
+            TestProbe<ClientMessage> client = testKit.createTestProbe();
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() < deadline){
+                    target.tell(new RaftMessage.ClientLaggedReadRequest(client.ref()));
+                    client.expectMessageClass(ClientMessage.ClientCommittedReadResponse.class, Duration.ofSeconds(30));
+                    answered.incrementAndGet();
+                }
+            }));
+        }
+        List<Long> latencies = new ArrayList<>();
+        TestProbe<ClientMessage> writer = testKit.createTestProbe();
+        String writerRef = ActorRefResolver.get(testKit.system()).toSerializationFormat(writer.ref());
+        threads.add(new Thread(() -> {
+            int commandID = 0;
+            while (System.nanoTime() < deadline){
+                long sentAt = System.nanoTime();
+                leader.tell(new RaftMessage.ClientUpdateRequest(writer.ref(), new CounterCommand(writerRef, commandID, 1)));
+                writer.expectMessage(Duration.ofSeconds(30), new ClientMessage.ClientUpdateResponse(true, commandID));
+                latencies.add(System.nanoTime() - sentAt);
+                commandID++;
+            }
+        }));
+        long start = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        long elapsed = System.nanoTime() - start;
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        String group = voterCount + " voters" + (learnerCount > 0 ? ", " + learnerCount + " learners" : "");
+        System.out.printf("%-20s %14.2f %14.2f %14.0f%n", group, sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 99 / 100] / 1e6,
+                answered.get() / (elapsed / 1_000_000_000.0));
+
+        for (ActorRef<RaftMessage> server : voters) server.tell(new RaftMessage.ShutDown(null));
+        for (ActorRef<RaftMessage> server : readFrom) server.tell(new RaftMessage.ShutDown(null));
+    }
+
+    // asked again until it succeeds, since the leader refuses a change while the previous one is committing
+    private static void addLearner(ActorTestKit testKit, ActorRef<RaftMessage> leader, ActorRef<RaftMessage> learner) throws InterruptedException {
+        TestProbe<RaftMessage> probe = testKit.createTestProbe();
+        while (true){
+            leader.tell(new RaftMessage.AddLearner(learner, probe.ref()));
+            if (probe.expectMessageClass(RaftMessage.MembershipChangeResponse.class, Duration.ofSeconds(30)).success()) return;
+            Thread.sleep(50);
+        }
+    }
+
+    // waits for an election and asks every server which role it is in
+    private static ActorRef<RaftMessage> findLeader(ActorTestKit testKit, List<ActorRef<RaftMessage>> servers) throws InterruptedException {
+        TestProbe<RaftMessage> probe = testKit.createTestProbe();
+        while (true){
+            Thread.sleep(200);
+            for (ActorRef<RaftMessage> server : servers){
+                server.tell(new RaftMessage.TestMessage.GetBehavior(probe.ref()));
+                RaftMessage.TestMessage.GetBehaviorResponse response = probe.expectMessageClass(RaftMessage.TestMessage.GetBehaviorResponse.class, Duration.ofSeconds(5));
+                if (response.behavior().equals("LEADER")) return server;
+            }
+        }
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,231 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import datapersistence.DurabilityMode;
+import datapersistence.SegmentedLogWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.RaftConfig;
+import statemachine.CounterCommand;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Replaces every server but one of a three server group while one client keeps sending updates through the
+ * server that stays. Two new servers are added, each caught up from a snapshot and the log before it gets a vote,
+ * then an old follower is removed and the leader hands leadership over and is removed as well. For the steady
+ * state and each change, reports how long it took, the commit rate while it was under way and the longest time
+ * without a commit.
+ *
+ * Run with: java -cp <test classpath> MembershipChangeBenchmark [preloaded updates]
+ */
+public class MembershipChangeBenchmark {
+
+    private static final int RETRY_MILLIS = 50;
+
+    private static final int STEADY_MILLIS = 2_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int preloaded = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            RaftConfig config = new RaftConfig();
+            List<ActorRef<RaftMessage>> servers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) servers.add(spawnServer(testKit, config));
+            for (ActorRef<RaftMessage> server : servers){
+                List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>(servers);
+                groupRefs.remove(server);
+                server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+                server.tell(new RaftMessage.Start());
+            }
+            LinkedBlockingQueue<RaftMessage> replies = new LinkedBlockingQueue<>();
+            ActorRef<RaftMessage> replyRef = testKit.spawn(Inbox.create(replies));
+            int leader = awaitLeader(servers, replyRef, replies);
+            ActorRef<RaftMessage> entry = servers.get((leader + 1) % servers.size());
+            ActorRef<RaftMessage> oldFollower = servers.get((leader + 2) % servers.size());
+            ActorRef<RaftMessage> oldLeader = servers.get(leader);
+
+            LinkedBlockingQueue<ClientMessage> responses = new LinkedBlockingQueue<>();
+            ActorRef<ClientMessage> clientRef = testKit.spawn(Inbox.create(responses));
+            Client client = new Client(entry, clientRef, ActorRefResolver.get(testKit.system()).toSerializationFormat(clientRef), responses);
+            Thread clientThread = new Thread(client);
+            clientThread.start();
+            while (client.commits.size() < preloaded) Thread.sleep(50);
+
+            System.out.printf("%-28s %10s %12s %16s%n", "change", "took ms", "commits/s", "longest stall ms");
+            long steadyStart = System.nanoTime();
+            Thread.sleep(STEADY_MILLIS);
+            report("steady state", steadyStart, System.nanoTime(), client);
+
+            for (int i = 0; i < 2; i++){
+                ActorRef<RaftMessage> newServer = spawnServer(testKit, config);
+                servers.add(newServer);
+                long start = System.nanoTime();
+                change(entry, new RaftMessage.AddServer(newServer, replyRef), replies);
+                report("add new server " + (i + 1), start, System.nanoTime(), client);
+            }
+            long start = System.nanoTime();
+            change(entry, new RaftMessage.RemoveServer(oldFollower, replyRef), replies);
+            report("remove old follower", start, System.nanoTime(), client);
+
+            start = System.nanoTime();
+            oldLeader.tell(new RaftMessage.TransferLeadership(null));
+            while (isLeader(oldLeader, replyRef, replies)) Thread.sleep(1);
+            change(entry, new RaftMessage.RemoveServer(oldLeader, replyRef), replies);
+            report("transfer, remove old leader", start, System.nanoTime(), client);
+
+            long finalStart = System.nanoTime();
+            Thread.sleep(STEADY_MILLIS);
+            report("steady state, new group", finalStart, System.nanoTime(), client);
+
+            client.stop = true;
+            clientThread.join();
+            for (ActorRef<RaftMessage> server : servers) server.tell(new RaftMessage.ShutDown(null));
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    private static ActorRef<RaftMessage> spawnServer(ActorTestKit testKit, RaftConfig config) {
+        return testKit.spawn(Follower.create(new SegmentedLogWriter(DurabilityMode.PAGE_CACHE), new TicketCounter(Integer.MAX_VALUE), new FailFlag(), config));
+    }
+
+    // a refused change, such as one that reached a server between leaders, is asked for again
+    private static void change(ActorRef<RaftMessage> server, RaftMessage request, LinkedBlockingQueue<RaftMessage> replies) throws InterruptedException {
+        while (true){
+            replies.clear();
+            server.tell(request);
+            RaftMessage reply;
+            while ((reply = replies.poll(30, TimeUnit.SECONDS)) != null){
+                if (reply instanceof RaftMessage.MembershipChangeResponse msg){
+                    if (msg.success()) return;
+                    break;
+                }
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static void report(String name, long start, long end, Client client) {
+        long previous = start;
+        long stall = 0;
+        int commits = 0;
+        for (long committedAt : client.commits){
+            if (committedAt <= start || committedAt > end) continue;
+            stall = Math.max(stall, committedAt - previous);
+            previous = committedAt;
+            commits++;
+        }
+        stall = Math.max(stall, end - previous);
+        double seconds = (end - start) / 1e9;
+        System.out.printf("%-28s %10d %12.0f %16d%n", name, (end - start) / 1_000_000, commits / seconds, stall / 1_000_000);
+    }
+
+    private static class Client implements Runnable {
+
+        Client(ActorRef<RaftMessage> server, ActorRef<ClientMessage> ref, String serializedRef, LinkedBlockingQueue<ClientMessage> responses){
+            this.server = server;
+            this.ref = ref;
+            this.serializedRef = serializedRef;
+            this.responses = responses;
+        }
+
+        private final ActorRef<RaftMessage> server;
+
+        private final ActorRef<ClientMessage> ref;
+
+        private final String serializedRef;
+
+        private final LinkedBlockingQueue<ClientMessage> responses;
+
+        final ConcurrentLinkedQueue<Long> commits = new ConcurrentLinkedQueue<>();
+
+        volatile boolean stop;
+
+        // an update that is not answered in time is sent again with the same command ID
+        @Override
+        public void run() {
+            int commandID = 0;
+            try {
+                while (!this.stop){
+                    this.server.tell(new RaftMessage.ClientUpdateRequest(this.ref, new CounterCommand(this.serializedRef, commandID, 1)));
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS);
+                    ClientMessage response;
+                    while ((response = this.responses.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null){
+                        if (response instanceof ClientMessage.ClientUpdateResponse msg && msg.commandID() == commandID){
+                            this.commits.add(System.nanoTime());
+                            commandID++;
+                            break;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static int awaitLeader(List<ActorRef<RaftMessage>> servers, ActorRef<RaftMessage> replyRef, LinkedBlockingQueue<RaftMessage> replies) throws InterruptedException {
+        while (true){
+            for (int i = 0; i < servers.size(); i++){
+                if (isLeader(servers.get(i), replyRef, replies)) return i;
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static boolean isLeader(ActorRef<RaftMessage> server, ActorRef<RaftMessage> replyRef, LinkedBlockingQueue<RaftMessage> replies) throws InterruptedException {
+        replies.clear();
+        server.tell(new RaftMessage.TestMessage.GetBehavior(replyRef));
+        return replies.poll(1, TimeUnit.SECONDS) instanceof RaftMessage.TestMessage.GetBehaviorResponse msg && msg.behavior().equals("LEADER");
+    }
+
+    private static class Inbox<T> extends AbstractBehavior<T> {
+
+        static <T> Behavior<T> create(LinkedBlockingQueue<T> queue){
+            return Behaviors.setup(context -> new Inbox<>(context, queue));
+        }
+
+        private Inbox(ActorContext<T> context, LinkedBlockingQueue<T> queue){
+            super(context);
+            this.queue = queue;
+        }
+
+        private final LinkedBlockingQueue<T> queue;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Receive<T> createReceive() {
+            return newReceiveBuilder()
+                    .onMessage((Class<T>) Object.class, message -> {
+                        this.queue.add(message);
+                        return this;
+                    })
+                    .build();
+        }
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
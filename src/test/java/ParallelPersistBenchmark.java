@@ -0,0 +1,85 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import datapersistence.DurabilityMode;
+import datapersistence.SegmentedLogWriter;
+import datapersistence.ServerDataManager;
+import datapersistence.ServerFileWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.Leader;
+import raftstates.RaftConfig;
+import statemachine.CounterCommand;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/*
+ * Commit latency seen by a single client of a three server group, sending its next update as soon as the
+ * previous one is answered. Every server keeps its log with the same backend, so the leader's own write is
+ * on the commit path unless it overlaps with replication to the followers.
+ *
+ * Run with: java -cp <test classpath> ParallelPersistBenchmark [updates]
+ */
+public class ParallelPersistBenchmark {
+
+    public static void main(String[] args) {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        System.out.printf("%-32s %10s %10s %10s%n", "backend", "p50 us", "p90 us", "mean us");
+        report("ServerFileWriter (rewrite log)", ServerFileWriter::new, updates);
+        for (DurabilityMode mode : DurabilityMode.values()){
+            report("Segmented, " + mode, () -> new SegmentedLogWriter(mode), updates);
+        }
+    }
+
+    private static void report(String name, Supplier<ServerDataManager> backend, int updates){
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            RaftConfig config = new RaftConfig();
+            config.batchWindowMillis = 0;
+            config.electionTimeoutMillis = 60_000;
+            List<ActorRef<RaftMessage>> followers = new ArrayList<>();
+            for (int i = 0; i < 2; i++){
+                followers.add(testKit.spawn(Follower.create(backend.get(), new TicketCounter(Integer.MAX_VALUE), new FailFlag(), config)));
+            }
+            ActorRef<RaftMessage> leader = testKit.spawn(Leader.create(backend.get(), new TicketCounter(Integer.MAX_VALUE), new Object(), new FailFlag(), config, 1, followers, -1, -1));
+
+            TestProbe<ClientMessage> client = testKit.createTestProbe();
+            String clientRef = ActorRefResolver.get(testKit.system()).toSerializationFormat(client.ref());
+            long[] commitMicros = new long[updates];
+            for (int i = 0; i < updates; i++){
+                long start = System.nanoTime();
+                leader.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, i, 1)));
+                client.expectMessage(Duration.ofSeconds(30), new ClientMessage.ClientUpdateResponse(true, i));
+                commitMicros[i] = (System.nanoTime() - start) / 1_000;
+            }
+            leader.tell(new RaftMessage.ShutDown(null));
+            for (ActorRef<RaftMessage> follower : followers) follower.tell(new RaftMessage.ShutDown(null));
+
+            long mean = Arrays.stream(commitMicros).sum() / updates;
+            Arrays.sort(commitMicros);
+            System.out.printf("%-32s %10d %10d %10d%n", name, commitMicros[updates / 2], commitMicros[updates * 9 / 10], mean);
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,255 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import datapersistence.DurabilityMode;
+import datapersistence.SegmentedLogWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.RaftConfig;
+import statemachine.CounterCommand;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Partitions a follower of a three server group away from the others and heals the partition again, while
+ * one client keeps sending updates through the leader. Servers only reach each other through links that drop
+ * every message to or from an isolated server. Without pre-votes the isolated follower keeps raising its term,
+ * and once it is back its higher term makes the healthy leader step down. Reports how many elections were
+ * held and leaders changed, the commit rate over the whole run and the longest time without a commit.
+ *
+ * Run with: java -cp <test classpath> PartitionHealBenchmark [cycles] [isolated millis]
+ */
+public class PartitionHealBenchmark {
+
+    private static final int HEALTHY_MILLIS = 1_000;
+
+    private static final int HEALED_MILLIS = 1_500;
+
+    private static final int RETRY_MILLIS = 300;
+
+    public static void main(String[] args) throws InterruptedException {
+        int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int isolatedMillis = args.length > 1 ? Integer.parseInt(args[1]) : 2_500;
+        System.out.printf("%-10s %10s %15s %12s %16s%n", "pre-vote", "elections", "leader changes", "commits/s", "longest stall ms");
+        run(false, cycles, isolatedMillis);
+        run(true, cycles, isolatedMillis);
+    }
+
+    private static void run(boolean preVote, int cycles, int isolatedMillis) throws InterruptedException {
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            RaftConfig config = new RaftConfig();
+            config.preVote = preVote;
+            Set<Integer> isolated = ConcurrentHashMap.newKeySet();
+            List<ActorRef<RaftMessage>> servers = new ArrayList<>();
+            for (int i = 0; i < 3; i++){
+                servers.add(testKit.spawn(Follower.create(new SegmentedLogWriter(DurabilityMode.PAGE_CACHE), new TicketCounter(Integer.MAX_VALUE), new FailFlag(), config)));
+            }
+            List<List<ActorRef<RaftMessage>>> links = new ArrayList<>();
+            for (int i = 0; i < servers.size(); i++){
+                links.add(new ArrayList<>());
+                for (int j = 0; j < servers.size(); j++){
+                    links.get(i).add(testKit.spawn(Link.create(i, j, servers, links, isolated)));
+                }
+            }
+            for (int i = 0; i < servers.size(); i++){
+                List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+                for (int j = 0; j < servers.size(); j++){
+                    if (j != i) groupRefs.add(links.get(i).get(j));
+                }
+                servers.get(i).tell(new RaftMessage.SetGroupRefs(groupRefs));
+                servers.get(i).tell(new RaftMessage.Start());
+            }
+
+            LinkedBlockingQueue<RaftMessage> replies = new LinkedBlockingQueue<>();
+            ActorRef<RaftMessage> replyRef = testKit.spawn(Inbox.create(replies));
+            int leader = awaitLeader(servers, replyRef, replies);
+            int firstTerm = getTerm(servers.get(leader), replies, replyRef);
+
+            LinkedBlockingQueue<ClientMessage> responses = new LinkedBlockingQueue<>();
+            ActorRef<ClientMessage> client = testKit.spawn(Inbox.create(responses));
+            String clientRef = ActorRefResolver.get(testKit.system()).toSerializationFormat(client);
+            ActorRef<RaftMessage> entry = servers.get(leader);
+
+            int commits = 0;
+            int leaderChanges = 0;
+            long longestStall = 0;
+            long lastCommit = System.nanoTime();
+            long start = lastCommit;
+            for (int cycle = 0; cycle < cycles; cycle++){
+                long cycleStart = System.nanoTime();
+                long isolateAt = cycleStart + TimeUnit.MILLISECONDS.toNanos(HEALTHY_MILLIS);
+                long healAt = isolateAt + TimeUnit.MILLISECONDS.toNanos(isolatedMillis);
+                long cycleEnd = healAt + TimeUnit.MILLISECONDS.toNanos(HEALED_MILLIS);
+                int follower = (leader + 1 + cycle % 2) % servers.size();
+                while (System.nanoTime() < cycleEnd){
+                    long now = System.nanoTime();
+                    if (now >= isolateAt && now < healAt) isolated.add(follower);
+                    else isolated.remove(follower);
+                    entry.tell(new RaftMessage.ClientUpdateRequest(client, new CounterCommand(clientRef, commits, 1)));
+                    if (awaitResponse(responses, commits)){
+                        long committed = System.nanoTime();
+                        longestStall = Math.max(longestStall, committed - lastCommit);
+                        lastCommit = committed;
+                        commits++;
+                    }
+                }
+                int nextLeader = awaitLeader(servers, replyRef, replies);
+                if (nextLeader != leader) leaderChanges++;
+                leader = nextLeader;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            int elections = getTerm(servers.get(leader), replies, replyRef) - firstTerm;
+            for (ActorRef<RaftMessage> server : servers) server.tell(new RaftMessage.ShutDown(null));
+
+            System.out.printf("%-10s %10d %15d %12.0f %16d%n", preVote ? "on" : "off", elections, leaderChanges, commits / seconds, longestStall / 1_000_000);
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    // false when the update is not answered in time, so it is sent again with the same command ID
+    private static boolean awaitResponse(LinkedBlockingQueue<ClientMessage> responses, int commandID) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_MILLIS);
+        while (true){
+            ClientMessage response = responses.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (response == null) return false;
+            if (response instanceof ClientMessage.ClientUpdateResponse msg && msg.commandID() == commandID) return true;
+        }
+    }
+
+    private static int awaitLeader(List<ActorRef<RaftMessage>> servers, ActorRef<RaftMessage> replyRef, LinkedBlockingQueue<RaftMessage> replies) throws InterruptedException {
+        while (true){
+            for (int i = 0; i < servers.size(); i++){
+                servers.get(i).tell(new RaftMessage.TestMessage.GetBehavior(replyRef));
+                RaftMessage reply = replies.poll(1, TimeUnit.SECONDS);
+                if (reply instanceof RaftMessage.TestMessage.GetBehaviorResponse msg && msg.behavior().equals("LEADER")) return i;
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static int getTerm(ActorRef<RaftMessage> leader, LinkedBlockingQueue<RaftMessage> replies, ActorRef<RaftMessage> replyRef) throws InterruptedException {
+        replies.clear();
+        leader.tell(new RaftMessage.TestMessage.GetState(replyRef));
+        while (true){
+            if (replies.poll(1, TimeUnit.SECONDS) instanceof RaftMessage.TestMessage.GetStateResponse msg) return msg.currentTerm();
+        }
+    }
+
+    /*
+     * One server's connection to another, cut while either end is isolated. Servers only know each other by
+     * their links, so the sender's own reference in a message is swapped for the link back to it; otherwise
+     * replies would bypass the partition and the leader would not recognise who acknowledged its entries.
+     */
+    private static class Link extends AbstractBehavior<RaftMessage> {
+
+        static Behavior<RaftMessage> create(int from, int to, List<ActorRef<RaftMessage>> servers, List<List<ActorRef<RaftMessage>>> links, Set<Integer> isolated){
+            return Behaviors.setup(context -> new Link(context, from, to, servers, links, isolated));
+        }
+
+        private Link(ActorContext<RaftMessage> context, int from, int to, List<ActorRef<RaftMessage>> servers, List<List<ActorRef<RaftMessage>>> links, Set<Integer> isolated){
+            super(context);
+            this.from = from;
+            this.to = to;
+            this.servers = servers;
+            this.links = links;
+            this.isolated = isolated;
+        }
+
+        private final int from;
+
+        private final int to;
+
+        private final List<ActorRef<RaftMessage>> servers;
+
+        private final List<List<ActorRef<RaftMessage>>> links;
+
+        private final Set<Integer> isolated;
+
+        @Override
+        public Receive<RaftMessage> createReceive() {
+            return newReceiveBuilder()
+                    .onMessage(RaftMessage.class, message -> {
+                        if (!this.isolated.contains(this.from) && !this.isolated.contains(this.to)) this.servers.get(this.to).tell(readdress(message));
+                        return this;
+                    })
+                    .build();
+        }
+
+        private RaftMessage readdress(RaftMessage message){
+            switch (message) {
+                case RaftMessage.AppendEntries msg:
+                    return new RaftMessage.AppendEntries(msg.term(), back(msg.leaderRef()), msg.prevLogIndex(), msg.prevLogTerm(), msg.entries(), msg.leaderCommit());
+                case RaftMessage.AppendEntriesResponse msg:
+                    return new RaftMessage.AppendEntriesResponse(back(msg.sender()), msg.term(), msg.success(), msg.matchIndex(), msg.conflictTerm(), msg.conflictIndex());
+                case RaftMessage.RequestVote msg:
+                    return new RaftMessage.RequestVote(msg.term(), back(msg.candidateRef()), msg.lastLogIndex(), msg.lastLogTerm(), msg.leadershipTransfer());
+                case RaftMessage.PreVote msg:
+                    return new RaftMessage.PreVote(msg.term(), back(msg.candidateRef()), msg.lastLogIndex(), msg.lastLogTerm());
+                case RaftMessage.InstallSnapshot msg:
+                    return new RaftMessage.InstallSnapshot(msg.term(), back(msg.leaderRef()), msg.snapshot());
+                case RaftMessage.InstallSnapshotResponse msg:
+                    return new RaftMessage.InstallSnapshotResponse(back(msg.sender()), msg.term(), msg.lastIncludedIndex());
+                case RaftMessage.ReadIndexRequest msg:
+                    return new RaftMessage.ReadIndexRequest(back(msg.sender()), msg.requestID());
+                default:
+                    return message;
+            }
+        }
+
+        private ActorRef<RaftMessage> back(ActorRef<RaftMessage> ref){
+            return ref.equals(this.servers.get(this.from)) ? this.links.get(this.to).get(this.from) : ref;
+        }
+    }
+
+    private static class Inbox<T> extends AbstractBehavior<T> {
+
+        static <T> Behavior<T> create(LinkedBlockingQueue<T> queue){
+            return Behaviors.setup(context -> new Inbox<>(context, queue));
+        }
+
+        private Inbox(ActorContext<T> context, LinkedBlockingQueue<T> queue){
+            super(context);
+            this.queue = queue;
+        }
+
+        private final LinkedBlockingQueue<T> queue;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Receive<T> createReceive() {
+            return newReceiveBuilder()
+                    .onMessage((Class<T>) Object.class, message -> {
+                        this.queue.add(message);
+                        return this;
+                    })
+                    .build();
+        }
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
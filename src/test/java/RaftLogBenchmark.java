@@ -0,0 +1,94 @@
+import raftstates.RaftLog;
+import statemachine.Command;
+import statemachine.CounterCommand;
+import statemachine.Entry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Compares the follower's old in-memory log, an ArrayList<Entry> copied after every AppendEntries, with RaftLog.
+ * The first table is the time per appended entry when a log is built from AppendEntries of 64 entries. The second
+ * is the heap the log structure itself takes per entry, measured after a full GC with the commands allocated
+ * beforehand, so only the Entry objects, arrays and pages are counted.
+ *
+ * Run with: java -cp <test classpath> RaftLogBenchmark
+ */
+public class RaftLogBenchmark {
+
+    private static final int ENTRIES_PER_APPEND = 64;
+
+    public static void main(String[] args) {
+        System.out.printf("%-10s %22s %18s%n", "log size", "copied list ns/entry", "RaftLog ns/entry");
+        for (int size : new int[]{10_000, 100_000, 400_000}){
+            List<Entry> batch = getEntries(ENTRIES_PER_APPEND);
+            double copied = 0;
+            double paged = 0;
+            for (int round = 0; round < 3; round++){
+                copied = measureCopiedList(batch, size);
+                paged = measureRaftLog(batch, size);
+            }
+            System.out.printf("%-10d %22.1f %18.1f%n", size, copied, paged);
+        }
+
+        int footprintEntries = 1_000_000;
+        List<Entry> entries = getEntries(footprintEntries);
+        Command[] commands = new Command[footprintEntries];
+        for (int i = 0; i < footprintEntries; i++) commands[i] = entries.get(i).command();
+        entries = null;
+        System.out.printf("%n%-22s %16s%n", "structure", "bytes/entry");
+        System.out.printf("%-22s %16.1f%n", "ArrayList<Entry>", footprintOfList(commands) / (double) footprintEntries);
+        System.out.printf("%-22s %16.1f%n", "RaftLog", footprintOfRaftLog(commands) / (double) footprintEntries);
+    }
+
+    private static double measureCopiedList(List<Entry> batch, int size) {
+        long start = System.nanoTime();
+        List<Entry> log = new ArrayList<>();
+        while (log.size() < size){
+            log.addAll(batch);
+            log = new ArrayList<>(log);
+        }
+        return (System.nanoTime() - start) / (double) log.size();
+    }
+
+    private static double measureRaftLog(List<Entry> batch, int size) {
+        long start = System.nanoTime();
+        RaftLog log = new RaftLog(0);
+        while (log.size() < size){
+            log.appendAll(batch);
+        }
+        return (System.nanoTime() - start) / (double) log.size();
+    }
+
+    private static long footprintOfList(Command[] commands) {
+        long before = usedHeap();
+        List<Entry> log = new ArrayList<>();
+        for (Command command : commands) log.add(new Entry(1, command));
+        long after = usedHeap();
+        if (log.size() != commands.length) throw new IllegalStateException();
+        return after - before;
+    }
+
+    private static long footprintOfRaftLog(Command[] commands) {
+        long before = usedHeap();
+        RaftLog log = new RaftLog(0);
+        for (Command command : commands) log.append(new Entry(1, command));
+        long after = usedHeap();
+        if (log.size() != commands.length) throw new IllegalStateException();
+        return after - before;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static List<Entry> getEntries(int count) {
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            entries.add(new Entry(1, new CounterCommand("client", i, 1)));
+        }
+        return entries;
+    }
+}
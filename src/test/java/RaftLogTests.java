@@ -0,0 +1,108 @@
+import org.junit.*;
+import raftstates.RaftLog;
+import statemachine.CounterCommand;
+import statemachine.Entry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RaftLogTests {
+
+    private static List<Entry> getEntries(int firstCommandID, int count, int term) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++){
+            entries.add(new Entry(term, new CounterCommand("client", firstCommandID + i, 1)));
+        }
+        return entries;
+    }
+
+    @Test
+    public void entriesAreReadBackByAbsoluteIndexAcrossPages(){
+        RaftLog log = new RaftLog(5);
+        List<Entry> entries = getEntries(0, 3000, 1);
+        log.appendAll(entries);
+        assertEquals(5, log.getStartIndex());
+        assertEquals(3004, log.getLastIndex());
+        assertEquals(entries.get(2500), log.get(2505));
+        assertEquals(entries.subList(1000, 2100), log.slice(1005, 2105));
+    }
+
+    @Test
+    public void sliceIsUnchangedByLaterTruncationAndAppends(){
+        RaftLog log = new RaftLog(0);
+        log.appendAll(getEntries(0, 10, 1));
+        List<Entry> slice = log.slice(4, 10);
+        log.truncateFrom(6);
+        log.appendAll(getEntries(100, 4, 2));
+        assertEquals(getEntries(4, 6, 1), slice);
+        assertEquals(2, log.getTerm(6));
+        assertEquals(9, log.getLastIndex());
+    }
+
+    @Test
+    public void discardingThePrefixKeepsAbsoluteIndexes(){
+        RaftLog log = new RaftLog(0);
+        List<Entry> entries = getEntries(0, 5000, 1);
+        log.appendAll(entries);
+        log.discardThrough(2999);
+        assertEquals(3000, log.getStartIndex());
+        assertEquals(entries.get(4000), log.get(4000));
+        log.append(new Entry(3, new CounterCommand("client", 5000, 1)));
+        assertEquals(5000, log.getLastIndex());
+        assertEquals(3, log.getTerm(5000));
+    }
+
+    @Test
+    public void discardingPastTheEndLeavesAnEmptyLogAfterTheSnapshot(){
+        RaftLog log = new RaftLog(0);
+        log.appendAll(getEntries(0, 10, 1));
+        log.discardThrough(20);
+        assertEquals(21, log.getStartIndex());
+        assertEquals(20, log.getLastIndex());
+        assertEquals(0, log.size());
+    }
+
+    @Test
+    public void termRunsAreFoundThroughTruncationAndCompaction(){
+        RaftLog log = new RaftLog(0);
+        log.appendAll(getEntries(0, 100, 1));
+        log.appendAll(getEntries(100, 50, 3));
+        log.appendAll(getEntries(150, 50, 4));
+        assertEquals(100, log.getFirstIndexOfTerm(3));
+        assertEquals(149, log.getLastIndexOfTerm(3));
+        assertEquals(-1, log.getFirstIndexOfTerm(2));
+
+        log.truncateFrom(120);
+        log.appendAll(getEntries(120, 10, 5));
+        assertEquals(119, log.getLastIndexOfTerm(3));
+        assertEquals(-1, log.getFirstIndexOfTerm(4));
+        assertEquals(5, log.getTerm(125));
+
+        log.discardThrough(109);
+        assertEquals(110, log.getFirstIndexOfTerm(3));
+        assertEquals(-1, log.getFirstIndexOfTerm(1));
+        assertEquals(3, log.getTerm(110));
+    }
+
+    @Test
+    public void encodedSizesAreMeasuredOnceAndKeptThroughTruncationAndCompaction(){
+        List<Entry> measured = new ArrayList<>();
+        RaftLog log = new RaftLog(0, entry -> {
+            measured.add(entry);
+            return entry.command().getCommandID() % 7 + 1;
+        });
+        List<Entry> entries = getEntries(0, 3000, 1);
+        log.appendAll(entries);
+        assertEquals(entries, measured);
+        assertEquals(2500 % 7 + 1, log.getEncodedSize(2500));
+
+        log.truncateFrom(2100);
+        log.append(new Entry(2, new CounterCommand("client", 10, 1)), 40);
+        log.discardThrough(1999);
+        assertEquals(2099 % 7 + 1, log.getEncodedSize(2099));
+        assertEquals(40, log.getEncodedSize(2100));
+        assertEquals(3000, measured.size());
+    }
+}
@@ -0,0 +1,112 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import datapersistence.SegmentedLogWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.RaftConfig;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Committed read latency against the leader of a five server cluster, with quorum confirmed ReadIndex reads
+ * and with lease reads. Each reader thread sends its next read as soon as the previous one is answered.
+ *
+ * Run with: java -cp <test classpath> ReadLatencyBenchmark [reads per reader] [readers...]
+ */
+public class ReadLatencyBenchmark {
+
+    private static final int SERVERS = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        int reads = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        List<Integer> readerCounts = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) readerCounts.add(Integer.parseInt(args[i]));
+        if (readerCounts.isEmpty()) readerCounts = List.of(1, 8);
+
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            System.out.printf("%-8s %-8s %14s %16s %16s%n", "mode", "readers", "reads/s", "mean latency us", "p99 latency us");
+            for (int readers : readerCounts){
+                run(testKit, false, readers, reads);
+                run(testKit, true, readers, reads);
+            }
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    private static void run(ActorTestKit testKit, boolean leaseReads, int readers, int reads) throws InterruptedException {
+        RaftConfig config = new RaftConfig();
+        config.leaseReads = leaseReads;
+        List<ActorRef<RaftMessage>> servers = new ArrayList<>();
+        for (int i = 0; i < SERVERS; i++){
+            servers.add(testKit.spawn(Follower.create(new SegmentedLogWriter(), new TicketCounter(100), new FailFlag(), config)));
+        }
+        for (ActorRef<RaftMessage> server : servers){
+            List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>(servers);
+            groupRefs.remove(server);
+            server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+            server.tell(new RaftMessage.Start());
+        }
+        ActorRef<RaftMessage> leader = findLeader(testKit, servers);
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readers; i++){
+            TestProbe<ClientMessage> client = testKit.createTestProbe();
+            threads.add(new Thread(() -> {
+                for (int read = 0; read < reads; read++){
+                    long start = System.nanoTime();
+                    leader.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+                    client.expectMessageClass(ClientMessage.ClientCommittedReadResponse.class, Duration.ofSeconds(30));
+                    latencies.add(System.nanoTime() - start);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        long elapsed = System.nanoTime() - start;
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        double mean = sorted.stream().mapToLong(Long::longValue).average().orElse(0) / 1_000;
+        double p99 = sorted.get((int) (sorted.size() * 0.99)) / 1_000.0;
+        System.out.printf("%-8s %-8d %14.0f %16.1f %16.1f%n", leaseReads ? "lease" : "quorum", readers,
+                sorted.size() / (elapsed / 1_000_000_000.0), mean, p99);
+
+        for (ActorRef<RaftMessage> server : servers) testKit.stop(server);
+    }
+
+    // waits for an election and asks every server which role it is in
+    private static ActorRef<RaftMessage> findLeader(ActorTestKit testKit, List<ActorRef<RaftMessage>> servers) throws InterruptedException {
+        TestProbe<RaftMessage> probe = testKit.createTestProbe();
+        while (true){
+            Thread.sleep(200);
+            for (ActorRef<RaftMessage> server : servers){
+                server.tell(new RaftMessage.TestMessage.GetBehavior(probe.ref()));
+                RaftMessage.TestMessage.GetBehaviorResponse response = probe.expectMessageClass(RaftMessage.TestMessage.GetBehaviorResponse.class, Duration.ofSeconds(5));
+                if (response.behavior().equals("LEADER")) return server;
+            }
+        }
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,105 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import datapersistence.SegmentedLogWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.RaftConfig;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Committed read throughput as servers are added. Readers either all send to the leader, or are spread over
+ * every server so followers answer reads from their own state machines after asking the leader for a read
+ * index. Each reader sends its next read as soon as the previous one is answered. All servers share this
+ * JVM's cores, so the numbers show how much of the read work moves off the leader rather than what separate
+ * machines would reach.
+ *
+ * Run with: java -cp <test classpath> ReadScalingBenchmark [seconds per run] [readers]
+ */
+public class ReadScalingBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int readers = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            System.out.printf("%-8s %-10s %14s%n", "servers", "reads to", "reads/s");
+            for (int servers : new int[]{3, 5, 7}){
+                run(testKit, servers, false, readers, seconds);
+                run(testKit, servers, true, readers, seconds);
+            }
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    private static void run(ActorTestKit testKit, int serverCount, boolean spread, int readers, int seconds) throws InterruptedException {
+        RaftConfig config = new RaftConfig();
+        List<ActorRef<RaftMessage>> servers = new ArrayList<>();
+        for (int i = 0; i < serverCount; i++){
+            servers.add(testKit.spawn(Follower.create(new SegmentedLogWriter(), new TicketCounter(100), new FailFlag(), config)));
+        }
+        for (ActorRef<RaftMessage> server : servers){
+            List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>(servers);
+            groupRefs.remove(server);
+            server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+            server.tell(new RaftMessage.Start());
+        }
+        ActorRef<RaftMessage> leader = findLeader(testKit, servers);
+
+        AtomicLong answered = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < readers; i++){
+            ActorRef<RaftMessage> target = spread ? servers.get(i % serverCount) : leader;
+            TestProbe<ClientMessage> client = testKit.createTestProbe();
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() < deadline){
+                    target.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+                    client.expectMessageClass(ClientMessage.ClientCommittedReadResponse.class, Duration.ofSeconds(30));
+                    answered.incrementAndGet();
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-8d %-10s %14.0f%n", serverCount, spread ? "all" : "leader", answered.get() / (elapsed / 1_000_000_000.0));
+
+        for (ActorRef<RaftMessage> server : servers) server.tell(new RaftMessage.ShutDown(null));
+    }
+
+    // waits for an election and asks every server which role it is in
+    private static ActorRef<RaftMessage> findLeader(ActorTestKit testKit, List<ActorRef<RaftMessage>> servers) throws InterruptedException {
+        TestProbe<RaftMessage> probe = testKit.createTestProbe();
+        while (true){
+            Thread.sleep(200);
+            for (ActorRef<RaftMessage> server : servers){
+                server.tell(new RaftMessage.TestMessage.GetBehavior(probe.ref()));
+                RaftMessage.TestMessage.GetBehaviorResponse response = probe.expectMessageClass(RaftMessage.TestMessage.GetBehaviorResponse.class, Duration.ofSeconds(5));
+                if (response.behavior().equals("LEADER")) return server;
+            }
+        }
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
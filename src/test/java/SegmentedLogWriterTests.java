@@ -0,0 +1,142 @@
+import codec.CommandCodecRegistry;
+import datapersistence.SegmentedLogWriter;
+import org.junit.*;
+import statemachine.ConfigurationCommand;
+import statemachine.ConfigurationCommandCodec;
+import statemachine.CounterCommand;
+import statemachine.Entry;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedLogWriterTests {
+
+    private static final int SERVER_ID = 1;
+
+    private void clearDataDirectory(){
+        File dataDir = new File("./data/");
+        File[] contents = dataDir.listFiles();
+        if (contents != null) {
+            for (File file : contents) {
+                deleteDirectory(file);
+            }
+        }
+    }
+
+    private void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+
+    private static List<Entry> getEntries(int term, int firstCommandID, int count) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++){
+            entries.add(new Entry(term, new CounterCommand("client-" + (i % 3), firstCommandID + i, 1)));
+        }
+        return entries;
+    }
+
+    private static SegmentedLogWriter openWriter(int maxSegmentBytes) {
+        SegmentedLogWriter writer = new SegmentedLogWriter(maxSegmentBytes);
+        writer.setServerID(SERVER_ID);
+        CommandCodecRegistry codecs = new CommandCodecRegistry();
+        codecs.register(ConfigurationCommandCodec.TAG, ConfigurationCommand.class, new ConfigurationCommandCodec());
+        new TicketCounter(0).registerCommandCodecs(codecs);
+        writer.setCommandCodecs(codecs);
+        return writer;
+    }
+
+    private static void assertLogMatches(List<Entry> expected, List<Entry> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++){
+            assertEquals(expected.get(i).term(), actual.get(i).term());
+            assertEquals(expected.get(i).command().getCommandID(), actual.get(i).command().getCommandID());
+            assertEquals(expected.get(i).command().getClientRef(), actual.get(i).command().getClientRef());
+        }
+    }
+
+    @After
+    public void tearDown(){
+        clearDataDirectory();
+    }
+
+    @Test
+    public void appendedEntriesAreReadBackInOrder(){
+        SegmentedLogWriter writer = openWriter(4096);
+        List<Entry> log = getEntries(1, 0, 5);
+        writer.appendToLog(0, log.subList(0, 2));
+        writer.appendToLog(2, log.subList(2, 5));
+        assertLogMatches(log, writer.getLog());
+    }
+
+    @Test
+    public void appendingBeforeEndOfLogTruncatesConflictingTail(){
+        SegmentedLogWriter writer = openWriter(4096);
+        List<Entry> log = getEntries(1, 0, 5);
+        writer.appendToLog(0, log);
+        List<Entry> replacement = getEntries(2, 10, 2);
+        writer.appendToLog(3, replacement);
+        List<Entry> expected = new ArrayList<>(log.subList(0, 3));
+        expected.addAll(replacement);
+        assertLogMatches(expected, writer.getLog());
+    }
+
+    @Test
+    public void logSpanningManySegmentsIsTruncatedAcrossSegmentBoundaries(){
+        SegmentedLogWriter writer = openWriter(512);
+        List<Entry> log = getEntries(1, 0, 50);
+        writer.appendToLog(0, log);
+        assertTrue(new File("./data/" + SERVER_ID + "/log/").list().length > 2);
+        writer.appendToLog(7, getEntries(2, 100, 1));
+        List<Entry> expected = new ArrayList<>(log.subList(0, 7));
+        expected.addAll(getEntries(2, 100, 1));
+        assertLogMatches(expected, writer.getLog());
+    }
+
+    @Test
+    public void reopenedWriterRecoversPersistedLog(){
+        SegmentedLogWriter writer = openWriter(512);
+        List<Entry> log = getEntries(1, 0, 30);
+        writer.appendToLog(0, log);
+        writer.appendToLog(20, new ArrayList<>());
+        assertLogMatches(log.subList(0, 20), openWriter(512).getLog());
+    }
+
+    @Test
+    public void reopenedWriterDropsTornRecordAtEndOfSegment() throws Exception {
+        SegmentedLogWriter writer = openWriter(4096);
+        List<Entry> log = getEntries(1, 0, 3);
+        writer.appendToLog(0, log);
+        File segment = new File("./data/" + SERVER_ID + "/log/0000000000.log");
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        assertLogMatches(log.subList(0, 2), openWriter(4096).getLog());
+    }
+
+    @Test
+    public void compactedLogKeepsEntriesAfterSnapshotIndexAcrossReopen(){
+        SegmentedLogWriter writer = openWriter(512);
+        List<Entry> log = getEntries(1, 0, 200);
+        writer.appendToLog(0, log);
+        writer.compactLog(150);
+        SegmentedLogWriter reopened = openWriter(512);
+        int startIndex = reopened.getLogStartIndex();
+        assertTrue(startIndex > 100 && startIndex <= 151);
+        assertLogMatches(log.subList(startIndex, 200), reopened.getLog());
+        reopened.compactLog(250);
+        assertEquals(251, openWriter(512).getLogStartIndex());
+        assertEquals(0, openWriter(512).getLog().size());
+    }
+}
@@ -0,0 +1,220 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import datapersistence.ServerFileWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import org.junit.*;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.Leader;
+import raftstates.RaftConfig;
+import statemachine.*;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ServerElectionTests {
+
+    ActorRef<RaftMessage> server;
+
+    static ActorTestKit testKit;
+
+    TestProbe<RaftMessage> probe;
+
+    ActorRef<RaftMessage> probeRef;
+
+    private void clearDataDirectory(){
+        File dataDir = new File("./data/");
+        File[] contents = dataDir.listFiles();
+        if (contents != null) {
+            for (File file : contents) {
+                deleteDirectory(file);
+            }
+        }
+    }
+
+    private void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+
+    private RaftMessage.ClientUpdateRequest getUpdateRequest(int commandID) {
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        return new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(ActorRefResolver.get(testKit.system()).toSerializationFormat(client.ref()), commandID, 1));
+    }
+
+    private static RaftMessage.AppendEntries expectEntries(TestProbe<RaftMessage> follower) {
+        while (true){
+            RaftMessage.AppendEntries message = follower.expectMessageClass(RaftMessage.AppendEntries.class);
+            if (!message.entries().isEmpty()) return message;
+        }
+    }
+
+    private static <T extends RaftMessage> T expectMessage(TestProbe<RaftMessage> peer, Class<T> messageClass) {
+        while (true){
+            RaftMessage message = peer.receiveMessage();
+            if (messageClass.isInstance(message)) return messageClass.cast(message);
+        }
+    }
+
+    private RaftMessage.TestMessage.GetStateResponse getState() {
+        server.tell(new RaftMessage.TestMessage.GetState(probeRef));
+        while (true){
+            RaftMessage message = probe.receiveMessage();
+            if (message instanceof RaftMessage.TestMessage.GetStateResponse msg) return msg;
+        }
+    }
+
+    @BeforeClass
+    public static void classSetUp(){
+        testKit = ActorTestKit.create();
+    }
+
+    @AfterClass
+    public static void classTearDown(){
+        testKit.shutdownTestKit();
+    }
+
+    @Before
+    public void setUp(){
+        probe = testKit.createTestProbe();
+        probeRef = probe.ref();
+    }
+
+    @After
+    public void tearDown(){
+        clearDataDirectory();
+    }
+
+    @Test
+    public void followerGrantsPreVoteWithoutChangingTermOrVote(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag()));
+        server.tell(new RaftMessage.PreVote(1, probeRef, -1, -1));
+        probe.expectMessage(new RaftMessage.PreVoteResponse(0, true));
+        RaftMessage.TestMessage.GetStateResponse state = getState();
+        assertEquals(0, state.currentTerm());
+        assertNull(state.votedFor());
+    }
+
+    @Test
+    public void followerRefusesPreVoteSoonAfterHearingFromLeader(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, new ArrayList<>(), -1));
+        probe.receiveMessage();
+        server.tell(new RaftMessage.PreVote(5, probeRef, -1, -1));
+        probe.expectMessage(new RaftMessage.PreVoteResponse(1, false));
+        assertEquals(1, getState().currentTerm());
+    }
+
+    @Test
+    public void timedOutFollowerOnlyIncrementsTermOnceAMajorityGrantsItsPreVote(){
+        List<TestProbe<RaftMessage>> peers = new ArrayList<>();
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        for (int i = 0; i < 2; i++){
+            peers.add(testKit.createTestProbe());
+            groupRefs.add(peers.get(i).ref());
+        }
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag()));
+        server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+        server.tell(new RaftMessage.TimeOut());
+        assertEquals(1, peers.get(0).expectMessageClass(RaftMessage.PreVote.class).term());
+        peers.get(0).expectNoMessage(Duration.ofMillis(100));
+        server.tell(new RaftMessage.PreVoteResponse(0, true));
+        assertEquals(1, peers.get(0).expectMessageClass(RaftMessage.RequestVote.class).term());
+    }
+
+    @Test
+    public void leaderRefusesPreVoteFromServerWithHigherTermAndKeepsLeading(){
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(testKit.<RaftMessage>createTestProbe().ref());
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0), new Object(), new FailFlag(), 1, groupRefs, -1, -1));
+        server.tell(new RaftMessage.PreVote(7, probeRef, -1, -1));
+        probe.expectMessage(new RaftMessage.PreVoteResponse(1, false));
+        server.tell(new RaftMessage.TestMessage.GetBehavior(probeRef));
+        probe.expectMessage(new RaftMessage.TestMessage.GetBehaviorResponse("LEADER"));
+    }
+
+    @Test
+    public void leaderSendsTimeoutNowOnceTransferTargetHoldsItsWholeLog(){
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        groupRefs.add(testKit.<RaftMessage>createTestProbe().ref());
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), 1, groupRefs, -1, -1));
+        server.tell(getUpdateRequest(0));
+        expectEntries(probe);   // the leader's no-op
+        expectEntries(probe);
+        server.tell(new RaftMessage.TransferLeadership(probeRef));
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 1));
+        assertEquals(new RaftMessage.TimeoutNow(1, server), expectMessage(probe, RaftMessage.TimeoutNow.class));
+    }
+
+    @Test
+    public void leaderHoldsBackUpdatesDuringTransferAndAppendsThemOnceTransferTimesOut(){
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        RaftConfig config = new RaftConfig();
+        config.checkQuorum = false;
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), config, 1, groupRefs, -1, -1));
+        expectEntries(probe);   // the leader's no-op
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 0));
+        server.tell(new RaftMessage.TransferLeadership(probeRef));
+        server.tell(getUpdateRequest(0));
+        assertEquals(1, getState().log().size());
+        assertEquals(1, expectEntries(probe).prevLogIndex() + 1);
+        assertEquals(2, getState().log().size());
+    }
+
+    @Test
+    public void followerToldToTimeOutNowRequestsVotesWithoutPreVote(){
+        TestProbe<RaftMessage> peer = testKit.createTestProbe();
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        groupRefs.add(peer.ref());
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag()));
+        server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, new ArrayList<>(), -1));
+        server.tell(new RaftMessage.TimeoutNow(1, probeRef));
+        assertEquals(2, peer.expectMessageClass(RaftMessage.RequestVote.class).term());
+    }
+
+    @Test
+    public void leaderStepsDownOnceNoMajorityHasAnsweredWithinAnElectionTimeout(){
+        RaftConfig config = new RaftConfig();
+        config.electionTimeoutMillis = 200;
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        groupRefs.add(testKit.<RaftMessage>createTestProbe().ref());
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0), new Object(), new FailFlag(), config, 1, groupRefs, -1, -1));
+        assertEquals(2, expectMessage(probe, RaftMessage.PreVote.class).term());
+    }
+
+    @Test
+    public void leaderKeepsLeadingWhileAMajorityAnswers(){
+        RaftConfig config = new RaftConfig();
+        config.electionTimeoutMillis = 200;
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        groupRefs.add(testKit.<RaftMessage>createTestProbe().ref());
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0), new Object(), new FailFlag(), config, 1, groupRefs, -1, -1));
+        long deadline = System.nanoTime() + 800_000_000L;
+        while (System.nanoTime() < deadline){
+            expectMessage(probe, RaftMessage.AppendEntries.class);
+            server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, -1));
+        }
+        TestProbe<RaftMessage> behaviorProbe = testKit.createTestProbe();
+        server.tell(new RaftMessage.TestMessage.GetBehavior(behaviorProbe.ref()));
+        behaviorProbe.expectMessage(new RaftMessage.TestMessage.GetBehaviorResponse("LEADER"));
+    }
+}
@@ -0,0 +1,246 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import datapersistence.ServerFileWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import org.junit.*;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.Leader;
+import statemachine.*;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ServerMembershipTests {
+
+    ActorRef<RaftMessage> server;
+
+    static ActorTestKit testKit;
+
+    TestProbe<RaftMessage> probe;
+
+    ActorRef<RaftMessage> probeRef;
+
+    private void clearDataDirectory(){
+        File dataDir = new File("./data/");
+        File[] contents = dataDir.listFiles();
+        if (contents != null) {
+            for (File file : contents) {
+                deleteDirectory(file);
+            }
+        }
+    }
+
+    private void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+
+    private static String serialize(ActorRef<?> ref) {
+        return ActorRefResolver.get(testKit.system()).toSerializationFormat(ref);
+    }
+
+    private static Entry getConfigurationEntry(int term, ActorRef<?>... members) {
+        List<String> serialized = new ArrayList<>();
+        for (ActorRef<?> member : members) serialized.add(serialize(member));
+        return new Entry(term, new ConfigurationCommand(serialized.get(0), 0, serialized));
+    }
+
+    private static Entry getLearnerConfigurationEntry(int term, ActorRef<?> member, ActorRef<?> learner) {
+        return new Entry(term, new ConfigurationCommand(serialize(member), 0, List.of(serialize(member)), List.of(serialize(learner))));
+    }
+
+    private String getBehavior() {
+        TestProbe<RaftMessage> behaviorProbe = testKit.createTestProbe();
+        server.tell(new RaftMessage.TestMessage.GetBehavior(behaviorProbe.ref()));
+        return behaviorProbe.expectMessageClass(RaftMessage.TestMessage.GetBehaviorResponse.class).behavior();
+    }
+
+    private static RaftMessage.AppendEntries expectEntries(TestProbe<RaftMessage> follower) {
+        while (true){
+            RaftMessage.AppendEntries message = follower.expectMessageClass(RaftMessage.AppendEntries.class);
+            if (!message.entries().isEmpty()) return message;
+        }
+    }
+
+    private static <T extends RaftMessage> T expectMessage(TestProbe<RaftMessage> peer, Class<T> messageClass) {
+        while (true){
+            RaftMessage message = peer.receiveMessage();
+            if (messageClass.isInstance(message)) return messageClass.cast(message);
+        }
+    }
+
+    // a leader of term 1 that has committed its no-op and one client entry with the first follower's help
+    private void startLeaderWithCommittedEntry(List<TestProbe<RaftMessage>> followers) {
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        for (TestProbe<RaftMessage> follower : followers) groupRefs.add(follower.ref());
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), 1, groupRefs, -1, -1));
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(serialize(client.ref()), 0, 1)));
+        expectEntries(followers.get(0));
+        expectEntries(followers.get(0));
+        server.tell(new RaftMessage.AppendEntriesResponse(followers.get(0).ref(), 1, true, 1));
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 0));
+    }
+
+    @BeforeClass
+    public static void classSetUp(){
+        testKit = ActorTestKit.create();
+    }
+
+    @AfterClass
+    public static void classTearDown(){
+        testKit.shutdownTestKit();
+    }
+
+    @Before
+    public void setUp(){
+        probe = testKit.createTestProbe();
+        probeRef = probe.ref();
+    }
+
+    @After
+    public void tearDown(){
+        clearDataDirectory();
+    }
+
+    @Test
+    public void leaderAddsNewServerToConfigurationOnceItHasCaughtUp(){
+        TestProbe<RaftMessage> follower = testKit.createTestProbe();
+        TestProbe<RaftMessage> newServer = testKit.createTestProbe();
+        startLeaderWithCommittedEntry(List.of(follower));
+        server.tell(new RaftMessage.AddServer(newServer.ref(), probeRef));
+        assertEquals(1, newServer.expectMessageClass(RaftMessage.AppendEntries.class).prevLogIndex());
+        server.tell(new RaftMessage.AppendEntriesResponse(newServer.ref(), 1, true, 1));
+        RaftMessage.AppendEntries append = expectEntries(newServer);
+        ConfigurationCommand configuration = (ConfigurationCommand) append.entries().get(0).command();
+        assertEquals(2, append.prevLogIndex() + 1);
+        assertEquals(3, configuration.getMembers().size());
+        assertTrue(configuration.getMembers().contains(serialize(newServer.ref())));
+        server.tell(new RaftMessage.AppendEntriesResponse(follower.ref(), 1, true, 2));
+        assertEquals(new RaftMessage.MembershipChangeResponse(true, newServer.ref()), expectMessage(probe, RaftMessage.MembershipChangeResponse.class));
+    }
+
+    @Test
+    public void newLeaderAppendsTheConfigurationInEffectAsItsNoOpAndRefusesChangesUntilItCommits(){
+        TestProbe<RaftMessage> newServer = testKit.createTestProbe();
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), 1, List.of(probeRef), -1, -1));
+        RaftMessage.AppendEntries noOp = expectEntries(probe);
+        ConfigurationCommand configuration = (ConfigurationCommand) noOp.entries().get(0).command();
+        assertEquals(-1, noOp.prevLogIndex());
+        assertEquals(List.of(serialize(server), serialize(probeRef)), configuration.getMembers());
+        server.tell(new RaftMessage.AddServer(newServer.ref(), probeRef));
+        assertEquals(new RaftMessage.MembershipChangeResponse(false, newServer.ref()), expectMessage(probe, RaftMessage.MembershipChangeResponse.class));
+    }
+
+    @Test
+    public void leaderRefusesChangeWhileAnotherIsUnderWay(){
+        startLeaderWithCommittedEntry(List.of(testKit.createTestProbe()));
+        TestProbe<RaftMessage> second = testKit.createTestProbe();
+        server.tell(new RaftMessage.AddServer(testKit.<RaftMessage>createTestProbe().ref(), probeRef));
+        server.tell(new RaftMessage.AddServer(second.ref(), probeRef));
+        assertEquals(new RaftMessage.MembershipChangeResponse(false, second.ref()), expectMessage(probe, RaftMessage.MembershipChangeResponse.class));
+    }
+
+    @Test
+    public void leaderRemovedFromGroupStepsDownOnceRemovalCommits(){
+        TestProbe<RaftMessage> first = testKit.createTestProbe();
+        TestProbe<RaftMessage> second = testKit.createTestProbe();
+        startLeaderWithCommittedEntry(List.of(first, second));
+        server.tell(new RaftMessage.RemoveServer(server, probeRef));
+        ConfigurationCommand configuration = (ConfigurationCommand) expectEntries(first).entries().get(0).command();
+        assertEquals(List.of(serialize(first.ref()), serialize(second.ref())), configuration.getMembers());
+        server.tell(new RaftMessage.AppendEntriesResponse(first.ref(), 1, true, 2));
+        server.tell(new RaftMessage.AppendEntriesResponse(second.ref(), 1, true, 2));
+        assertEquals(new RaftMessage.MembershipChangeResponse(true, server), expectMessage(probe, RaftMessage.MembershipChangeResponse.class));
+        TestProbe<RaftMessage> behaviorProbe = testKit.createTestProbe();
+        behaviorProbe.expectNoMessage(Duration.ofMillis(300));  // the leader steps down on its next heartbeat timer
+        server.tell(new RaftMessage.TestMessage.GetBehavior(behaviorProbe.ref()));
+        behaviorProbe.expectMessage(new RaftMessage.TestMessage.GetBehaviorResponse("FOLLOWER"));
+    }
+
+    @Test
+    public void followerUsesConfigurationAsSoonAsItIsAppended(){
+        TestProbe<RaftMessage> newServer = testKit.createTestProbe();
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag()));
+        server.tell(new RaftMessage.SetGroupRefs(List.of(probeRef)));
+        List<Entry> entries = List.of(getConfigurationEntry(1, probeRef, server, newServer.ref()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, entries, -1));
+        server.tell(new RaftMessage.TimeOut());
+        assertEquals(2, newServer.expectMessageClass(RaftMessage.PreVote.class).term());
+    }
+
+    @Test
+    public void followerRemovedFromConfigurationDoesNotStartElections(){
+        TestProbe<RaftMessage> peer = testKit.createTestProbe();
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag()));
+        server.tell(new RaftMessage.SetGroupRefs(List.of(probeRef, peer.ref())));
+        List<Entry> entries = List.of(getConfigurationEntry(1, probeRef, peer.ref()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, entries, 0));
+        server.tell(new RaftMessage.TimeOut());
+        peer.expectNoMessage(Duration.ofMillis(200));
+    }
+
+    @Test
+    public void leaderCommitsWithoutWaitingForLearner(){
+        TestProbe<RaftMessage> follower = testKit.createTestProbe();
+        TestProbe<RaftMessage> learner = testKit.createTestProbe();
+        startLeaderWithCommittedEntry(List.of(follower));
+        server.tell(new RaftMessage.AddLearner(learner.ref(), probeRef));
+        ConfigurationCommand configuration = (ConfigurationCommand) expectEntries(follower).entries().get(0).command();
+        assertEquals(List.of(serialize(learner.ref())), configuration.getLearners());
+        server.tell(new RaftMessage.AppendEntriesResponse(follower.ref(), 1, true, 2));
+        assertEquals(new RaftMessage.MembershipChangeResponse(true, learner.ref()), expectMessage(probe, RaftMessage.MembershipChangeResponse.class));
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(serialize(client.ref()), 0, 1)));
+        assertEquals(3, expectEntries(follower).prevLogIndex() + 1);
+        server.tell(new RaftMessage.AppendEntriesResponse(follower.ref(), 1, true, 3));
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 0));
+    }
+
+    @Test
+    public void followerListedAsLearnerRefusesVotesAndDoesNotStartElections(){
+        TestProbe<RaftMessage> candidate = testKit.createTestProbe();
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag()));
+        server.tell(new RaftMessage.SetGroupRefs(List.of(probeRef)));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, List.of(getLearnerConfigurationEntry(1, probeRef, server)), 0));
+        assertEquals("LEARNER", getBehavior());
+        server.tell(new RaftMessage.RequestVote(2, candidate.ref(), 0, 1, false));
+        candidate.expectMessage(new RaftMessage.RequestVoteResponse(1, false));
+        server.tell(new RaftMessage.TimeOut());
+        probe.expectMessageClass(RaftMessage.AppendEntriesResponse.class);
+        probe.expectNoMessage(Duration.ofMillis(200));
+    }
+
+    @Test
+    public void learnerServesLaggedReadsFromItsCommittedState(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        List<Entry> entries = List.of(getLearnerConfigurationEntry(1, probeRef, server), new Entry(1, new CounterCommand(serialize(client.ref()), 0, 3)));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, entries, 1));
+        server.tell(new RaftMessage.ClientLaggedReadRequest(client.ref()));
+        client.expectMessage(new ClientMessage.ClientCommittedReadResponse<>(7));
+    }
+
+    @Test
+    public void learnerPromotedToVoterReturnsToFollowerRole(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, List.of(getLearnerConfigurationEntry(1, probeRef, server)), 0));
+        assertEquals("LEARNER", getBehavior());
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, 0, 1, List.of(getConfigurationEntry(1, probeRef, server)), 1));
+        assertEquals("FOLLOWER", getBehavior());
+    }
+}
@@ -0,0 +1,455 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import datapersistence.ServerFileWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import org.junit.*;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.Leader;
+import raftstates.RaftConfig;
+import statemachine.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ServerReplicationTests {
+
+    ActorRef<RaftMessage> server;
+
+    static ActorTestKit testKit;
+
+    TestProbe<RaftMessage> probe;
+
+    ActorRef<RaftMessage> probeRef;
+
+    TestProbe<ClientMessage> clientProbe;
+
+    static ActorRefResolver refResolver;
+
+    private void clearDataDirectory(){
+        File dataDir = new File("./data/");
+        File[] contents = dataDir.listFiles();
+        if (contents != null) {
+            for (File file : contents) {
+                deleteDirectory(file);
+            }
+        }
+    }
+
+    private void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+
+    // batching is turned off so each update is replicated on its own
+    private static RaftConfig getConfig(int maxInFlightAppends) {
+        RaftConfig config = new RaftConfig();
+        config.maxInFlightAppends = maxInFlightAppends;
+        config.batchWindowMillis = 0;
+        return config;
+    }
+
+    private static RaftConfig getBatchingConfig(int batchWindowMillis, int maxBatchEntries) {
+        RaftConfig config = new RaftConfig();
+        config.batchWindowMillis = batchWindowMillis;
+        config.maxBatchEntries = maxBatchEntries;
+        return config;
+    }
+
+    private RaftMessage.ClientUpdateRequest getUpdateRequest(int commandID) {
+        return new RaftMessage.ClientUpdateRequest(clientProbe.ref(), new CounterCommand(refResolver.toSerializationFormat(clientProbe.ref()), commandID, 1));
+    }
+
+    private List<Entry> getEntries(int term, int firstCommandID, int count) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++){
+            entries.add(new Entry(term, new CounterCommand(refResolver.toSerializationFormat(clientProbe.ref()), firstCommandID + i, 1)));
+        }
+        return entries;
+    }
+
+    // a leader in term 3 whose log holds two entries of each of the terms 1, 2 and 3
+    private void spawnLeaderWithTerms() {
+        List<Entry> log = getEntries(1, 0, 2);
+        log.addAll(getEntries(2, 2, 2));
+        log.addAll(getEntries(3, 4, 2));
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), getConfig(8), 3, groupRefs, -1, -1));
+        expectNoOp();
+        server.tell(new RaftMessage.TestMessage.SaveEntries(log));
+    }
+
+    // skips heartbeats, which carry no entries
+    private RaftMessage.AppendEntries expectEntries(TestProbe<RaftMessage> follower) {
+        for (int i = 0; i < 50; i++){
+            RaftMessage message = follower.receiveMessage();
+            if (message instanceof RaftMessage.AppendEntries msg && !msg.entries().isEmpty()) return msg;
+        }
+        throw new AssertionError("no AppendEntries with entries received");
+    }
+
+    // a log whose syncs only complete when the test releases them
+    private static class HeldSyncFileWriter extends ServerFileWriter {
+
+        private final List<Runnable> heldSyncs = new ArrayList<>();
+
+        private volatile boolean closed;
+
+        @Override
+        public synchronized void syncLogAsync(Runnable onDurable) {
+            this.heldSyncs.add(onDurable);
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+
+        synchronized void releaseSyncs() {
+            for (Runnable onDurable : this.heldSyncs) onDurable.run();
+            this.heldSyncs.clear();
+        }
+    }
+
+    // a new leader first appends a no-op of its term at index 0
+    private void expectNoOp() {
+        RaftMessage.AppendEntries noOp = expectEntries(probe);
+        assertEquals(-1, noOp.prevLogIndex());
+        assertTrue(noOp.entries().get(0).command() instanceof ConfigurationCommand);
+    }
+
+    // acknowledged so the leader does not resend it once its timer fires
+    private void acknowledgeNoOp() {
+        expectNoOp();
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 0));
+    }
+
+    private void spawnLeader(RaftConfig config) {
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        groupRefs.add(testKit.<RaftMessage>createTestProbe().ref());
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), config, 1, groupRefs, -1, -1));
+        acknowledgeNoOp();
+    }
+
+    private void replicateFirstEntry() {
+        server.tell(getUpdateRequest(0));
+        RaftMessage.AppendEntries probeMessage = expectEntries(probe);
+        assertEquals(0, probeMessage.prevLogIndex());
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 1));
+    }
+
+    @BeforeClass
+    public static void classSetUp(){
+        testKit = ActorTestKit.create();
+        refResolver = ActorRefResolver.get(testKit.system());
+    }
+
+    @AfterClass
+    public static void classTearDown(){
+        testKit.shutdownTestKit();
+    }
+
+    @Before
+    public void setUp(){
+        probe = testKit.createTestProbe();
+        probeRef = probe.ref();
+        clientProbe = testKit.createTestProbe();
+    }
+
+    @After
+    public void tearDown(){
+        clearDataDirectory();
+    }
+
+    @Test
+    public void leaderPipelinesNewEntriesWithoutWaitingForAcknowledgement(){
+        spawnLeader(getConfig(8));
+        replicateFirstEntry();
+        server.tell(getUpdateRequest(1));
+        server.tell(getUpdateRequest(2));
+        RaftMessage.AppendEntries first = expectEntries(probe);
+        RaftMessage.AppendEntries second = expectEntries(probe);
+        assertEquals(1, first.prevLogIndex());
+        assertEquals(1, first.entries().size());
+        assertEquals(2, second.prevLogIndex());
+        assertEquals(1, second.entries().size());
+    }
+
+    @Test
+    public void leaderStopsSendingWhenInFlightWindowIsFull(){
+        spawnLeader(getConfig(1));
+        replicateFirstEntry();
+        server.tell(getUpdateRequest(1));
+        server.tell(getUpdateRequest(2));
+        assertEquals(1, expectEntries(probe).prevLogIndex());
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 2));
+        RaftMessage.AppendEntries next = expectEntries(probe);
+        assertEquals(2, next.prevLogIndex());
+        assertEquals(1, next.entries().size());
+    }
+
+    @Test
+    public void rejectedAppendEntriesFallsBackToProbingAfterMatchIndex(){
+        spawnLeader(getConfig(8));
+        replicateFirstEntry();
+        server.tell(getUpdateRequest(1));
+        server.tell(getUpdateRequest(2));
+        expectEntries(probe);
+        expectEntries(probe);
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, false, 2));
+        RaftMessage.AppendEntries retry = expectEntries(probe);
+        assertEquals(1, retry.prevLogIndex());
+        assertEquals(2, retry.entries().size());
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 3));
+        server.tell(getUpdateRequest(3));
+        RaftMessage.AppendEntries resumed = expectEntries(probe);
+        assertEquals(3, resumed.prevLogIndex());
+        assertEquals(1, resumed.entries().size());
+    }
+
+    @Test
+    public void updatesArrivingWithinBatchWindowAreReplicatedTogether(){
+        spawnLeader(getBatchingConfig(200, 128));
+        replicateFirstEntry();
+        server.tell(getUpdateRequest(1));
+        server.tell(getUpdateRequest(2));
+        server.tell(getUpdateRequest(3));
+        RaftMessage.AppendEntries batch = expectEntries(probe);
+        assertEquals(1, batch.prevLogIndex());
+        assertEquals(3, batch.entries().size());
+    }
+
+    @Test
+    public void fullBatchIsFlushedBeforeWindowExpires(){
+        spawnLeader(getBatchingConfig(60_000, 2));
+        server.tell(getUpdateRequest(0));
+        server.tell(getUpdateRequest(1));
+        RaftMessage.AppendEntries batch = expectEntries(probe);
+        assertEquals(0, batch.prevLogIndex());
+        assertEquals(2, batch.entries().size());
+    }
+
+    @Test
+    public void batchedUpdatesAreAcknowledgedOnceReplicated(){
+        spawnLeader(getBatchingConfig(60_000, 2));
+        server.tell(getUpdateRequest(0));
+        server.tell(getUpdateRequest(1));
+        expectEntries(probe);
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 2));
+        clientProbe.expectMessage(new ClientMessage.ClientUpdateResponse(true, 0));
+        clientProbe.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
+    }
+
+    @Test
+    public void batchedUpdatesAreForwardedToNextLeaderAfterSteppingDown(){
+        spawnLeader(getBatchingConfig(60_000, 128));
+        server.tell(getUpdateRequest(0));
+        TestProbe<RaftMessage> newLeader = testKit.createTestProbe();
+        server.tell(new RaftMessage.AppendEntries(2, newLeader.ref(), -1, -1, new ArrayList<>(), -1));
+        server.tell(new RaftMessage.AppendEntries(2, newLeader.ref(), -1, -1, new ArrayList<>(), -1));
+        while (true){
+            RaftMessage message = newLeader.receiveMessage();
+            if (message instanceof RaftMessage.ClientUpdateRequest msg){
+                assertEquals(0, msg.command().getCommandID());
+                return;
+            }
+        }
+    }
+
+    @Test
+    public void followerRejectionReportsConflictingTermAndItsFirstIndex(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, getEntries(1, 0, 3), -1));
+        server.tell(new RaftMessage.AppendEntries(2, probeRef, 2, 1, getEntries(2, 3, 2), -1));
+        server.tell(new RaftMessage.AppendEntries(3, probeRef, 4, 3, new ArrayList<>(), -1));
+        probe.receiveMessage();
+        probe.receiveMessage();
+        probe.expectMessage(new RaftMessage.AppendEntriesResponse(server, 3, false, 4, 2, 3));
+    }
+
+    @Test
+    public void followerWithDivergedTailDoesNotCommitItFromHeartbeat(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, getEntries(1, 0, 3), -1));
+        server.tell(new RaftMessage.AppendEntries(2, probeRef, -1, -1, new ArrayList<>(), 2));
+        probe.receiveMessage();
+        probe.expectMessage(new RaftMessage.AppendEntriesResponse(server, 2, true, -1));
+        server.tell(new RaftMessage.TestMessage.GetStateMachineState(probeRef));
+        probe.expectMessage(new RaftMessage.TestMessage.GetStateMachineStateResponse<Integer>(10));
+
+        List<Entry> newerEntries = getEntries(2, 3, 1);
+        newerEntries.add(new Entry(2, new CounterCommand(refResolver.toSerializationFormat(clientProbe.ref()), 4, 3)));
+        server.tell(new RaftMessage.AppendEntries(2, probeRef, 0, 1, newerEntries, 2));
+        probe.expectMessage(new RaftMessage.AppendEntriesResponse(server, 2, true, 2));
+        server.tell(new RaftMessage.TestMessage.GetStateMachineState(probeRef));
+        probe.expectMessage(new RaftMessage.TestMessage.GetStateMachineStateResponse<Integer>(5));
+    }
+
+    @Test
+    public void followerWithShortLogReportsItsLength(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, getEntries(1, 0, 2), -1));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, 9, 1, new ArrayList<>(), -1));
+        probe.receiveMessage();
+        probe.expectMessage(new RaftMessage.AppendEntriesResponse(server, 1, false, 9, -1, 2));
+    }
+
+    @Test
+    public void leaderSkipsConflictingTermItDoesNotHold(){
+        spawnLeaderWithTerms();
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 3, false, 5, 4, 2));
+        RaftMessage.AppendEntries retry = expectEntries(probe);
+        assertEquals(1, retry.prevLogIndex());
+        assertEquals(4, retry.entries().size());
+    }
+
+    @Test
+    public void leaderResumesAfterItsLastEntryOfConflictingTerm(){
+        spawnLeaderWithTerms();
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 3, false, 5, 2, 2));
+        RaftMessage.AppendEntries retry = expectEntries(probe);
+        assertEquals(3, retry.prevLogIndex());
+        assertEquals(2, retry.entries().size());
+    }
+
+    @Test
+    public void appendEntriesCarryAtMostMaxAppendEntries(){
+        RaftConfig config = getConfig(8);
+        config.maxAppendEntries = 2;
+        spawnLeader(config);
+        server.tell(new RaftMessage.TestMessage.SaveEntries(getEntries(1, 0, 5)));
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, false, 4, -1, 0));
+        RaftMessage.AppendEntries probeMessage = expectEntries(probe);
+        assertEquals(-1, probeMessage.prevLogIndex());
+        assertEquals(2, probeMessage.entries().size());
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 1));
+        assertEquals(2, expectEntries(probe).entries().size());
+        assertEquals(1, expectEntries(probe).entries().size());
+    }
+
+    @Test
+    public void appendEntriesOverByteLimitCarryOneEntry(){
+        RaftConfig config = getConfig(8);
+        config.maxAppendBytes = 1;
+        spawnLeader(config);
+        server.tell(new RaftMessage.TestMessage.SaveEntries(getEntries(1, 0, 3)));
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, false, 2, -1, 0));
+        assertEquals(1, expectEntries(probe).entries().size());
+    }
+
+    private int getCommitIndex() {
+        TestProbe<RaftMessage> stateProbe = testKit.createTestProbe();
+        server.tell(new RaftMessage.TestMessage.GetState(stateProbe.ref()));
+        return stateProbe.expectMessageClass(RaftMessage.TestMessage.GetStateResponse.class).commitIndex();
+    }
+
+    @Test
+    public void entriesFromEarlierTermsCommitOnlyWithAnEntryFromCurrentTerm(){
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), getConfig(8), 2, groupRefs, -1, -1));
+        expectNoOp();
+        server.tell(new RaftMessage.TestMessage.SaveEntries(getEntries(1, 0, 2)));
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 2, true, 1));
+        assertEquals(-1, getCommitIndex());
+        server.tell(getUpdateRequest(2));
+        expectEntries(probe);
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 2, true, 2));
+        assertEquals(2, getCommitIndex());
+    }
+
+    @Test
+    public void newLeaderCommitsEntriesFromEarlierTermsWithItsNoOp(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag(), getConfig(8)));
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, getEntries(1, 0, 2), -1));
+        probe.expectMessageClass(RaftMessage.AppendEntriesResponse.class);
+        server.tell(new RaftMessage.TimeOut());
+        probe.expectMessageClass(RaftMessage.PreVote.class);
+        server.tell(new RaftMessage.PreVoteResponse(1, true));
+        probe.expectMessageClass(RaftMessage.RequestVote.class);
+        server.tell(new RaftMessage.RequestVoteResponse(2, true));
+        RaftMessage.AppendEntries noOp = expectEntries(probe);
+        assertEquals(1, noOp.prevLogIndex());
+        assertEquals(2, noOp.entries().get(0).term());
+        assertEquals(-1, getCommitIndex());
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 2, true, 2));
+        clientProbe.expectMessage(new ClientMessage.ClientUpdateResponse(true, 0));
+        clientProbe.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
+        assertEquals(2, getCommitIndex());
+    }
+
+    @Test
+    public void entryCommitsOnceMajorityOfFiveServersHoldIt(){
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        TestProbe<RaftMessage> secondFollower = testKit.createTestProbe();
+        groupRefs.add(secondFollower.ref());
+        groupRefs.add(testKit.<RaftMessage>createTestProbe().ref());
+        groupRefs.add(testKit.<RaftMessage>createTestProbe().ref());
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), getConfig(8), 1, groupRefs, -1, -1));
+        acknowledgeNoOp();
+        server.tell(getUpdateRequest(0));
+        expectEntries(probe);
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 1));
+        assertEquals(-1, getCommitIndex());
+        server.tell(new RaftMessage.AppendEntriesResponse(secondFollower.ref(), 1, true, 1));
+        clientProbe.expectMessage(new ClientMessage.ClientUpdateResponse(true, 0));
+    }
+
+    @Test
+    public void leaderReplicatesBeforeItsOwnWriteIsDurableAndCountsItselfOnceItIs(){
+        HeldSyncFileWriter dataManager = new HeldSyncFileWriter();
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        groupRefs.add(testKit.<RaftMessage>createTestProbe().ref());
+        server = testKit.spawn(Leader.create(dataManager, new TicketCounter(10), new Object(), new FailFlag(), getConfig(8), 1, groupRefs, -1, -1));
+        acknowledgeNoOp();
+        server.tell(getUpdateRequest(0));
+        assertEquals(1, expectEntries(probe).prevLogIndex() + 1);
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 1));
+        assertEquals(-1, getCommitIndex());
+        dataManager.releaseSyncs();
+        clientProbe.expectMessage(new ClientMessage.ClientUpdateResponse(true, 0));
+    }
+
+    @Test
+    public void majorityOfFollowersCommitsEntryLeaderHasNotMadeDurable(){
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        TestProbe<RaftMessage> secondFollower = testKit.createTestProbe();
+        groupRefs.add(secondFollower.ref());
+        server = testKit.spawn(Leader.create(new HeldSyncFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), getConfig(8), 1, groupRefs, -1, -1));
+        acknowledgeNoOp();
+        server.tell(getUpdateRequest(0));
+        expectEntries(probe);
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 1));
+        server.tell(new RaftMessage.AppendEntriesResponse(secondFollower.ref(), 1, true, 1));
+        clientProbe.expectMessage(new ClientMessage.ClientUpdateResponse(true, 0));
+    }
+
+    @Test
+    public void serverClosesItsLogOnceShutDown() throws InterruptedException {
+        HeldSyncFileWriter dataManager = new HeldSyncFileWriter();
+        server = testKit.spawn(Follower.create(dataManager, new TicketCounter(10), new FailFlag()));
+        server.tell(new RaftMessage.ShutDown(null));
+        for (int i = 0; i < 30 && !dataManager.closed; i++) Thread.sleep(100);
+        assertTrue(dataManager.closed);
+    }
+}
@@ -0,0 +1,174 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import datapersistence.ServerFileWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import org.junit.*;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.Leader;
+import raftstates.RaftConfig;
+import statemachine.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ServerSnapshotTests {
+
+    ActorRef<RaftMessage> server;
+
+    static ActorTestKit testKit;
+
+    TestProbe<RaftMessage> probe;
+
+    ActorRef<RaftMessage> probeRef;
+
+    static TestProbe<ClientMessage> clientProbe;
+
+    static ActorRefResolver refResolver;
+
+    private void clearDataDirectory(){
+        File dataDir = new File("./data/");
+        File[] contents = dataDir.listFiles();
+        if (contents != null) {
+            for (File file : contents) {
+                deleteDirectory(file);
+            }
+        }
+    }
+
+    private void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+
+    private static List<Entry> getEntries(int count) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++){
+            entries.add(new Entry(1, new CounterCommand(refResolver.toSerializationFormat(clientProbe.ref()), i, 1)));
+        }
+        return entries;
+    }
+
+    private static RaftConfig getConfig(int snapshotInterval) {
+        RaftConfig config = new RaftConfig();
+        config.snapshotInterval = snapshotInterval;
+        return config;
+    }
+
+    // snapshots are taken by the apply stage after the entries are applied, so poll until the log is compacted
+    private RaftMessage.TestMessage.GetStateResponse awaitLogSize(int size) {
+        for (int i = 0; i < 100; i++){
+            server.tell(new RaftMessage.TestMessage.GetState(probeRef));
+            RaftMessage message = probe.receiveMessage();
+            while (!(message instanceof RaftMessage.TestMessage.GetStateResponse)) message = probe.receiveMessage();
+            RaftMessage.TestMessage.GetStateResponse state = (RaftMessage.TestMessage.GetStateResponse) message;
+            if (state.log().size() == size) return state;
+        }
+        throw new AssertionError("log never compacted to " + size + " entries");
+    }
+
+    private RaftMessage.InstallSnapshot expectInstallSnapshot(TestProbe<RaftMessage> follower) {
+        for (int i = 0; i < 50; i++){
+            RaftMessage message = follower.receiveMessage();
+            if (message instanceof RaftMessage.InstallSnapshot msg) return msg;
+        }
+        throw new AssertionError("no InstallSnapshot received");
+    }
+
+    @BeforeClass
+    public static void classSetUp(){
+        testKit = ActorTestKit.create();
+        clientProbe = testKit.createTestProbe();
+        refResolver = ActorRefResolver.get(testKit.system());
+    }
+
+    @AfterClass
+    public static void classTearDown(){
+        testKit.shutdownTestKit();
+    }
+
+    @Before
+    public void setUp(){
+        probe = testKit.createTestProbe();
+        probeRef = probe.ref();
+    }
+
+    @After
+    public void tearDown(){
+        clearDataDirectory();
+    }
+
+    @Test
+    public void followerCompactsLogOnceSnapshotIntervalIsApplied(){
+        ServerFileWriter dataManager = new ServerFileWriter();
+        server = testKit.spawn(Follower.create(dataManager, new TicketCounter(10), new FailFlag(), getConfig(3)));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, getEntries(5), 3));
+        probe.expectMessage(new RaftMessage.AppendEntriesResponse(server, 1, true, 4));
+        RaftMessage.TestMessage.GetStateResponse state = awaitLogSize(1);
+        assertEquals(3, state.commitIndex());
+        assertEquals(3, dataManager.getSnapshot().lastIncludedIndex());
+        assertEquals(6, dataManager.getSnapshot().state());
+        assertEquals(4, dataManager.getLogStartIndex());
+    }
+
+    @Test
+    public void followerRecoversStateFromSnapshotAfterFailure(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag(), getConfig(2)));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, getEntries(4), 2));
+        awaitLogSize(1);
+        server.tell(new RaftMessage.Failure());
+        server.tell(new RaftMessage.TestMessage.GetStateMachineState(probeRef));
+        probe.expectMessage(new RaftMessage.TestMessage.GetStateMachineStateResponse<Integer>(7));
+    }
+
+    @Test
+    public void leaderSendsSnapshotToFollowerWhoseNextEntryWasCompacted(){
+        TestProbe<RaftMessage> laggingFollower = testKit.createTestProbe();
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        groupRefs.add(laggingFollower.ref());
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), getConfig(2), 1, groupRefs, -1, -1));
+        server.tell(new RaftMessage.TestMessage.SaveEntries(getEntries(3)));
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 2));
+        server.tell(new RaftMessage.AppendEntriesResponse(laggingFollower.ref(), 1, false, 2));
+        Snapshot snapshot = expectInstallSnapshot(laggingFollower).snapshot();
+        assertEquals(2, snapshot.lastIncludedIndex());
+        assertEquals(1, snapshot.lastIncludedTerm());
+        assertEquals(7, snapshot.state());
+    }
+
+    @Test
+    public void followerInstallsSnapshotAndAcceptsEntriesThatFollowIt(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        server.tell(new RaftMessage.InstallSnapshot(1, probeRef, new Snapshot(4, 1, 5)));
+        probe.expectMessage(new RaftMessage.InstallSnapshotResponse(server, 1, 4));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, 4, 1, getEntries(1), 5));
+        probe.expectMessage(new RaftMessage.AppendEntriesResponse(server, 1, true, 5));
+        server.tell(new RaftMessage.TestMessage.GetStateMachineState(probeRef));
+        probe.expectMessage(new RaftMessage.TestMessage.GetStateMachineStateResponse<Integer>(4));
+    }
+
+    @Test
+    public void followerSkipsRetryAlreadyAppliedBeforeInstalledSnapshot(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        SessionTable sessions = new SessionTable();
+        sessions.record(getEntries(1).get(0).command(), 4, 100);
+        server.tell(new RaftMessage.InstallSnapshot(1, probeRef, new Snapshot(4, 1, 5, sessions)));
+        probe.expectMessage(new RaftMessage.InstallSnapshotResponse(server, 1, 4));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, 4, 1, getEntries(1), 5));
+        probe.expectMessage(new RaftMessage.AppendEntriesResponse(server, 1, true, 5));
+        server.tell(new RaftMessage.TestMessage.GetStateMachineState(probeRef));
+        probe.expectMessage(new RaftMessage.TestMessage.GetStateMachineStateResponse<Integer>(5));
+    }
+}
@@ -0,0 +1,141 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import datapersistence.ServerFileWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import org.junit.*;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import raftstates.Leader;
+import statemachine.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ServerStateHandoffTests {
+
+    ActorRef<RaftMessage> server;
+
+    static ActorTestKit testKit;
+
+    TestProbe<RaftMessage> probe;
+
+    ActorRef<RaftMessage> probeRef;
+
+    static TestProbe<ClientMessage> clientProbe;
+
+    static ActorRefResolver refResolver;
+
+    private void clearDataDirectory(){
+        File dataDir = new File("./data/");
+        File[] contents = dataDir.listFiles();
+        if (contents != null) {
+            for (File file : contents) {
+                deleteDirectory(file);
+            }
+        }
+    }
+
+    private void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+
+    private static List<Entry> getEntries(int count) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++){
+            entries.add(new Entry(1, new CounterCommand(refResolver.toSerializationFormat(clientProbe.ref()), i, 1)));
+        }
+        return entries;
+    }
+
+    private RaftMessage.TestMessage.GetStateResponse getState() {
+        server.tell(new RaftMessage.TestMessage.GetState(probeRef));
+        while (true){
+            RaftMessage message = probe.receiveMessage();
+            if (message instanceof RaftMessage.TestMessage.GetStateResponse msg) return msg;
+        }
+    }
+
+    private Object getStateMachineState() {
+        server.tell(new RaftMessage.TestMessage.GetStateMachineState(probeRef));
+        while (true){
+            RaftMessage message = probe.receiveMessage();
+            if (message instanceof RaftMessage.TestMessage.GetStateMachineStateResponse<?> msg) return msg.state();
+        }
+    }
+
+    @BeforeClass
+    public static void classSetUp(){
+        testKit = ActorTestKit.create();
+        clientProbe = testKit.createTestProbe();
+        refResolver = ActorRefResolver.get(testKit.system());
+    }
+
+    @AfterClass
+    public static void classTearDown(){
+        testKit.shutdownTestKit();
+    }
+
+    @Before
+    public void setUp(){
+        probe = testKit.createTestProbe();
+        probeRef = probe.ref();
+    }
+
+    @After
+    public void tearDown(){
+        clearDataDirectory();
+    }
+
+    @Test
+    public void leaderSteppingDownKeepsAppliedStateWithoutReapplyingEntries(){
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10), new Object(), new FailFlag(), 1, groupRefs, -1, -1));
+        server.tell(new RaftMessage.TestMessage.SaveEntries(getEntries(2)));
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 1, true, 1));
+        server.tell(new RaftMessage.AppendEntries(2, probeRef, -1, -1, new ArrayList<>(), -1));
+        server.tell(new RaftMessage.AppendEntries(2, probeRef, 1, 1, new ArrayList<>(), 1));
+        assertEquals(8, getStateMachineState());
+        RaftMessage.TestMessage.GetStateResponse state = getState();
+        assertEquals(2, state.log().size());
+        assertEquals(1, state.commitIndex());
+        assertEquals(1, state.lastApplied());
+    }
+
+    @Test
+    public void candidateElectedLeaderKeepsLogReceivedAsFollower(){
+        List<TestProbe<RaftMessage>> peers = new ArrayList<>();
+        List<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        for (int i = 0; i < 2; i++){
+            peers.add(testKit.createTestProbe());
+            groupRefs.add(peers.get(i).ref());
+        }
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        server.tell(new RaftMessage.SetGroupRefs(groupRefs));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, getEntries(3), 2));
+        server.tell(new RaftMessage.TimeOut());
+        server.tell(new RaftMessage.PreVoteResponse(1, true));
+        server.tell(new RaftMessage.RequestVoteResponse(2, true));
+        server.tell(new RaftMessage.TestMessage.GetBehavior(probeRef));
+        probe.receiveMessage();
+        probe.expectMessage(new RaftMessage.TestMessage.GetBehaviorResponse("LEADER"));
+        assertEquals(7, getStateMachineState());
+        RaftMessage.TestMessage.GetStateResponse state = getState();
+        assertEquals(2, state.currentTerm());
+        assertEquals(4, state.log().size());
+        assertEquals(2, state.log().get(3).term());     // the new leader's no-op follows the entries it kept
+        assertEquals(2, state.lastApplied());
+    }
+}
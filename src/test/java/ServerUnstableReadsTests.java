@@ -10,11 +10,15 @@ import raftstates.Candidate;
 import raftstates.FailFlag;
 import raftstates.Follower;
 import raftstates.Leader;
+import raftstates.RaftConfig;
 import statemachine.*;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
 
 public class ServerUnstableReadsTests {
 
@@ -70,10 +74,57 @@ public class ServerUnstableReadsTests {
         }
         return groupRefs;
     }
+
+    // committed reads are answered once a majority has acknowledged a heartbeat sent after the read arrived
+    private void acknowledgeHeartbeats(TestProbe<RaftMessage> follower, int count){
+        while (count > 0){
+            if (follower.receiveMessage() instanceof RaftMessage.AppendEntries msg){
+                server.tell(new RaftMessage.AppendEntriesResponse(follower.ref(), msg.term(), true, msg.prevLogIndex() + msg.entries().size()));
+                count--;
+            }
+        }
+    }
+
+    // a follower that has not yet appended the new leader's no-op, which may be resent meanwhile; returns how often it was sent
+    private int acknowledgeOnlyHeartbeats(TestProbe<RaftMessage> follower, int count){
+        int noOpsSent = 0;
+        while (count > 0){
+            if (follower.receiveMessage() instanceof RaftMessage.AppendEntries msg){
+                if (msg.entries().isEmpty()){
+                    server.tell(new RaftMessage.AppendEntriesResponse(follower.ref(), msg.term(), true, -1));
+                    count--;
+                } else {
+                    noOpsSent++;
+                }
+            }
+        }
+        return noOpsSent;
+    }
+
+    // a state machine whose batches are held until the test releases them
+    private static class HeldCounter extends TicketCounter {
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        HeldCounter(int count){
+            super(count);
+        }
+
+        @Override
+        public void applyAll(List<CounterCommand> commands) {
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            super.applyAll(commands);
+        }
+    }
+
     private static List<Entry> getEntries(int count) {
         List<Entry> entries = new ArrayList<>();
         for (int i = 0; i < count; i++){
-            entries.add(new Entry(1, createCommand()));
+            entries.add(new Entry(1, new CounterCommand("", i + 1, 1)));
         }
         return entries;
     }
@@ -117,13 +168,13 @@ public class ServerUnstableReadsTests {
     }
 
     @Test
-    public void followerReceivesStableReadForwardsRequestToLeader(){
+    public void followerReceivesStableReadAsksLeaderForReadIndex(){
         TestProbe<ClientMessage> client = testKit.createTestProbe();
         server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag()));
         server.tell(new RaftMessage.AppendEntries(0, probeRef, -1,-1, new ArrayList<>(), -1));
         server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
         probe.receiveMessage();
-        probe.expectMessage(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        probe.expectMessage(new RaftMessage.ReadIndexRequest(server, 1));
     }
 
     @Test
@@ -157,6 +208,24 @@ public class ServerUnstableReadsTests {
         client.expectMessage(new ClientMessage.ClientUnstableReadResponse<Integer>(-1));
     }
 
+    @Test
+    public void followerRebuildsTentativeStateWhileABatchIsBeingApplied(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        HeldCounter stateMachine = new HeldCounter(10);
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), stateMachine, new FailFlag()));
+        try {
+            server.tell(new RaftMessage.AppendEntries(1, probeRef, -1,-1, getEntries(3), 0));
+            probe.expectMessage(new RaftMessage.AppendEntriesResponse(server, 1, true, 2));
+            List<Entry> conflicting = List.of(new Entry(2, new CounterCommand("", 4, 2)));
+            server.tell(new RaftMessage.AppendEntries(2, probeRef, 0, 1, conflicting, 0));
+            probe.expectMessage(new RaftMessage.AppendEntriesResponse(server, 2, true, 1));
+            server.tell(new RaftMessage.ClientUnstableReadRequest(client.ref()));
+            client.expectMessage(new ClientMessage.ClientUnstableReadResponse<Integer>(7));
+        } finally {
+            stateMachine.release.countDown();
+        }
+    }
+
     @Test
     public void followerRespondsToUnstableReadWithUncommittedEntries(){
         TestProbe<ClientMessage> client = testKit.createTestProbe();
@@ -168,12 +237,92 @@ public class ServerUnstableReadsTests {
     }
 
     @Test
-    public void followerReceivesCommittedReadNoLeaderBuffersRequestAndThenForwardsItAfterDiscoversLeader(){
+    public void followerUnstableReadDropsTruncatedConflictingTail(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1,-1, getEntries(3), -1));
+        server.tell(new RaftMessage.ClientUnstableReadRequest(client.ref()));
+        client.expectMessage(new ClientMessage.ClientUnstableReadResponse<Integer>(7));
+        List<Entry> conflicting = List.of(new Entry(2, new CounterCommand("", 4, 3)));
+        server.tell(new RaftMessage.AppendEntries(2, probeRef, 0, 1, conflicting, -1));
+        server.tell(new RaftMessage.ClientUnstableReadRequest(client.ref()));
+        client.expectMessage(new ClientMessage.ClientUnstableReadResponse<Integer>(6));
+    }
+
+    @Test
+    public void followerUnstableReadStartsFromInstalledSnapshot(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1,-1, getEntries(3), -1));
+        server.tell(new RaftMessage.ClientUnstableReadRequest(client.ref()));
+        client.expectMessage(new ClientMessage.ClientUnstableReadResponse<Integer>(7));
+        server.tell(new RaftMessage.InstallSnapshot(1, probeRef, new Snapshot(4, 1, 5)));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, 4, 1, List.of(new Entry(1, new CounterCommand("", 5, 1))), -1));
+        server.tell(new RaftMessage.ClientUnstableReadRequest(client.ref()));
+        client.expectMessage(new ClientMessage.ClientUnstableReadResponse<Integer>(4));
+    }
+
+    @Test
+    public void followerUnstableReadSkipsRetryBothBeforeAndAfterItCommits(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        List<Entry> entries = new ArrayList<>();
+        entries.add(new Entry(1, new CounterCommand("client", 1, 1)));
+        entries.add(new Entry(1, new CounterCommand("client", 1, 1)));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1,-1, entries, -1));
+        server.tell(new RaftMessage.ClientUnstableReadRequest(client.ref()));
+        client.expectMessage(new ClientMessage.ClientUnstableReadResponse<Integer>(9));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, 1, 1, List.of(new Entry(1, new CounterCommand("client", 2, 1))), 1));
+        server.tell(new RaftMessage.ClientUnstableReadRequest(client.ref()));
+        client.expectMessage(new ClientMessage.ClientUnstableReadResponse<Integer>(8));
+    }
+
+    @Test
+    public void followerReceivesCommittedReadNoLeaderBuffersRequestAndThenAsksForReadIndexAfterDiscoversLeader(){
         TestProbe<ClientMessage> client = testKit.createTestProbe();
         server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
         server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
         server.tell(new RaftMessage.AppendEntries(1, probeRef, -1,-1, new ArrayList<>(), 0));
-        probe.expectMessage(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        probe.expectMessage(new RaftMessage.ReadIndexRequest(server, 1));
+    }
+
+    @Test
+    public void followerAnswersCommittedReadFromOwnStateOnceItHasAppliedTheReadIndex(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1,-1, getEntries(3), 0));
+        probe.receiveMessage();
+        server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        probe.expectMessage(new RaftMessage.ReadIndexRequest(server, 1));
+        server.tell(new RaftMessage.ReadIndexResponse(1, 2));
+        client.expectNoMessage();
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, 2, 1, new ArrayList<>(), 2));
+        client.expectMessage(new ClientMessage.ClientCommittedReadResponse<>(7));
+    }
+
+    @Test
+    public void followerSharesOneReadIndexRequestBetweenReadsQueuedBehindIt(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1,-1, new ArrayList<>(), -1));
+        probe.receiveMessage();
+        for (int i = 0; i < 5; i++) server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        probe.expectMessage(new RaftMessage.ReadIndexRequest(server, 1));
+        server.tell(new RaftMessage.ReadIndexResponse(1, -1));
+        probe.expectMessage(new RaftMessage.ReadIndexRequest(server, 2));
+        server.tell(new RaftMessage.ReadIndexResponse(2, -1));
+        assertEquals(5, client.receiveSeveralMessages(5).size());
+        probe.expectNoMessage();
+    }
+
+    @Test
+    public void leaderAnswersReadIndexRequestWithCommitIndexAfterHeartbeatRound(){
+        List<TestProbe<RaftMessage>> serverGroup = getProbeGroup(2);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), 1, getProbeGroupRefs(serverGroup), -1, -1));
+        server.tell(new RaftMessage.ReadIndexRequest(probeRef, 3));
+        probe.expectNoMessage();
+        acknowledgeHeartbeats(serverGroup.get(0), 3);
+        probe.expectMessage(new RaftMessage.ReadIndexResponse(3, 0));
     }
 
 
@@ -185,6 +334,8 @@ public class ServerUnstableReadsTests {
         server = testKit.spawn(Candidate.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag(), new Object(), 0, groupRefs, -1, -1));
         server.tell(new RaftMessage.RequestVoteResponse(0, true));
         server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        // the new leader's no-op, its first heartbeat and the read's round
+        acknowledgeHeartbeats(serverGroup.get(0), 3);
         client.expectMessage(new ClientMessage.ClientCommittedReadResponse<>(0));
     }
 
@@ -223,7 +374,7 @@ public class ServerUnstableReadsTests {
     @Test
     public void leaderReceivesCommittedReadRequestReturnsCommittedState(){
         TestProbe<ClientMessage> client = testKit.createTestProbe();
-        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), 0, new ArrayList<>(), -1, -1));
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), 1, new ArrayList<>(), -1, -1));
         server.tell(new RaftMessage.TestMessage.SaveEntries(getEntries(3)));
         server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
         client.expectMessage(new ClientMessage.ClientCommittedReadResponse<>(0));
@@ -232,7 +383,10 @@ public class ServerUnstableReadsTests {
     @Test
     public void leaderReceivesUnstableReadRequestReturnsTentativeState(){
         TestProbe<ClientMessage> client = testKit.createTestProbe();
-        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), 0, new ArrayList<>(), -1, -1));
+        // a follower that never answers keeps the leader's no-op from committing before its log is replaced
+        ArrayList<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), 0, groupRefs, -1, -1));
         server.tell(new RaftMessage.TestMessage.SaveEntries(getEntries(3)));
         server.tell(new RaftMessage.ClientUnstableReadRequest(client.ref()));
         client.expectMessage(new ClientMessage.ClientUnstableReadResponse<>(-3));
@@ -253,7 +407,256 @@ public class ServerUnstableReadsTests {
         groupRefs.add(probeRef);
         server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(1),  new Object(), new FailFlag(), 0, groupRefs, -1, -1));
         server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(refResolver.toSerializationFormat(client.ref()), 1, 1)));
-        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 0, true, 0));
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 0, true, 1));
         client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
     }
+
+    @Test
+    public void leaderRejectsUpdateThatOnlyFitsIfUncommittedUpdatesAreIgnored(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        ArrayList<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(2),  new Object(), new FailFlag(), 0, groupRefs, -1, -1));
+        String clientRef = refResolver.toSerializationFormat(client.ref());
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, 1, 1)));
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, 2, 1)));
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, 3, 1)));
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(false, 3));
+    }
+
+    @Test
+    public void leaderAnswersRetryOfAppliedUpdateFromSessionWithoutAppendingIt(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        ArrayList<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(1),  new Object(), new FailFlag(), 0, groupRefs, -1, -1));
+        RaftMessage.ClientUpdateRequest request = new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(refResolver.toSerializationFormat(client.ref()), 1, 1));
+        server.tell(request);
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 0, true, 1));
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
+        server.tell(request);
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
+        TestProbe<RaftMessage> stateProbe = testKit.createTestProbe();
+        server.tell(new RaftMessage.TestMessage.GetState(stateProbe.ref()));
+        assertEquals(2, stateProbe.expectMessageClass(RaftMessage.TestMessage.GetStateResponse.class).log().size());
+    }
+
+    @Test
+    public void leaderAnswersRetryOfOlderAppliedUpdateFromSession(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        ArrayList<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10),  new Object(), new FailFlag(), 0, groupRefs, -1, -1));
+        String clientRef = refResolver.toSerializationFormat(client.ref());
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, 1, 1)));
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, 2, 1)));
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 0, true, 2));
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 2));
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, 1, 1)));
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
+        TestProbe<RaftMessage> stateProbe = testKit.createTestProbe();
+        server.tell(new RaftMessage.TestMessage.GetState(stateProbe.ref()));
+        assertEquals(3, stateProbe.expectMessageClass(RaftMessage.TestMessage.GetStateResponse.class).log().size());
+    }
+
+    @Test
+    public void leaderDoesNotAppendRetryOfOlderPendingUpdate(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        ArrayList<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        RaftConfig config = new RaftConfig();
+        config.batchWindowMillis = 0;
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10),  new Object(), new FailFlag(), config, 0, groupRefs, -1, -1));
+        String clientRef = refResolver.toSerializationFormat(client.ref());
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, 1, 1)));
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, 2, 1)));
+        server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, 1, 1)));
+        TestProbe<RaftMessage> stateProbe = testKit.createTestProbe();
+        server.tell(new RaftMessage.TestMessage.GetState(stateProbe.ref()));
+        assertEquals(3, stateProbe.expectMessageClass(RaftMessage.TestMessage.GetStateResponse.class).log().size());
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 0, true, 2));
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 2));
+    }
+
+    @Test
+    public void leaderRejectsUpdateFromClientWhoseSessionExpired(){
+        TestProbe<ClientMessage> idleClient = testKit.createTestProbe();
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        ArrayList<ActorRef<RaftMessage>> groupRefs = new ArrayList<>();
+        groupRefs.add(probeRef);
+        RaftConfig config = new RaftConfig();
+        config.sessionTimeoutEntries = 2;
+        config.batchWindowMillis = 0;
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(10),  new Object(), new FailFlag(), config, 0, groupRefs, -1, -1));
+        CounterCommand idleCommand = new CounterCommand(refResolver.toSerializationFormat(idleClient.ref()), 1, 1);
+        server.tell(new RaftMessage.ClientUpdateRequest(idleClient.ref(), idleCommand));
+        String clientRef = refResolver.toSerializationFormat(client.ref());
+        for (int commandID = 1; commandID <= 3; commandID++){
+            server.tell(new RaftMessage.ClientUpdateRequest(client.ref(), new CounterCommand(clientRef, commandID, 1)));
+        }
+        server.tell(new RaftMessage.AppendEntriesResponse(probeRef, 0, true, 4));
+        idleClient.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
+        server.tell(new RaftMessage.ClientUpdateRequest(idleClient.ref(), idleCommand));
+        idleClient.expectMessage(new ClientMessage.ClientUpdateResponse(false, 1));
+        TestProbe<RaftMessage> stateProbe = testKit.createTestProbe();
+        server.tell(new RaftMessage.TestMessage.GetState(stateProbe.ref()));
+        assertEquals(5, stateProbe.expectMessageClass(RaftMessage.TestMessage.GetStateResponse.class).log().size());
+    }
+
+    @Test
+    public void newLeaderAnswersRetryOfUpdateAppendedByEarlierLeaderOnceItsNoOpCommits(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        TestProbe<ClientMessage> restartedClient = testKit.createTestProbe();
+        List<TestProbe<RaftMessage>> serverGroup = getProbeGroup(2);
+        CounterCommand command = new CounterCommand(refResolver.toSerializationFormat(client.ref()), 1, 1);
+        server = testKit.spawn(Candidate.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag(), new Object(), 2, getProbeGroupRefs(serverGroup), -1, -1));
+        server.tell(new RaftMessage.TestMessage.SaveEntries(List.of(new Entry(1, command))));
+        server.tell(new RaftMessage.RequestVoteResponse(2, true));
+        server.tell(new RaftMessage.ClientUpdateRequest(restartedClient.ref(), command));
+        restartedClient.expectNoMessage();
+        server.tell(new RaftMessage.AppendEntriesResponse(serverGroup.get(0).ref(), 2, true, 1));
+        restartedClient.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
+        client.expectMessage(new ClientMessage.ClientUpdateResponse(true, 1));
+        TestProbe<RaftMessage> stateProbe = testKit.createTestProbe();
+        server.tell(new RaftMessage.TestMessage.GetState(stateProbe.ref()));
+        assertEquals(2, stateProbe.expectMessageClass(RaftMessage.TestMessage.GetStateResponse.class).log().size());
+    }
+
+    @Test
+    public void followerAppliesUpdateRetriedIntoTheLogOnlyOnce(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag()));
+        List<Entry> entries = new ArrayList<>();
+        entries.add(new Entry(1, new CounterCommand("client", 1, 1)));
+        entries.add(new Entry(1, new CounterCommand("client", 1, 1)));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1,-1, entries, 1));
+        probe.receiveMessage();
+        server.tell(new RaftMessage.TestMessage.GetStateMachineState(probeRef));
+        probe.expectMessage(new RaftMessage.TestMessage.GetStateMachineStateResponse<Integer>(9));
+    }
+
+    @Test
+    public void leaderAnswersManyCommittedReadsWithFewHeartbeatRounds(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        List<TestProbe<RaftMessage>> serverGroup = getProbeGroup(2);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), 1, getProbeGroupRefs(serverGroup), -1, -1));
+        for (int i = 0; i < 50; i++) server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        // the leader's no-op, its first heartbeat and one round for all 50 reads, held until the no-op commits
+        acknowledgeHeartbeats(serverGroup.get(0), 3);
+        assertEquals(50, client.receiveSeveralMessages(50).size());
+    }
+
+    @Test
+    public void newLeaderHoldsCommittedReadsUntilItsNoOpCommits(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        List<TestProbe<RaftMessage>> serverGroup = getProbeGroup(2);
+        TestProbe<RaftMessage> follower = serverGroup.get(0);
+        server = testKit.spawn(Candidate.create(new ServerFileWriter(), new TicketCounter(10), new FailFlag(), new Object(), 2, getProbeGroupRefs(serverGroup), -1, -1));
+        server.tell(new RaftMessage.TestMessage.SaveEntries(getEntries(3)));
+        server.tell(new RaftMessage.RequestVoteResponse(2, true));
+        server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        int noOpsSent = acknowledgeOnlyHeartbeats(follower, 3);
+        client.expectNoMessage();
+        for (int i = 0; i < noOpsSent; i++) server.tell(new RaftMessage.AppendEntriesResponse(follower.ref(), 2, true, 3));
+        // whatever was sent while the read was held, then the read's own round
+        acknowledgeHeartbeats(follower, 3);
+        // the read index covers the three entries inherited from term 1
+        client.expectMessage(new ClientMessage.ClientCommittedReadResponse<>(7));
+    }
+
+    @Test
+    public void deposedLeaderDoesNotAnswerCommittedRead(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        List<TestProbe<RaftMessage>> serverGroup = getProbeGroup(2);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), 1, getProbeGroupRefs(serverGroup), -1, -1));
+        server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        server.tell(new RaftMessage.AppendEntriesResponse(serverGroup.get(0).ref(), 2, false, -1));
+        client.expectNoMessage();
+    }
+
+    private static RaftConfig getLeaseConfig() {
+        RaftConfig config = new RaftConfig();
+        config.leaseReads = true;
+        return config;
+    }
+
+    @Test
+    public void leaderHoldingLeaseAnswersCommittedReadWithoutHeartbeatRound(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        List<TestProbe<RaftMessage>> serverGroup = getProbeGroup(2);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), getLeaseConfig(), 1, getProbeGroupRefs(serverGroup), -1, -1));
+        acknowledgeHeartbeats(serverGroup.get(0), 2);     // the no-op and the first heartbeat
+        server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        client.expectMessage(new ClientMessage.ClientCommittedReadResponse<>(0));
+    }
+
+    @Test
+    public void newLeaderHoldingLeaseHoldsCommittedReadUntilItsNoOpCommits(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        List<TestProbe<RaftMessage>> serverGroup = getProbeGroup(2);
+        TestProbe<RaftMessage> follower = serverGroup.get(0);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), getLeaseConfig(), 1, getProbeGroupRefs(serverGroup), -1, -1));
+        int noOpsSent = acknowledgeOnlyHeartbeats(follower, 2);
+        server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        client.expectNoMessage();
+        for (int i = 0; i < noOpsSent; i++) server.tell(new RaftMessage.AppendEntriesResponse(follower.ref(), 1, true, 0));
+        // whatever was sent while the read was held, then the read's own round
+        acknowledgeHeartbeats(follower, 3);
+        client.expectMessage(new ClientMessage.ClientCommittedReadResponse<>(0));
+    }
+
+    @Test
+    public void newLeaderQueuesReadIndexRequestUntilItsNoOpCommits(){
+        List<TestProbe<RaftMessage>> serverGroup = getProbeGroup(2);
+        TestProbe<RaftMessage> follower = serverGroup.get(0);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), getLeaseConfig(), 1, getProbeGroupRefs(serverGroup), -1, -1));
+        int noOpsSent = acknowledgeOnlyHeartbeats(follower, 2);
+        server.tell(new RaftMessage.ReadIndexRequest(probeRef, 5));
+        probe.expectNoMessage();
+        for (int i = 0; i < noOpsSent; i++) server.tell(new RaftMessage.AppendEntriesResponse(follower.ref(), 1, true, 0));
+        acknowledgeHeartbeats(follower, 3);
+        probe.expectMessage(new RaftMessage.ReadIndexResponse(5, 0));
+    }
+
+    @Test
+    public void followerInLeaseModeRefusesVoteSoonAfterHearingFromLeader(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag(), getLeaseConfig()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, new ArrayList<>(), -1));
+        probe.receiveMessage();
+        server.tell(new RaftMessage.RequestVote(2, probeRef, -1, -1, false));
+        probe.expectMessage(new RaftMessage.RequestVoteResponse(1, false));
+    }
+
+    @Test
+    public void followerInLeaseModeRefusesVoteRightAfterRestart(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag(), getLeaseConfig()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, new ArrayList<>(), -1));
+        probe.receiveMessage();
+        server.tell(new RaftMessage.Failure());
+        server.tell(new RaftMessage.RequestVote(2, probeRef, -1, -1, false));
+        probe.expectMessage(new RaftMessage.RequestVoteResponse(1, false));
+    }
+
+    @Test
+    public void followerInLeaseModeVotesForLeadershipTransferTarget(){
+        server = testKit.spawn(Follower.create(new ServerFileWriter(), new TicketCounter(0), new FailFlag(), getLeaseConfig()));
+        server.tell(new RaftMessage.AppendEntries(1, probeRef, -1, -1, new ArrayList<>(), -1));
+        probe.receiveMessage();
+        server.tell(new RaftMessage.RequestVote(2, probeRef, -1, -1, true));
+        probe.expectMessage(new RaftMessage.RequestVoteResponse(2, true));
+    }
+
+    @Test
+    public void leaderHoldingLeaseStopsServingLeaseReadsOnceItSendsTimeoutNow(){
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        List<TestProbe<RaftMessage>> serverGroup = getProbeGroup(2);
+        TestProbe<RaftMessage> follower = serverGroup.get(0);
+        server = testKit.spawn(Leader.create(new ServerFileWriter(), new TicketCounter(0),  new Object(), new FailFlag(), getLeaseConfig(), 1, getProbeGroupRefs(serverGroup), -1, -1));
+        acknowledgeHeartbeats(follower, 2);     // the no-op and the first heartbeat
+        server.tell(new RaftMessage.TransferLeadership(follower.ref()));
+        while (!(follower.receiveMessage() instanceof RaftMessage.TimeoutNow)) {}
+        server.tell(new RaftMessage.ClientCommittedReadRequest(client.ref()));
+        client.expectNoMessage();
+    }
 }
@@ -0,0 +1,51 @@
+import org.junit.*;
+import statemachine.CounterCommand;
+import statemachine.SessionTable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionTableTests {
+
+    @Test
+    public void commandsUpToTheClientsLatestAppliedIDAreApplied(){
+        SessionTable sessions = new SessionTable();
+        sessions.record(new CounterCommand("client", 3, 1), 0, 100);
+        assertTrue(sessions.isApplied(new CounterCommand("client", 2, 1)));
+        assertTrue(sessions.isApplied(new CounterCommand("client", 3, 1)));
+        assertFalse(sessions.isApplied(new CounterCommand("client", 4, 1)));
+        assertFalse(sessions.isApplied(new CounterCommand("other", 3, 1)));
+    }
+
+    @Test
+    public void sessionsWithoutRecentUpdatesExpire(){
+        SessionTable sessions = new SessionTable();
+        sessions.record(new CounterCommand("idle", 1, 1), 0, 10);
+        sessions.record(new CounterCommand("active", 1, 1), 5, 10);
+        sessions.record(new CounterCommand("active", 2, 1), 10, 10);
+        assertEquals(1, sessions.size());
+        assertFalse(sessions.isApplied(new CounterCommand("idle", 1, 1)));
+        assertTrue(sessions.isApplied(new CounterCommand("active", 2, 1)));
+    }
+
+    @Test
+    public void copyIsNotChangedByLaterUpdates(){
+        SessionTable sessions = new SessionTable();
+        sessions.record(new CounterCommand("client", 1, 1), 0, 100);
+        SessionTable copy = sessions.copy();
+        sessions.record(new CounterCommand("client", 2, 1), 1, 100);
+        assertFalse(copy.isApplied(new CounterCommand("client", 2, 1)));
+    }
+
+    @Test
+    public void expiredClientsCommandsAreSkipped(){
+        SessionTable sessions = new SessionTable();
+        sessions.record(new CounterCommand("idle", 1, 1), 0, 10);
+        sessions.record(new CounterCommand("active", 1, 1), 10, 10);
+        assertTrue(sessions.isExpired("idle"));
+        assertTrue(sessions.isSkipped(new CounterCommand("idle", 2, 1)));
+        assertFalse(sessions.isSkipped(new CounterCommand("active", 2, 1)));
+        assertTrue(sessions.copy().isExpired("idle"));
+    }
+}
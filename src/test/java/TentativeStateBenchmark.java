@@ -0,0 +1,100 @@
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import datapersistence.DurabilityMode;
+import datapersistence.SegmentedLogWriter;
+import messages.ClientMessage;
+import messages.RaftMessage;
+import raftstates.FailFlag;
+import raftstates.Follower;
+import statemachine.CounterCommand;
+import statemachine.Entry;
+import statemachine.StateMachine;
+import statemachine.TicketCounter;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Cost of keeping the tentative state current on a follower holding an uncommitted backlog. Each step appends
+ * one entry and then asks for an unstable read. The first column is the measured time per step through a real
+ * Follower, which now applies only the new entry. The second is the time to fork the committed state and replay
+ * the whole backlog, which the follower used to do on every append.
+ *
+ * Run with: java -cp <test classpath> TentativeStateBenchmark [steps per backlog]
+ */
+public class TentativeStateBenchmark {
+
+    public static void main(String[] args) {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        ActorTestKit testKit = ActorTestKit.create();
+        try {
+            System.out.printf("%-10s %16s %18s%n", "backlog", "us/step", "replay us/append");
+            for (int backlog : new int[]{10, 100, 1_000, 10_000, 100_000}){
+                double stepMicros = measureFollower(testKit, backlog, steps);
+                double replayMicros = measureReplay(backlog, Math.max(10, steps * 100 / backlog));
+                System.out.printf("%-10d %16.1f %18.1f%n", backlog, stepMicros, replayMicros);
+            }
+        } finally {
+            testKit.shutdownTestKit();
+            deleteDirectory(new File("./data/"));
+        }
+    }
+
+    private static double measureFollower(ActorTestKit testKit, int backlog, int steps) {
+        TestProbe<RaftMessage> leader = testKit.createTestProbe();
+        TestProbe<ClientMessage> client = testKit.createTestProbe();
+        ActorRef<RaftMessage> follower = testKit.spawn(Follower.create(new SegmentedLogWriter(DurabilityMode.PAGE_CACHE), new TicketCounter(Integer.MAX_VALUE), new FailFlag()));
+        follower.tell(new RaftMessage.AppendEntries(1, leader.ref(), -1, -1, getEntries(0, backlog), -1));
+        leader.expectMessageClass(RaftMessage.AppendEntriesResponse.class, Duration.ofSeconds(60));
+
+        long start = 0;
+        for (int step = -steps / 10; step < steps; step++){
+            if (step == 0) start = System.nanoTime();
+            int lastIndex = backlog + step + steps / 10 - 1;
+            follower.tell(new RaftMessage.AppendEntries(1, leader.ref(), lastIndex, 1, getEntries(lastIndex + 1, 1), -1));
+            follower.tell(new RaftMessage.ClientUnstableReadRequest(client.ref()));
+            leader.expectMessageClass(RaftMessage.AppendEntriesResponse.class, Duration.ofSeconds(60));
+            client.expectMessageClass(ClientMessage.ClientUnstableReadResponse.class, Duration.ofSeconds(60));
+        }
+        double micros = (System.nanoTime() - start) / 1_000.0 / steps;
+        follower.tell(new RaftMessage.ShutDown(null));
+        return micros;
+    }
+
+    private static double measureReplay(int backlog, int rounds) {
+        List<Entry> entries = getEntries(0, backlog);
+        StateMachine<Integer, CounterCommand> committed = new TicketCounter(Integer.MAX_VALUE);
+        long checksum = 0;
+        long start = 0;
+        for (int round = -rounds / 10; round < rounds; round++){
+            if (round == 0) start = System.nanoTime();
+            StateMachine<Integer, CounterCommand> tentative = committed.forkStateMachine();
+            for (Entry e : entries) tentative.apply((CounterCommand) e.command());
+            checksum += tentative.getState();
+        }
+        double micros = (System.nanoTime() - start) / 1_000.0 / rounds;
+        if (checksum == 42) System.out.println();
+        return micros;
+    }
+
+    private static List<Entry> getEntries(int firstCommandID, int count) {
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            entries.add(new Entry(1, new CounterCommand("client", firstCommandID + i, 1)));
+        }
+        return entries;
+    }
+
+    private static void deleteDirectory(File directory){
+        File[] contents = directory.listFiles();
+        if (contents != null){
+            for (File file : contents){
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+}
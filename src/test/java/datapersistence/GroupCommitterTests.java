@@ -0,0 +1,120 @@
+package datapersistence;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitterTests {
+
+    private GroupCommitter committer;
+
+    private final AtomicInteger forces = new AtomicInteger();
+
+    @After
+    public void tearDown(){
+        if (this.committer != null) this.committer.close();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(3, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void requestsMadeDuringAForceShareTheNextOne(){
+        CountDownLatch firstForceStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstForce = new CountDownLatch(1);
+        this.committer = new GroupCommitter(DurabilityMode.FSYNC_PER_BATCH, () -> {
+            if (forces.incrementAndGet() == 1){
+                firstForceStarted.countDown();
+                await(releaseFirstForce);
+            }
+        });
+        CountDownLatch durable = new CountDownLatch(3);
+        this.committer.requestSync(durable::countDown);
+        await(firstForceStarted);
+        this.committer.requestSync(durable::countDown);
+        this.committer.requestSync(durable::countDown);
+        releaseFirstForce.countDown();
+        await(durable);
+        assertEquals(2, forces.get());
+    }
+
+    @Test
+    public void closeRunsRequestedCallbacksAfterAFinalForce(){
+        this.committer = new GroupCommitter(DurabilityMode.FSYNC_PER_BATCH, forces::incrementAndGet);
+        AtomicInteger durable = new AtomicInteger();
+        this.committer.requestSync(durable::incrementAndGet);
+        this.committer.close();
+        assertEquals(1, durable.get());
+        assertTrue(forces.get() >= 1);
+    }
+
+    @Test
+    public void closedCommitterRefusesSyncs(){
+        this.committer = new GroupCommitter(DurabilityMode.FSYNC_PER_BATCH, forces::incrementAndGet);
+        this.committer.close();
+        try {
+            this.committer.requestSync(() -> {});
+            fail("sync accepted after close");
+        } catch (IllegalStateException e) {
+            assertEquals(0, forces.get());
+        }
+    }
+
+    @Test
+    public void closeStopsTimerSyncs() throws InterruptedException {
+        this.committer = new GroupCommitter(DurabilityMode.FSYNC_ON_TIMER, forces::incrementAndGet);
+        this.committer.syncNow();
+        Thread.sleep(200);
+        assertTrue(forces.get() > 0);
+        this.committer.close();
+        int forcesAtClose = forces.get();
+        Thread.sleep(200);
+        assertEquals(forcesAtClose, forces.get());
+    }
+
+    @Test
+    public void failedForceSkipsItsCallbacksAndIsThrownByLaterSyncs(){
+        IOException diskError = new IOException("disk error");
+        this.committer = new GroupCommitter(DurabilityMode.FSYNC_PER_BATCH, () -> {
+            forces.incrementAndGet();
+            throw new RuntimeException(diskError);
+        });
+        AtomicInteger durable = new AtomicInteger();
+        this.committer.requestSync(durable::incrementAndGet);
+        this.committer.close();
+        assertEquals(0, durable.get());
+        try {
+            this.committer.requestSync(durable::incrementAndGet);
+            fail("sync accepted after a failed force");
+        } catch (RuntimeException e) {
+            assertEquals(diskError, e.getCause().getCause());
+        }
+        assertEquals(1, forces.get());
+        assertEquals(0, durable.get());
+    }
+
+    @Test
+    public void syncNowThrowsWhenItsForceFails(){
+        this.committer = new GroupCommitter(DurabilityMode.FSYNC_PER_BATCH, () -> {
+            throw new RuntimeException(new IOException("disk error"));
+        });
+        try {
+            this.committer.syncNow();
+            fail("failed force not reported");
+        } catch (RuntimeException e) {
+            assertEquals("Log force failed", e.getMessage());
+        }
+    }
+}